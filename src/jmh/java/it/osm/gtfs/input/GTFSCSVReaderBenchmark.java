@@ -0,0 +1,108 @@
+/**
+ * Licensed under the GNU General Public License version 3
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.gnu.org/licenses/gpl-3.0.html
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package it.osm.gtfs.input;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/***
+ * Compares GTFSCSVReader with the regex splitter that GTFSParser used before, on synthetic stop_times.txt rows
+ * with some quoted values. Both read all the fields of every row.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GTFSCSVReaderBenchmark {
+    @Param({"100000"})
+    private int rows;
+
+    private String stopTimes;
+
+    @Setup
+    public void setup() {
+        StringBuilder builder = new StringBuilder("trip_id,arrival_time,departure_time,stop_id,stop_sequence,stop_headsign,pickup_type,drop_off_type\n");
+        for (int i = 0; i < rows; i++) {
+            int minutes = 360 + i % 1000;
+            String time = String.format("%02d:%02d:00", minutes / 60, minutes % 60);
+
+            builder.append("trip_").append(i / 30).append(',').append(time).append(',').append(time).append(',')
+                    .append(i % 5000).append(',').append(i % 30 + 1).append(',');
+            if (i % 10 == 0)
+                builder.append("\"Piazza Duomo, via Torino\"");
+            builder.append(",0,0\n");
+        }
+        stopTimes = builder.toString();
+    }
+
+    @Benchmark
+    public void regexSplitter(Blackhole blackhole) throws IOException {
+        BufferedReader reader = new BufferedReader(new StringReader(stopTimes));
+        reader.readLine();
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            for (String element : getElementsFromLine(line, true)) {
+                blackhole.consume(element);
+            }
+        }
+    }
+
+    @Benchmark
+    public void csvReader(Blackhole blackhole) throws IOException {
+        GTFSCSVReader reader = new GTFSCSVReader(new StringReader(stopTimes), true);
+
+        while (reader.readRecord()) {
+            for (int i = 0; i < reader.getFieldCount(); i++) {
+                blackhole.consume(reader.get(i));
+            }
+        }
+        reader.close();
+    }
+
+    //the splitter of GTFSParser before GTFSCSVReader, kept as it was for the comparison
+    private static String[] getElementsFromLine(String thisLine, boolean removeCommasFromValues) {
+        List<String> elements = new ArrayList<>();
+
+        thisLine = thisLine.trim();
+
+        Pattern pattern = Pattern.compile(",(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)");
+        // pass limit=-1 to pattern.split() to avoid discarding trailing empty fields
+        String[] temp = pattern.split(thisLine, -1);
+
+        for (String element : temp) {
+            if (element.startsWith("\"") && element.endsWith("\"")) {
+                element = element.substring(1, element.length() - 1);
+            }
+
+            if (removeCommasFromValues) {
+                element = element.replace(",", "");
+            }
+
+            elements.add(element);
+        }
+
+        return elements.toArray(new String[0]);
+    }
+}
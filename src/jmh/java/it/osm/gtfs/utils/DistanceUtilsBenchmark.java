@@ -0,0 +1,83 @@
+/**
+ * Licensed under the GNU General Public License version 3
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.gnu.org/licenses/gpl-3.0.html
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package it.osm.gtfs.utils;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * Compares the tiers of the distance checks on pairs of points around Milan, at up to ten times the threshold like the
+ * candidates of the stops matching: distVincenty alone, the equirectangular approximation alone, and isWithinDistance,
+ * which uses the coordinate deltas and the approximation and computes distVincenty only for the pairs near the threshold.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DistanceUtilsBenchmark {
+    private static final int PAIRS = 10000;
+
+    @Param({"50", "200", "2000"})
+    private double threshold;
+
+    private final double[] latitudes1 = new double[PAIRS], longitudes1 = new double[PAIRS];
+    private final double[] latitudes2 = new double[PAIRS], longitudes2 = new double[PAIRS];
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        double maxOffset = threshold * 10 / DistanceUtils.MIN_METERS_PER_DEGREE;
+
+        for (int i = 0; i < PAIRS; i++) {
+            latitudes1[i] = 45.4 + random.nextDouble() * 0.2;
+            longitudes1[i] = 9.1 + random.nextDouble() * 0.2;
+            latitudes2[i] = latitudes1[i] + (random.nextDouble() * 2 - 1) * maxOffset;
+            longitudes2[i] = longitudes1[i] + (random.nextDouble() * 2 - 1) * maxOffset;
+        }
+    }
+
+    @Benchmark
+    public int vincenty() {
+        int within = 0;
+        for (int i = 0; i < PAIRS; i++) {
+            if (DistanceUtils.distVincenty(latitudes1[i], longitudes1[i], latitudes2[i], longitudes2[i]) < threshold)
+                within++;
+        }
+        return within;
+    }
+
+    @Benchmark
+    public int equirectangular() {
+        int within = 0;
+        for (int i = 0; i < PAIRS; i++) {
+            if (DistanceUtils.distEquirectangular(latitudes1[i], longitudes1[i], latitudes2[i], longitudes2[i]) < threshold)
+                within++;
+        }
+        return within;
+    }
+
+    @Benchmark
+    public int isWithinDistance() {
+        int within = 0;
+        for (int i = 0; i < PAIRS; i++) {
+            if (DistanceUtils.isWithinDistance(latitudes1[i], longitudes1[i], latitudes2[i], longitudes2[i], threshold))
+                within++;
+        }
+        return within;
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * Licensed under the GNU General Public License version 3
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.gnu.org/licenses/gpl-3.0.html
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package it.osm.gtfs.utils;
+
+import it.osm.gtfs.enums.OSMStopType;
+import it.osm.gtfs.models.OSMStop;
+import org.jxmapviewer.viewer.GeoPosition;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * Compares the nearby stops search of the stop positions matching (50 m around a stop) with the linear scan of the stops list
+ * and with StopsGridIndex, on 50k stops spread over an area of about 60x60 km. The time of building the index is measured separately.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StopsGridIndexBenchmark {
+    private static final int QUERIES = 1000;
+    private static final double RADIUS = 50;
+
+    @Param({"50000"})
+    private int stopsCount;
+
+    private List<OSMStop> stops;
+    private StopsGridIndex<OSMStop> index;
+    private final List<OSMStop> queryStops = new ArrayList<>();
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        OSMStopType[] stopTypes = {OSMStopType.PHYSICAL_BUS_STOP, OSMStopType.BUS_STOP_POSITION};
+
+        stops = new ArrayList<>(stopsCount);
+        for (int i = 0; i < stopsCount; i++) {
+            GeoPosition geoPosition = new GeoPosition(45.2 + random.nextDouble() * 0.55, 8.9 + random.nextDouble() * 0.75);
+            OSMStop stop = new OSMStop(String.valueOf(i), String.valueOf(i), geoPosition, "Stop " + i, null, null, null);
+            //the stop type isn't set by the constructor
+            stop.setStopType(stopTypes[i % stopTypes.length]);
+            stops.add(stop);
+        }
+
+        index = new StopsGridIndex<>(stops, MatchUtils.OSM_STOPS_INDEX_CELL_SIZE);
+
+        for (int i = 0; i < QUERIES; i++) {
+            queryStops.add(stops.get(random.nextInt(stopsCount)));
+        }
+    }
+
+    @Benchmark
+    public int linearScan() {
+        int found = 0;
+        for (OSMStop stop : queryStops) {
+            found += StopsUtils.getNearbyStops(stop, RADIUS, stops).size();
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int gridIndex() {
+        int found = 0;
+        for (OSMStop stop : queryStops) {
+            found += StopsUtils.getNearbyStops(stop, RADIUS, index).size();
+        }
+        return found;
+    }
+
+    @Benchmark
+    public StopsGridIndex<OSMStop> buildIndex() {
+        return new StopsGridIndex<>(stops, MatchUtils.OSM_STOPS_INDEX_CELL_SIZE);
+    }
+}
@@ -74,7 +74,7 @@ public class GTFSOSMImport {
     @CommandLine.Command(description = "Display current configuration")
     void conf(){
         System.out.println("Current Configuration:\n" +
-                "GTFS path: " + GTFSImportSettings.getInstance().getGTFSDataPath() + "\n" +
+                "GTFS source: " + GTFSImportSettings.getInstance().getGTFSSource() + "\n" +
                 "Output path: " + GTFSImportSettings.getInstance().getOutputPath() + "\n" +
                 "Operator: " + GTFSImportSettings.getInstance().getOperator() + "\n" +
                 "Revised key: " + GTFSImportSettings.getInstance().useRevisedKey() + "\n" +
@@ -21,17 +21,17 @@ import it.osm.gtfs.input.OSMParser;
 import it.osm.gtfs.models.BoundingBox;
 import it.osm.gtfs.models.GTFSStop;
 import it.osm.gtfs.models.OSMStop;
+import it.osm.gtfs.models.OSMXMLNode;
 import it.osm.gtfs.output.OSMBusImportGenerator;
 import it.osm.gtfs.utils.*;
 import org.fusesource.jansi.Ansi;
 import org.jxmapviewer.viewer.GeoPosition;
-import org.w3c.dom.Element;
 import org.xml.sax.SAXException;
 import picocli.CommandLine;
 
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.TransformerException;
-import java.io.FileOutputStream;
+import javax.xml.stream.XMLStreamException;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -55,14 +55,14 @@ public class CmdGenerateBusStopsImport implements Callable<Void> {
     private SharedCliOptions sharedCliOptions;
 
     @Override
-    public Void call() throws IOException, ParserConfigurationException, SAXException, TransformerException, InterruptedException {
+    public Void call() throws IOException, ParserConfigurationException, SAXException, InterruptedException, XMLStreamException {
 
         //update/download OSM data
         if (!noUpdate) {
             new CmdUpdateGTFSOSMData().call();
         }
 
-        List<GTFSStop> gtfsStopsList = GTFSParser.readStops(GTFSImportSettings.getInstance().getGTFSDataPath() + GTFSImportSettings.GTFS_STOP_FILE_NAME);
+        List<GTFSStop> gtfsStopsList = GTFSParser.readStops(GTFSImportSettings.getInstance().getGTFSSource());
         BoundingBox bb = new BoundingBox(gtfsStopsList);
 
         List<OSMStop> osmStopsList = OSMParser.readOSMStops(GTFSImportSettings.getInstance().getOsmStopsFilePath(), SharedCliOptions.checkStopsOfAnyOperatorTagValue);
@@ -70,8 +70,11 @@ public class CmdGenerateBusStopsImport implements Callable<Void> {
         //TODO: TO REMOVE - THIS IS ONLY FOR A QUICK DEBUG!!!!
         // osmStopsList = osmStopsList.subList(0, 500);
 
+        //the index of the OSM stops positions is built once, the matching searches the near stops in it
+        StopsGridIndex<OSMStop> osmStopsIndex = new StopsGridIndex<>(osmStopsList, MatchUtils.OSM_STOPS_INDEX_CELL_SIZE);
+
         //first matching phase between GTFS and OSM stops
-        new MatchUtils().doStopsMatching(gtfsStopsList, osmStopsList);
+        new MatchUtils().doStopsMatching(gtfsStopsList, osmStopsIndex);
 
         //second matching phase by checking all osm stops again (also checking stops that didn't get matched && those that we don't consider matched)
         {
@@ -79,11 +82,11 @@ public class CmdGenerateBusStopsImport implements Callable<Void> {
             int not_matched_osm_stops = 0;
             int stopsToReview = 0;
 
-            OSMBusImportGenerator bufferNotMatchedStops = new OSMBusImportGenerator(bb);
-            OSMBusImportGenerator bufferMatchedStops = new OSMBusImportGenerator(bb);
+            OSMBusImportGenerator bufferNotMatchedStops = new OSMBusImportGenerator(bb, new File(GTFSImportSettings.getInstance().getOutputPath() + GTFSImportSettings.OUTPUT_NOT_MATCHED_STOPS));
+            OSMBusImportGenerator bufferMatchedStops = new OSMBusImportGenerator(bb, new File(GTFSImportSettings.getInstance().getOutputPath() + GTFSImportSettings.OUTPUT_MATCHED_WITH_UPDATED_METADATA));
 
             for (OSMStop osmStop : osmStopsList) {
-                Element originalNode = (Element) osmStop.originalXMLNode;
+                OSMXMLNode originalNode = osmStop.originalXMLNode;
 
                 //we check if the osm stop got matched with a gtfs stop AND only IF the osm stop needs the position review but the user doesn't want to review the stops then we consider the stop as not matched and we handle it in the else case
                 if (osmStop.gtfsStopMatchedWith != null && !(osmStop.needsPositionReview() && noGuiReview)) {
@@ -153,7 +156,7 @@ public class CmdGenerateBusStopsImport implements Callable<Void> {
                     System.out.println(ansi().render("@|yellow Saving accepted coordinates... |@"));
 
                     for (OSMStop reviewedOsmStop : osmStopsToReview) {
-                        Element originalNode = (Element) reviewedOsmStop.originalXMLNode;
+                        OSMXMLNode originalNode = reviewedOsmStop.originalXMLNode;
 
                         GeoPosition chosenGeoPosition = finalReviewedGeopositions.get(reviewedOsmStop);
 
@@ -168,13 +171,18 @@ public class CmdGenerateBusStopsImport implements Callable<Void> {
                     System.out.println(ansi().render("@|red Stop locations review not completed. \n If you don't want to review the stops manually you can use the --noreview command option. |@"));
                     System.out.println(ansi().render("@|red No stop data will be saved. You may run the tool again to restart the review. |@"));
 
+                    bufferMatchedStops.discard();
+                    bufferNotMatchedStops.discard();
+
                     return null; //we end this command
                 }
             }
 
+            bufferMatchedStops.end();
+            bufferNotMatchedStops.end();
+
             if (matched_stops > 0) {
-                bufferMatchedStops.end();
-                bufferMatchedStops.saveTo(new FileOutputStream(GTFSImportSettings.getInstance().getOutputPath() + GTFSImportSettings.OUTPUT_MATCHED_WITH_UPDATED_METADATA));
+                bufferMatchedStops.save();
 
 
                 System.out.println(ansi().fg(Ansi.Color.GREEN).a("Total Matched OSM stops with GTFS data: ").reset().a(matched_stops).fg(Ansi.Color.YELLOW).a(" (created osm change file to review: " + GTFSImportSettings.OUTPUT_MATCHED_WITH_UPDATED_METADATA + ")").reset());
@@ -185,13 +193,15 @@ public class CmdGenerateBusStopsImport implements Callable<Void> {
                     System.out.println("(" + ansi().fg(Ansi.Color.CYAN).a("Matched stops that need manual position review: ").reset().a(stopsToReview) + ")");
                 }
             } else {
+                bufferMatchedStops.discard();
                 System.out.println(ansi().fg(Ansi.Color.YELLOW).a("No OSM stop got matched with GTFS data!").reset());
             }
 
             if (not_matched_osm_stops > 0) {
-                bufferNotMatchedStops.end();
-                bufferNotMatchedStops.saveTo(new FileOutputStream(GTFSImportSettings.getInstance().getOutputPath() + GTFSImportSettings.OUTPUT_NOT_MATCHED_STOPS));
+                bufferNotMatchedStops.save();
                 System.out.println(ansi().fg(Ansi.Color.GREEN).a("NOT MATCHED OSM stops that should be *removed* from OSM: ").reset().a(not_matched_osm_stops).fg(Ansi.Color.YELLOW).a(" (created osm change file to review: " + GTFSImportSettings.OUTPUT_NOT_MATCHED_STOPS + ")").reset());
+            } else {
+                bufferNotMatchedStops.discard();
             }
 
         }
@@ -199,7 +209,7 @@ public class CmdGenerateBusStopsImport implements Callable<Void> {
         //new stops from gtfs data
         {
             int new_stops_from_gtfs = 0;
-            OSMBusImportGenerator buffer = new OSMBusImportGenerator(bb);
+            OSMBusImportGenerator buffer = new OSMBusImportGenerator(bb, new File(GTFSImportSettings.getInstance().getOutputPath() + GTFSImportSettings.OUTPUT_NEW_STOPS_FROM_GTFS));
 
             for (GTFSStop gtfsStop : gtfsStopsList) {
                 if (gtfsStop.osmStopMatchedWith == null && gtfsStop.stopsMatchedWith.size() == 0 || (gtfsStop.osmStopMatchedWith != null && gtfsStop.osmStopMatchedWith.needsPositionReview() && noGuiReview)) {
@@ -213,9 +223,10 @@ public class CmdGenerateBusStopsImport implements Callable<Void> {
             buffer.end();
 
             if (new_stops_from_gtfs > 0) {
-                buffer.saveTo(new FileOutputStream(GTFSImportSettings.getInstance().getOutputPath() + GTFSImportSettings.OUTPUT_NEW_STOPS_FROM_GTFS));
+                buffer.save();
                 System.out.println(ansi().fg(Ansi.Color.GREEN).a("New stops from GTFS (unmatched stops from GTFS): ").reset().a(new_stops_from_gtfs).fg(Ansi.Color.YELLOW).a(" (created osm change file to import data: " + GTFSImportSettings.OUTPUT_NEW_STOPS_FROM_GTFS + ")").reset());
             } else {
+                buffer.discard();
                 System.out.println(ansi().fg(Ansi.Color.GREEN).a("New stops from GTFS (unmatched stops from GTFS): ").reset().a(new_stops_from_gtfs));
             }
         }
@@ -15,6 +15,8 @@ package it.osm.gtfs.commands;
 
 import com.google.common.collect.Multimap;
 import it.osm.gtfs.input.GTFSParser;
+import it.osm.gtfs.input.GTFSReadFilter;
+import it.osm.gtfs.input.GTFSSource;
 import it.osm.gtfs.input.OSMParser;
 import it.osm.gtfs.models.*;
 import it.osm.gtfs.utils.GTFSImportSettings;
@@ -42,10 +44,15 @@ public class CmdGenerateRoutesDiff implements Callable<Void> {
         Map<String, OSMStop> osmstopsOsmID = StopsUtils.getOSMIdOSMStopMap(osmStops);
         ReadOSMRelationsResult osmRels = OSMParser.readOSMRelations(new File(GTFSImportSettings.getInstance().getOsmRelationsFilePath()), osmstopsOsmID, SharedCliOptions.checkStopsOfAnyOperatorTagValue);
 
-        Map<String, Route> routes = GTFSParser.readRoutes(GTFSImportSettings.getInstance().getGTFSDataPath() + GTFSImportSettings.GTFS_ROUTES_FILE_NAME);
-        ReadStopTimesResult readStopTimesResult = GTFSParser.readStopTimes(GTFSImportSettings.getInstance().getGTFSDataPath() + GTFSImportSettings.GTFS_STOP_TIMES_FILE_NAME, osmstopsGTFSId);
-        List<Trip> trips = GTFSParser.readTrips(GTFSImportSettings.getInstance().getGTFSDataPath() + GTFSImportSettings.GTFS_TRIPS_FILE_NAME,
-                routes, readStopTimesResult.getTripIdStopListMap());
+        GTFSSource gtfsSource = GTFSImportSettings.getInstance().getGTFSSource();
+        //the routes excluded by the plugin are still read, so their trips are reported as skipped
+        GTFSReadFilter readFilter = GTFSReadFilter.forSelectedRoutes(SharedCliOptions.selectedRoutes)
+                .activeBetween(SharedCliOptions.activeFromDate, SharedCliOptions.activeToDate);
+
+        Map<String, Route> routes = GTFSParser.readRoutes(gtfsSource, readFilter);
+        ReadStopTimesResult readStopTimesResult = GTFSParser.readStopTimes(gtfsSource, osmstopsGTFSId, readFilter);
+        List<Trip> trips = GTFSParser.readTrips(gtfsSource,
+                routes, readStopTimesResult.getTripIdStopListMap(), readFilter);
 
         //looking from mapping gtfs trip into existing osm relations
         Set<Relation> osmRelationNotFoundInGTFS = new HashSet<>(osmRels.getFinalValidRelations());
@@ -15,6 +15,9 @@ package it.osm.gtfs.commands;
 
 import com.google.common.collect.Multimap;
 import it.osm.gtfs.input.GTFSParser;
+import it.osm.gtfs.input.GTFSReadFilter;
+import it.osm.gtfs.input.GTFSSource;
+import it.osm.gtfs.input.IndexedShapeReader;
 import it.osm.gtfs.input.OSMParser;
 import it.osm.gtfs.models.*;
 import it.osm.gtfs.output.OSMRelationImportGenerator;
@@ -25,9 +28,9 @@ import org.xml.sax.SAXException;
 import picocli.CommandLine;
 
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 import javax.xml.transform.TransformerException;
 import java.io.*;
-import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.Callable;
 
@@ -43,18 +46,21 @@ public class CmdGenerateRoutesFullRelations implements Callable<Void> {
     Boolean skipDataUpdate = false;
     @CommandLine.Option(names = {"-sw"}, description = "Skip download of updated OSM ways")
     Boolean skipWaysUpdate = false;
+    @CommandLine.Option(names = {"-f", "--relationfiles"}, description = "Also write every relation to its own file in the cache folder (useful for debugging)")
+    Boolean writeRelationFiles = false;
     @CommandLine.Mixin
     private SharedCliOptions sharedCliOptions;
 
     @Override
-    public Void call() throws IOException, ParserConfigurationException, SAXException, InterruptedException, TransformerException {
+    public Void call() throws IOException, ParserConfigurationException, SAXException, InterruptedException, TransformerException, XMLStreamException {
 
         if (!skipDataUpdate) {
             //update osm and gtfs data
             new CmdUpdateGTFSOSMData().call();
         }
 
-        GTFSFeedInfo gtfsFeedInfo = GTFSParser.readFeedInfo(GTFSImportSettings.getInstance().getGTFSDataPath() + GTFSImportSettings.GTFS_FEED_INFO_FILE_NAME);
+        GTFSSource gtfsSource = GTFSImportSettings.getInstance().getGTFSSource();
+        GTFSFeedInfo gtfsFeedInfo = GTFSParser.readFeedInfo(gtfsSource);
 
         Map<String, OSMStop> gtfsIdOsmStopMap = StopsUtils.getGTFSIdOSMStopMap(OSMParser.readOSMStops(GTFSImportSettings.getInstance().getOsmStopsFilePath(), SharedCliOptions.checkStopsOfAnyOperatorTagValue));
 
@@ -68,14 +74,15 @@ public class CmdGenerateRoutesFullRelations implements Callable<Void> {
 
         BoundingBox boundingBox = new BoundingBox(gtfsIdOsmStopMap.values());
 
-        Map<String, Route> routes = GTFSParser.readRoutes(GTFSImportSettings.getInstance().getGTFSDataPath() + GTFSImportSettings.GTFS_ROUTES_FILE_NAME);
-        Map<String, Shape> shapes = GTFSParser.readShapes(GTFSImportSettings.getInstance().getGTFSDataPath() + GTFSImportSettings.GTFS_SHAPES_FILE_NAME);
+        GTFSReadFilter readFilter = GTFSReadFilter.forSelectedRoutes(SharedCliOptions.selectedRoutes)
+                .activeBetween(SharedCliOptions.activeFromDate, SharedCliOptions.activeToDate);
 
-        ReadStopTimesResult readStopTimesResult = GTFSParser.readStopTimes(GTFSImportSettings.getInstance().getGTFSDataPath() + GTFSImportSettings.GTFS_STOP_TIMES_FILE_NAME,
-                gtfsIdOsmStopMap);
+        Map<String, Route> routes = GTFSParser.readRoutes(gtfsSource, readFilter);
+        ReadStopTimesResult readStopTimesResult = GTFSParser.readStopTimes(gtfsSource,
+                gtfsIdOsmStopMap, readFilter);
 
-        List<Trip> trips = GTFSParser.readTrips(GTFSImportSettings.getInstance().getGTFSDataPath() + GTFSImportSettings.GTFS_TRIPS_FILE_NAME,
-                routes, readStopTimesResult.getTripIdStopListMap());
+        List<Trip> trips = GTFSParser.readTrips(gtfsSource,
+                routes, readStopTimesResult.getTripIdStopListMap(), readFilter);
 
         //sorting set
         Multimap<Route, Trip> groupedTrips = GTFSParser.groupTrips(routes, trips);
@@ -105,83 +112,86 @@ public class CmdGenerateRoutesFullRelations implements Callable<Void> {
         //create file paths
         new File(GTFSImportSettings.getInstance().getFullRelsOutputPath()).mkdirs();
 
-        //list of the files to be merged into one
-        List<File> relationsFileList = new ArrayList<>();
-
-        int tempid = 10000;
-
-        for (Route route : finalRoutesSet) { //for every route
-            Collection<Trip> allTrips = groupedTrips.get(route);
-            Set<Trip> uniqueTrips = new HashSet<>(allTrips); //uses the equals method of the Trip class to check if the trips are the same
+        //the relations are written to the merged file in ascending order of their (negative) ids, like a sorted OSM file,
+        //so the ids are assigned from the most negative one and the route master relation comes after its trips
+        int relationsCount = 0;
+        for (Route route : finalRoutesSet) {
+            relationsCount += new HashSet<>(groupedTrips.get(route)).size() + 1;
+        }
 
-            List<Integer> newRelationsIds = new ArrayList<>();
+        int tempid = 10000 + relationsCount - 1;
 
-            for (Trip trip : uniqueTrips) { //for every trip
+        File mergedRelationsFile = new File(GTFSImportSettings.getInstance().getOutputPath() + "gtfs_import_mergedFullRelations.osm");
 
-                int count = Collections.frequency(allTrips, trip); //number of trips with the same headsign present in the gtfs trips file
+        //only the shapes of the unique trips are needed, so they're read on demand, and only if the trips are matched with the ways
+        try (IndexedShapeReader shapes = noOsmWayMatching ? null : new IndexedShapeReader(gtfsSource);
+             OSMRelationImportGenerator mergedRelationsWriter = new OSMRelationImportGenerator(new FileOutputStream(mergedRelationsFile), boundingBox)) {
+            for (Route route : finalRoutesSet) { //for every route
+                Collection<Trip> allTrips = groupedTrips.get(route);
+                Set<Trip> uniqueTrips = new HashSet<>(allTrips); //uses the equals method of the Trip class to check if the trips are the same
 
-                List<Integer> osmWayIds = null;
+                List<Integer> newRelationsIds = new ArrayList<>();
 
-                if (!noOsmWayMatching) {
-                    System.out.println(ansi().fg(Ansi.Color.YELLOW).a("\nCreating full way-matched relation for trip " + trip.getTripHeadsign() + " tripId = " + trip.getTripId() + " ...").reset());
+                for (Trip trip : uniqueTrips) { //for every trip
 
-                    Shape shape = shapes.get(trip.getShapeId());
+                    int count = Collections.frequency(allTrips, trip); //number of trips with the same headsign present in the gtfs trips file
 
-                    String xmlGPXShape = shape.getGPXasSegment(route.getShortName());
+                    List<Integer> osmWayIds = null;
 
-                    //TODO: need to check if the way matches are ordered well
-                    osmWayIds = osmmatchinstance.matchGPX(xmlGPXShape);
+                    if (!noOsmWayMatching) {
+                        System.out.println(ansi().fg(Ansi.Color.YELLOW).a("\nCreating full way-matched relation for trip " + trip.getTripHeadsign() + " tripId = " + trip.getTripId() + " ...").reset());
 
-                } else {
-                    System.out.println(ansi().fg(Ansi.Color.YELLOW).a("Creating stops-only relation " + trip.getTripHeadsign() + " tripId=" + trip.getTripId() + " ...").reset());
-                }
+                        Shape shape = shapes.get(trip.getShapeId());
 
-                String fixedTripHeadsignFileName = trip.getTripHeadsign().replace("/", "_").replace(",", "");
-                String fixedRouteShortNameFileName = route.getShortName().replace("/", "B");
+                        String xmlGPXShape = shape.getGPXasSegment(route.getShortName());
 
+                        //TODO: need to check if the way matches are ordered well
+                        osmWayIds = osmmatchinstance.matchGPX(xmlGPXShape);
 
-                File relationOutputFile = new File(GTFSImportSettings.getInstance().getFullRelsOutputPath() + "r" + tempid + " " + fixedRouteShortNameFileName + " " + fixedTripHeadsignFileName + "_" + count + ".osm");
+                    } else {
+                        System.out.println(ansi().fg(Ansi.Color.YELLOW).a("Creating stops-only relation " + trip.getTripHeadsign() + " tripId=" + trip.getTripId() + " ...").reset());
+                    }
 
-                FileOutputStream fileOutputStream = new FileOutputStream(relationOutputFile);
-                OutputStreamWriter out = new OutputStreamWriter(fileOutputStream, StandardCharsets.UTF_8);
+                    mergedRelationsWriter.writeSingleTripRelation(osmWayIds, trip, route, gtfsFeedInfo, tempid);
 
-                out.write(OSMRelationImportGenerator.createSingleTripRelation(boundingBox, osmWayIds, trip, route, gtfsFeedInfo, tempid));
-                out.close();
+                    if (writeRelationFiles) {
+                        String fixedTripHeadsignFileName = trip.getTripHeadsign().replace("/", "_").replace(",", "");
+                        String fixedRouteShortNameFileName = route.getShortName().replace("/", "B");
 
-                //we add the file to the merge list
-                relationsFileList.add(relationOutputFile);
+                        File relationOutputFile = new File(GTFSImportSettings.getInstance().getFullRelsOutputPath() + "r" + tempid + " " + fixedRouteShortNameFileName + " " + fixedTripHeadsignFileName + "_" + count + ".osm");
 
-                //printa il file txt delle fermate con i nomi di esse
-                //f = new FileOutputStream(GTFSImportSettings.getInstance().getFullRelsOutputPath() + "r" + tempid + " " + fixedRouteShortNameFileName + " " + fixedTripHeadsignFileName + "_" + count + ".txt");
-                //f.write(tripStopsList.getStopsListTextFile().getBytes());
-                //f.close();
+                        try (OSMRelationImportGenerator relationWriter = new OSMRelationImportGenerator(new FileOutputStream(relationOutputFile), boundingBox)) {
+                            relationWriter.writeSingleTripRelation(osmWayIds, trip, route, gtfsFeedInfo, tempid);
+                        }
+                    }
 
-                newRelationsIds.add(tempid);
+                    //printa il file txt delle fermate con i nomi di esse
+                    //f = new FileOutputStream(GTFSImportSettings.getInstance().getFullRelsOutputPath() + "r" + tempid + " " + fixedRouteShortNameFileName + " " + fixedTripHeadsignFileName + "_" + count + ".txt");
+                    //f.write(tripStopsList.getStopsListTextFile().getBytes());
+                    //f.close();
 
-                tempid++;
-            }
+                    newRelationsIds.add(tempid);
 
-            String fixedRouteShortNameFileName = route.getShortName().replace("/", "B");
-            //master relation creation
-            File routeMasterOutputFile = new File(GTFSImportSettings.getInstance().getFullRelsOutputPath() + "routemasterfiles/" + fixedRouteShortNameFileName +".osm");
-            routeMasterOutputFile.getParentFile().mkdirs(); //we create the required parent folder and not a folder with the filename
+                    tempid--;
+                }
 
-            FileOutputStream fileOutputStream = new FileOutputStream(routeMasterOutputFile);
-            OutputStreamWriter out = new OutputStreamWriter(fileOutputStream, StandardCharsets.UTF_8);
+                //master relation creation
+                mergedRelationsWriter.writeMasterRouteTripsRelation(route, newRelationsIds, tempid);
 
-            out.write(OSMRelationImportGenerator.createMasterRouteTripsRelation(route, newRelationsIds, boundingBox, tempid));
-            out.close();
+                if (writeRelationFiles) {
+                    String fixedRouteShortNameFileName = route.getShortName().replace("/", "B");
+                    File routeMasterOutputFile = new File(GTFSImportSettings.getInstance().getFullRelsOutputPath() + "routemasterfiles/" + fixedRouteShortNameFileName + ".osm");
+                    routeMasterOutputFile.getParentFile().mkdirs(); //we create the required parent folder and not a folder with the filename
 
-            //we add the file to the merge list
-            relationsFileList.add(routeMasterOutputFile);
+                    try (OSMRelationImportGenerator relationWriter = new OSMRelationImportGenerator(new FileOutputStream(routeMasterOutputFile), boundingBox)) {
+                        relationWriter.writeMasterRouteTripsRelation(route, newRelationsIds, tempid);
+                    }
+                }
 
-            tempid++;
+                tempid--;
+            }
         }
 
-        //we merge all the files together
-        File mergedRelationsFile = new File(GTFSImportSettings.getInstance().getOutputPath() + "gtfs_import_mergedFullRelations.osm");
-        OsmosisUtils.checkProcessOutput(OsmosisUtils.runOsmosisMerge(relationsFileList, mergedRelationsFile));
-
         System.out.println(ansi().fg(Ansi.Color.GREEN).a("\nRelations generation completed!").reset());
 
         if (!noOsmWayMatching) {
@@ -15,6 +15,9 @@ package it.osm.gtfs.commands;
 
 import com.google.common.collect.Multimap;
 import it.osm.gtfs.input.GTFSParser;
+import it.osm.gtfs.input.GTFSReadFilter;
+import it.osm.gtfs.input.GTFSSource;
+import it.osm.gtfs.models.GTFSIdMap;
 import it.osm.gtfs.models.Route;
 import it.osm.gtfs.models.Shape;
 import it.osm.gtfs.models.Trip;
@@ -44,10 +47,14 @@ public class CmdGenerateRoutesGPXs implements Callable<Void> {
 
     @Override
     public Void call() throws IOException, ParserConfigurationException, SAXException {
-        Map<String, Route> routes = GTFSParser.readRoutes(GTFSImportSettings.getInstance().getGTFSDataPath() + GTFSImportSettings.GTFS_ROUTES_FILE_NAME);
-        Map<String, Shape> shapes = GTFSParser.readShapes(GTFSImportSettings.getInstance().getGTFSDataPath() + GTFSImportSettings.GTFS_SHAPES_FILE_NAME);
-        List<Trip> trips = GTFSParser.readTrips(GTFSImportSettings.getInstance().getGTFSDataPath() + GTFSImportSettings.GTFS_TRIPS_FILE_NAME,
-                routes, new HashMap<>());
+        GTFSSource gtfsSource = GTFSImportSettings.getInstance().getGTFSSource();
+        GTFSReadFilter readFilter = GTFSReadFilter.forSelectedRoutes(SharedCliOptions.selectedRoutes)
+                .activeBetween(SharedCliOptions.activeFromDate, SharedCliOptions.activeToDate);
+
+        Map<String, Route> routes = GTFSParser.readRoutes(gtfsSource, readFilter);
+        GTFSIdMap<Shape> shapes = GTFSParser.readShapes(gtfsSource, readFilter);
+        List<Trip> trips = GTFSParser.readTrips(gtfsSource,
+                routes, new GTFSIdMap<>(gtfsSource.getIdDictionaries().getTripIds()), readFilter);
 
         //sorting set
         Multimap<Route, Trip> groupedTrips = GTFSParser.groupTrips(routes, trips);
@@ -28,7 +28,7 @@ public class CmdGetBoundingBox implements Callable<Void> {
 
     @Override
     public Void call() throws IOException {
-        List<GTFSStop> gtfs = GTFSParser.readStops(GTFSImportSettings.getInstance().getGTFSDataPath() + GTFSImportSettings.GTFS_STOP_FILE_NAME);
+        List<GTFSStop> gtfs = GTFSParser.readStops(GTFSImportSettings.getInstance().getGTFSSource());
         BoundingBox bb = new BoundingBox(gtfs);
 
         System.out.println("GTFS bounding box: " + bb);
@@ -14,31 +14,23 @@
  **/
 package it.osm.gtfs.commands;
 
+import it.osm.gtfs.input.GTFSFeedSnapshot;
 import it.osm.gtfs.input.GTFSParser;
 import it.osm.gtfs.input.OSMParser;
 import it.osm.gtfs.models.*;
 import it.osm.gtfs.utils.*;
-import org.apache.commons.httpclient.util.URIUtil;
 import org.fusesource.jansi.Ansi;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 import picocli.CommandLine;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.*;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
+import javax.xml.stream.XMLStreamException;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
 import java.util.concurrent.Callable;
 
 import static org.fusesource.jansi.Ansi.ansi;
@@ -47,7 +39,7 @@ import static org.fusesource.jansi.Ansi.ansi;
 public class CmdUpdateGTFSOSMData implements Callable<Void> {
 
     @Override
-    public Void call() throws IOException, InterruptedException, ParserConfigurationException, SAXException, TransformerException {
+    public Void call() throws IOException, InterruptedException, ParserConfigurationException, SAXException, XMLStreamException {
 
             File cachedirectory = new File(GTFSImportSettings.getInstance().getCachePath());
             File osmdatadirectory = new File(GTFSImportSettings.getInstance().getOsmDataPath());
@@ -55,122 +47,103 @@ public class CmdUpdateGTFSOSMData implements Callable<Void> {
             cachedirectory.mkdirs();
             osmdatadirectory.mkdirs();
 
-            updateGTFSData();
-            updateBusStops();
-            updateFullRels();
+            try (OverpassDownloadScheduler overpassScheduler = OverpassDownloadScheduler.fromSettings()) {
+                //the relations query doesn't depend on the GTFS data, so the relations are downloaded while the GTFS feed is updated
+                OverpassDownloadScheduler.Download relationsDownload = downloadFullRels(overpassScheduler);
+
+                updateGTFSData();
+                updateBusStops(overpassScheduler);
+                updateFullRels(relationsDownload);
+            }
 
             System.out.println(ansi().fg(Ansi.Color.GREEN).a("GTFS and OSM data update completed.").reset());
 
         return null;
     }
 
-    private static void updateGTFSData() {
-        System.out.println(ansi().fg(Ansi.Color.YELLOW).a("Downloading and extracting GTFS data from " + GTFSImportSettings.getInstance().getGTFSZipUrl() + " ...").reset());
-        DownloadUtils.downloadZip(GTFSImportSettings.getInstance().getGTFSZipUrl(), GTFSImportSettings.getInstance().getGTFSDataPath());
-    }
+    private static void updateGTFSData() throws IOException {
+        System.out.println(ansi().fg(Ansi.Color.YELLOW).a("Downloading GTFS data from " + GTFSImportSettings.getInstance().getGTFSZipUrl() + " ...").reset());
 
-    private static void updateBusStops() throws IOException, InterruptedException {
+        //the zip isn't extracted anymore, the GTFS files are read directly from it
+        File gtfsZipTemp = new File(GTFSImportSettings.getInstance().getCachePath() + "tmp_" + GTFSImportSettings.GTFS_ZIP_FILE_NAME);
+        DownloadUtils.download(GTFSImportSettings.getInstance().getGTFSZipUrl(), gtfsZipTemp, false);
 
-        String overpassApiServer = GTFSImportSettings.getInstance().getOverpassApiServer();
+        Files.move(gtfsZipTemp.toPath(), Paths.get(GTFSImportSettings.getInstance().getGTFSZipFilePath()), StandardCopyOption.REPLACE_EXISTING);
 
-        List<GTFSStop> gtfsStops = GTFSParser.readStops(GTFSImportSettings.getInstance().getGTFSDataPath() + GTFSImportSettings.GTFS_STOP_FILE_NAME);
-        BoundingBox bb = new BoundingBox(gtfsStops);
+        //the snapshots of the old feed aren't needed anymore
+        GTFSFeedSnapshot.deleteAll(Paths.get(GTFSImportSettings.getInstance().getGTFSSnapshotsPath()));
+    }
 
-        String queryBusStopsUrl = "?data=[bbox];(node[highway=bus_stop];node[\"disused:highway\"=bus_stop];);out meta;&bbox=" + bb.getAPIQuery();
-        File busFileTemp = new File(GTFSImportSettings.getInstance().getCachePath() + "tmp_busstops.osm");
-        URIUtil.encodeQuery(queryBusStopsUrl);
+    private static void updateBusStops(OverpassDownloadScheduler overpassScheduler) throws IOException, InterruptedException, XMLStreamException {
 
-        String busStopsUrl = overpassApiServer + URIUtil.encodeQuery(queryBusStopsUrl);
+        List<GTFSStop> gtfsStops = GTFSParser.readStops(GTFSImportSettings.getInstance().getGTFSSource());
+        BoundingBox bb = new BoundingBox(gtfsStops);
 
-        DownloadUtils.download(busStopsUrl, busFileTemp, false);
+        //the queries are downloaded concurrently, within the limits of the scheduler
+        List<OverpassDownloadScheduler.Download> downloads = new ArrayList<>();
 
-        Thread.sleep(1000L);
+        String queryBusStopsUrl = "?data=[bbox];(node[highway=bus_stop];node[\"disused:highway\"=bus_stop];);out meta;&bbox=" + bb.getAPIQuery();
+        File busFileTemp = new File(GTFSImportSettings.getInstance().getCachePath() + "tmp_busstops.osm");
+        downloads.add(overpassScheduler.download(queryBusStopsUrl, busFileTemp));
 
         String queryStopPositionsUrl = "?data=[bbox];(node[public_transport=stop_position];node[\"disused:public_transport\"=stop_position];);out meta;&bbox=" + bb.getAPIQuery();
         File stopPositionsFileTemp = new File(GTFSImportSettings.getInstance().getCachePath() + "tmp_stoppositions.osm");
-        String stopPositionsUrl = overpassApiServer + URIUtil.encodeQuery(queryStopPositionsUrl);
-        DownloadUtils.download(stopPositionsUrl, stopPositionsFileTemp, false);
-
-        Thread.sleep(1000L);
+        downloads.add(overpassScheduler.download(queryStopPositionsUrl, stopPositionsFileTemp));
 
         String queryTramStopsUrl = "?data=[bbox];(node[railway=tram_stop];node[\"disused:railway\"=tram_stop];);out meta;&bbox=" + bb.getAPIQuery();
         File tramFileTemp = new File(GTFSImportSettings.getInstance().getCachePath() + "tmp_tramstops.osm");
-        String tramStopsUrl = overpassApiServer + URIUtil.encodeQuery(queryTramStopsUrl);;
-        DownloadUtils.download(tramStopsUrl, tramFileTemp, false);
-
-        Thread.sleep(2000L);
+        downloads.add(overpassScheduler.download(queryTramStopsUrl, tramFileTemp));
 
         String queryMetroTrainStationsUrl = "?data=[bbox];(node[railway=station];node[\"disused:railway\"=station];);out meta;&bbox=" + bb.getAPIQuery();
         File metroFileTemp = new File(GTFSImportSettings.getInstance().getCachePath() + "tmp_metrostops.osm");
-        String metroTrainStationsUrl = overpassApiServer + URIUtil.encodeQuery(queryMetroTrainStationsUrl);
-        DownloadUtils.download(metroTrainStationsUrl, metroFileTemp, false);
+        downloads.add(overpassScheduler.download(queryMetroTrainStationsUrl, metroFileTemp));
 
         String queryUrlstat = "?data=[bbox];(node[public_transport=station];node[\"disused:public_transport\"=station];);out meta;&bbox=" + bb.getAPIQuery();
         File stationsFileTemp = new File(GTFSImportSettings.getInstance().getCachePath() + "tmp_stationstops.osm");
-        String urlstat = overpassApiServer + URIUtil.encodeQuery(queryUrlstat);
-        DownloadUtils.download(urlstat, stationsFileTemp, false);
+        downloads.add(overpassScheduler.download(queryUrlstat, stationsFileTemp));
 
+        //the files are merged in the order of the queries
         List<File> tempFileList = new ArrayList<>();
-        tempFileList.add(busFileTemp);
-        tempFileList.add(stopPositionsFileTemp);
-        tempFileList.add(tramFileTemp);
-        tempFileList.add(metroFileTemp);
-        tempFileList.add(stationsFileTemp);
+        for (OverpassDownloadScheduler.Download download : downloads) {
+            tempFileList.add(download.get());
+        }
 
         File finalMergedFileOut = new File(GTFSImportSettings.getInstance().getOsmStopsFilePath());
 
-        OsmosisUtils.checkProcessOutput(OsmosisUtils.runOsmosisMerge(tempFileList, finalMergedFileOut));
+        //the merge requires files sorted by type and id, which is the order of the overpass "out meta;" output
+        OSMFileUtils.mergeSortedFiles(tempFileList, finalMergedFileOut);
     }
 
-    //todo: we should cleanup the cache relations files before every update i think
-    private static void updateFullRels() throws ParserConfigurationException, SAXException, IOException, TransformerException {
-        String overpassApiServer = GTFSImportSettings.getInstance().getOverpassApiServer();
-
+    private static OverpassDownloadScheduler.Download downloadFullRels(OverpassDownloadScheduler overpassScheduler) throws IOException {
         //we download the relations data
         String queryRel = "?data=(relation[network=" + GTFSImportSettings.getInstance().getNetwork() +  "];>;);out meta;";
-        String urlrel = overpassApiServer + URIUtil.encodeQuery(queryRel);;
 
         File uncheckedRelsFile = new File(GTFSImportSettings.getInstance().getCachePath() + "tmp_unchecked_rels.osm");
-        DownloadUtils.download(urlrel, uncheckedRelsFile, false);
+        return overpassScheduler.download(queryRel, uncheckedRelsFile);
+    }
+
+    //todo: we should cleanup the cache relations files before every update i think
+    private static void updateFullRels(OverpassDownloadScheduler.Download relationsDownload) throws ParserConfigurationException, SAXException, IOException, XMLStreamException, InterruptedException {
+        File uncheckedRelsFile = relationsDownload.get();
 
         List<OSMStop> osmStops = OSMParser.readOSMStops(GTFSImportSettings.getInstance().getOsmStopsFilePath(), true);
         Map<String, OSMStop> osmIdOSMStopMap = StopsUtils.getOSMIdOSMStopMap(osmStops);
 
         // Default to all available rel, then override forced updates
-        ReadOSMRelationsResult readRelsResult = OSMParser.readOSMRelations(new File(GTFSImportSettings.getInstance().getCachePath() +  "tmp_unchecked_rels.osm"), osmIdOSMStopMap, SharedCliOptions.checkStopsOfAnyOperatorTagValue);
-
-        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-        DocumentBuilder db = dbf.newDocumentBuilder();
-        Document doc = db.parse(uncheckedRelsFile);
-        doc.getDocumentElement().normalize();
+        ReadOSMRelationsResult readRelsResult = OSMParser.readOSMRelations(uncheckedRelsFile, osmIdOSMStopMap, SharedCliOptions.checkStopsOfAnyOperatorTagValue);
 
-        NodeList relationElementList = doc.getElementsByTagName("relation");
-
-        for(Relation failedRelation : readRelsResult.getFailedRelations()) {
-
-            for (int s = 0; s < relationElementList.getLength(); s++) {
-                Node node = relationElementList.item(s);
-
-                if (node.getAttributes().getNamedItem("id").getNodeValue().equals(failedRelation.getId())) {
-                    doc.getDocumentElement().removeChild(node);
-                }
-            }
+        //the relations that couldn't be parsed are removed from the file, copying it in a single pass
+        Set<String> failedRelationsIds = new HashSet<>();
+        for (Relation failedRelation : readRelsResult.getFailedRelations()) {
+            failedRelationsIds.add(failedRelation.getId());
         }
 
         String tmpCheckedRelsPath = GTFSImportSettings.getInstance().getCachePath() + "tmp_checked_rels.osm";
-
-        OutputStream stream = new FileOutputStream(tmpCheckedRelsPath);
-        Source source = new DOMSource(doc);
-        Result result = new StreamResult(stream);
-        Transformer xformer = TransformerFactory.newInstance().newTransformer();
-        xformer.transform(source, result);
-
-        //we close the file stream
-        stream.close();
+        OSMFileUtils.removeRelations(uncheckedRelsFile, new File(tmpCheckedRelsPath), failedRelationsIds);
 
         File checkedRelsFile = new File(tmpCheckedRelsPath);
         File filteredRelsFile = new File(GTFSImportSettings.getInstance().getCachePath() + "tmp_filteredchecked_rels.osm");
-        OsmosisUtils.checkProcessOutput(OsmosisUtils.runOsmosisUnusedWaysNodes(checkedRelsFile, filteredRelsFile));
+        OSMFileUtils.removeUnusedWaysAndNodes(checkedRelsFile, filteredRelsFile);
 
         File stopsFile = new File(GTFSImportSettings.getInstance().getOsmStopsFilePath());
 
@@ -178,9 +151,10 @@ public class CmdUpdateGTFSOSMData implements Callable<Void> {
         sortedfilestest.add(filteredRelsFile);
         sortedfilestest.add(stopsFile);
 
-        //final relations file merge
+        //final relations file merge, the filtered relations keep the order of the overpass "out meta;" output and the stops file
+        //is the result of a merge, so both are sorted by type and id as the merge requires
         File testout = new File(GTFSImportSettings.getInstance().getOsmRelationsFilePath());
-        OsmosisUtils.checkProcessOutput(OsmosisUtils.runOsmosisMerge(sortedfilestest, testout));
+        OSMFileUtils.mergeSortedFiles(sortedfilestest, testout);
 
     }
 }
@@ -1,6 +1,8 @@
 package it.osm.gtfs.commands.gui;
 
 import it.osm.gtfs.input.GTFSParser;
+import it.osm.gtfs.input.GTFSReadFilter;
+import it.osm.gtfs.input.GTFSSource;
 import it.osm.gtfs.input.OSMParser;
 import it.osm.gtfs.models.*;
 import it.osm.gtfs.utils.GTFSImportSettings;
@@ -100,10 +102,14 @@ public class GTFSRouteDiffGui extends JFrame implements ListSelectionListener, K
         osmstopsOsmID = StopsUtils.getOSMIdOSMStopMap(osmStops);
         osmRels = convertoToWigthed(OSMParser.readOSMRelations(new File(GTFSImportSettings.getInstance().getOsmRelationsFilePath()), osmstopsOsmID, SharedCliOptions.checkStopsOfAnyOperatorTagValue).getFinalValidRelations());
 
-        routes = GTFSParser.readRoutes(GTFSImportSettings.getInstance().getGTFSDataPath() + GTFSImportSettings.GTFS_ROUTES_FILE_NAME);
-        readStopTimesResult = GTFSParser.readStopTimes(GTFSImportSettings.getInstance().getGTFSDataPath() + GTFSImportSettings.GTFS_STOP_TIMES_FILE_NAME, osmstopsGTFSId);
-        trips = GTFSParser.readTrips(GTFSImportSettings.getInstance().getGTFSDataPath() + GTFSImportSettings.GTFS_TRIPS_FILE_NAME,
-                routes, readStopTimesResult.getTripIdStopListMap());
+        GTFSSource gtfsSource = GTFSImportSettings.getInstance().getGTFSSource();
+        GTFSReadFilter readFilter = GTFSReadFilter.forSelectedRoutes(SharedCliOptions.selectedRoutes)
+                .activeBetween(SharedCliOptions.activeFromDate, SharedCliOptions.activeToDate);
+
+        routes = GTFSParser.readRoutes(gtfsSource, readFilter);
+        readStopTimesResult = GTFSParser.readStopTimes(gtfsSource, osmstopsGTFSId, readFilter);
+        trips = GTFSParser.readTrips(gtfsSource,
+                routes, readStopTimesResult.getTripIdStopListMap(), readFilter);
         Set<Trip> uniqueTripSet = new TreeSet<>(trips);
         uniqueTrips = new ArrayList<>();
         for (Trip trip : uniqueTripSet) {
@@ -0,0 +1,66 @@
+/**
+ * Licensed under the GNU General Public License version 3
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.gnu.org/licenses/gpl-3.0.html
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package it.osm.gtfs.input;
+
+import it.osm.gtfs.models.GTFSIdDictionaries;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/***
+ * A GTFS feed already extracted in a directory
+ */
+public class DirectoryGTFSSource implements GTFSSource {
+    private final Path directory;
+    private final GTFSIdDictionaries idDictionaries = new GTFSIdDictionaries();
+
+    public DirectoryGTFSSource(Path directory) {
+        this.directory = directory;
+    }
+
+    public Path getFilePath(String fileName) {
+        return directory.resolve(fileName);
+    }
+
+    @Override
+    public boolean exists(String fileName) {
+        return Files.isRegularFile(getFilePath(fileName));
+    }
+
+    @Override
+    public InputStream open(String fileName) throws IOException {
+        if (!exists(fileName))
+            throw new FileNotFoundException(getFilePath(fileName).toString());
+
+        return Files.newInputStream(getFilePath(fileName));
+    }
+
+    @Override
+    public long size(String fileName) throws IOException {
+        return Files.size(getFilePath(fileName));
+    }
+
+    @Override
+    public GTFSIdDictionaries getIdDictionaries() {
+        return idDictionaries;
+    }
+
+    @Override
+    public String toString() {
+        return directory.toString();
+    }
+}
@@ -0,0 +1,367 @@
+/**
+ * Licensed under the GNU General Public License version 3
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.gnu.org/licenses/gpl-3.0.html
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package it.osm.gtfs.input;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+import static org.fusesource.jansi.Ansi.ansi;
+
+/***
+ * Streaming RFC 4180 tokenizer for the GTFS text files.
+ * The reader keeps a single char buffer for the fields of the current record, which is reused for every record,
+ * and hands out the column values by their index in the header. Quoted values can contain commas, escaped quotes ("") and newlines.
+ */
+public class GTFSCSVReader implements Closeable {
+    private static final int STATE_FIELD_START = 0;
+    private static final int STATE_UNQUOTED = 1;
+    private static final int STATE_QUOTED = 2;
+    private static final int STATE_QUOTE_IN_QUOTED = 3;
+
+    private static final char UTF8_BOM = '\uFEFF';
+
+    private final Reader reader;
+    private final boolean removeCommasFromValues;
+    private final String[] header;
+
+    private final char[] readBuffer = new char[64 * 1024];
+    private int readPosition = 0;
+    private int readLimit = 0;
+    private boolean atFileStart = true;
+
+    //the characters of all the fields of the current record, one after the other
+    private char[] fieldBuffer = new char[512];
+    private int fieldBufferLength = 0;
+
+    //fieldEnds[i] is the end offset (exclusive) in fieldBuffer of the field i, the field starts where the previous one ends
+    private int[] fieldEnds = new int[32];
+    private int fieldCount = 0;
+
+    private final FieldView fieldView = new FieldView();
+
+    //true if the data ended inside a quoted value, which happens when a part of a file is split at a newline of a quoted value
+    private boolean unterminatedQuote = false;
+
+    /**
+     * @param reader                 the source of the CSV data, it gets closed together with this reader
+     * @param removeCommasFromValues if true the commas inside quoted values are removed (e.g. "Via Roma, 3" becomes "Via Roma 3")
+     */
+    public GTFSCSVReader(Reader reader, boolean removeCommasFromValues) throws IOException {
+        this.reader = reader;
+        this.removeCommasFromValues = removeCommasFromValues;
+
+        //the header row is read with the commas preserved as they are part of the column names
+        if (readRecord(false)) {
+            header = new String[fieldCount];
+            for (int i = 0; i < fieldCount; i++) {
+                header[i] = get(i).trim();
+            }
+        } else {
+            header = new String[0];
+        }
+    }
+
+    /**
+     * Creates a reader for a part of a file whose header has already been read, so every line is a data record
+     */
+    public GTFSCSVReader(Reader reader, boolean removeCommasFromValues, String[] header) {
+        this.reader = reader;
+        this.removeCommasFromValues = removeCommasFromValues;
+        this.header = header;
+        this.atFileStart = false;
+    }
+
+    public String[] getHeader() {
+        return header;
+    }
+
+    /**
+     * @return the index of the column with the given name, or -1 if the file doesn't have that column
+     */
+    public int getColumnIndex(String columnName) {
+        for (int i = 0; i < header.length; i++) {
+            if (header[i].equals(columnName))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Reads the next record of the file, skipping the empty lines.
+     *
+     * @return false if the end of the file has been reached
+     */
+    public boolean readRecord() throws IOException {
+        return readRecord(removeCommasFromValues);
+    }
+
+    private boolean readRecord(boolean removeCommas) throws IOException {
+        fieldCount = 0;
+        fieldBufferLength = 0;
+
+        int state = STATE_FIELD_START;
+
+        while (true) {
+            int c = nextChar();
+
+            if (c == -1) {
+                if (fieldCount == 0 && fieldBufferLength == 0 && state == STATE_FIELD_START)
+                    return false;
+
+                if (state == STATE_QUOTED)
+                    unterminatedQuote = true;
+
+                endField();
+                return true;
+            }
+
+            switch (state) {
+                case STATE_FIELD_START -> {
+                    if (c == '"') {
+                        state = STATE_QUOTED;
+                    } else if (c == ',') {
+                        endField();
+                    } else if (c == '\n') {
+                        //empty line, we skip it
+                        if (fieldCount == 0)
+                            continue;
+
+                        endField();
+                        return true;
+                    } else if (c != '\r') {
+                        append((char) c);
+                        state = STATE_UNQUOTED;
+                    }
+                }
+                case STATE_UNQUOTED -> {
+                    if (c == ',') {
+                        endField();
+                        state = STATE_FIELD_START;
+                    } else if (c == '\n') {
+                        endField();
+                        return true;
+                    } else if (c != '\r') {
+                        append((char) c);
+                    }
+                }
+                case STATE_QUOTED -> {
+                    if (c == '"') {
+                        state = STATE_QUOTE_IN_QUOTED;
+                    } else if (c != ',' || !removeCommas) {
+                        append((char) c);
+                    }
+                }
+                case STATE_QUOTE_IN_QUOTED -> {
+                    if (c == '"') {
+                        //escaped quote
+                        append('"');
+                        state = STATE_QUOTED;
+                    } else if (c == ',') {
+                        endField();
+                        state = STATE_FIELD_START;
+                    } else if (c == '\n') {
+                        endField();
+                        return true;
+                    } else if (c != '\r') {
+                        //not valid RFC 4180, but we accept characters after the closing quote as part of the value
+                        append((char) c);
+                        state = STATE_UNQUOTED;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the end of the data has been reached inside a quoted value, so the last record is incomplete
+     */
+    public boolean hasUnterminatedQuote() {
+        return unterminatedQuote;
+    }
+
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * @return the value of the column of the current record, or an empty string if the record doesn't have that column
+     */
+    public String get(int index) {
+        if (index < 0 || index >= fieldCount)
+            return "";
+
+        int start = fieldStart(index);
+        return new String(fieldBuffer, start, fieldEnds[index] - start);
+    }
+
+    /**
+     * @return a view of the value of the column, without creating a new string. The same instance is returned for every call
+     * and its content changes when the next record is read, so it must be copied (with toString) to keep the value.
+     */
+    public CharSequence getCharSequence(int index) {
+        fieldView.index = index;
+        return fieldView;
+    }
+
+    public boolean isEmpty(int index) {
+        return index < 0 || index >= fieldCount || fieldStart(index) == fieldEnds[index];
+    }
+
+    /**
+     * Compares the value of the column with the given string without creating a new string
+     */
+    public boolean valueEquals(int index, String value) {
+        if (index < 0 || index >= fieldCount)
+            return value.isEmpty();
+
+        int start = fieldStart(index);
+        int length = fieldEnds[index] - start;
+
+        if (length != value.length())
+            return false;
+
+        for (int i = 0; i < length; i++) {
+            if (fieldBuffer[start + i] != value.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Parses the value of the column as a long number without creating a new string
+     */
+    public long getLong(int index) {
+        if (isEmpty(index))
+            throw new NumberFormatException("Empty value for column " + index);
+
+        int start = fieldStart(index);
+        int end = fieldEnds[index];
+        boolean negative = false;
+
+        if (fieldBuffer[start] == '-' || fieldBuffer[start] == '+') {
+            negative = fieldBuffer[start] == '-';
+            start++;
+        }
+
+        if (start == end)
+            throw new NumberFormatException("For input string: \"" + get(index) + "\"");
+
+        long result = 0;
+        for (int i = start; i < end; i++) {
+            int digit = fieldBuffer[i] - '0';
+            if (digit < 0 || digit > 9)
+                throw new NumberFormatException("For input string: \"" + get(index) + "\"");
+            result = result * 10 + digit;
+        }
+
+        return negative ? -result : result;
+    }
+
+    public int getInt(int index) {
+        return Math.toIntExact(getLong(index));
+    }
+
+    public double getDouble(int index) {
+        return Double.parseDouble(get(index));
+    }
+
+    /**
+     * @return the current record joined with commas, useful for error messages
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < fieldCount; i++) {
+            if (i > 0)
+                builder.append(',');
+            builder.append(fieldBuffer, fieldStart(i), fieldEnds[i] - fieldStart(i));
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private int fieldStart(int index) {
+        return index == 0 ? 0 : fieldEnds[index - 1];
+    }
+
+    private void append(char c) {
+        if (fieldBufferLength == fieldBuffer.length)
+            fieldBuffer = Arrays.copyOf(fieldBuffer, fieldBuffer.length * 2);
+
+        fieldBuffer[fieldBufferLength++] = c;
+    }
+
+    private void endField() {
+        if (fieldCount == fieldEnds.length)
+            fieldEnds = Arrays.copyOf(fieldEnds, fieldEnds.length * 2);
+
+        fieldEnds[fieldCount++] = fieldBufferLength;
+    }
+
+    private int nextChar() throws IOException {
+        if (readPosition == readLimit) {
+            readLimit = reader.read(readBuffer, 0, readBuffer.length);
+            readPosition = 0;
+
+            if (readLimit <= 0) {
+                readLimit = 0;
+                return -1;
+            }
+
+            if (atFileStart && readBuffer[0] == UTF8_BOM) {
+                readPosition = 1;
+                System.out.println(ansi().render("@|red GTFSParser: removed BOM|@"));
+
+                if (readLimit == 1) {
+                    atFileStart = false;
+                    return nextChar();
+                }
+            }
+
+            atFileStart = false;
+        }
+
+        return readBuffer[readPosition++];
+    }
+
+    private class FieldView implements CharSequence {
+        private int index;
+
+        @Override
+        public int length() {
+            return (index < 0 || index >= fieldCount) ? 0 : fieldEnds[index] - fieldStart(index);
+        }
+
+        @Override
+        public char charAt(int i) {
+            return fieldBuffer[fieldStart(index) + i];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return get(index);
+        }
+    }
+}
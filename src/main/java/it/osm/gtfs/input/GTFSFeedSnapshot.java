@@ -0,0 +1,750 @@
+/**
+ * Licensed under the GNU General Public License version 3
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.gnu.org/licenses/gpl-3.0.html
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package it.osm.gtfs.input;
+
+import it.osm.gtfs.enums.OSMStopType;
+import it.osm.gtfs.enums.RouteType;
+import it.osm.gtfs.enums.WheelchairAccess;
+import it.osm.gtfs.models.*;
+import it.osm.gtfs.utils.GTFSImportSettings;
+import it.osm.gtfs.utils.SharedCliOptions;
+import org.fusesource.jansi.Ansi;
+import org.jxmapviewer.viewer.GeoPosition;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.function.IntPredicate;
+
+import static org.fusesource.jansi.Ansi.ansi;
+
+/***
+ * Binary snapshot of a parsed GTFS feed (stops, routes, trips, stop times and shapes), so that the commands after the first
+ * one don't need to parse the text files again. It's created the first time the stop times or the shapes of the feed are read,
+ * the commands that read only the stops or the routes use it only if it already exists.
+ * The snapshot file is memory mapped and the sections are decoded when they're requested, the strings of the string table the first time they're used.
+ * The stop times are stored unresolved (with the gtfs id of the stops), as they're matched with the OSM stops of every run.
+ * <p>
+ * File layout (all the strings are references to the string table, -1 is null):
+ * <pre>
+ * int magic, int version
+ * stops:      int count, (int gtfsId, int code, double lat, double lon, int name, byte wheelchair, byte stopType)*
+ * routes:     int count, (int id, int agencyId, int longName, int shortName, byte routeType, int color)*
+ * trips:      int count, (int tripId, int routeId, int shapeId, int serviceId, int headsign, byte wheelchair)*
+ * stop times: int count, (int tripId, long stopSequence, int stopId, int arrivalTime)* in the order of stop_times.txt
+ * shapes:     int count, (int shapeId, int pointsCount, int[] seq, double[] lat, double[] lon)*
+ * strings:    int count, (int length, byte[] utf8)*
+ * footer:     long stopsOffset, long routesOffset, long tripsOffset, long stopTimesOffset, long shapesOffset, long stringsOffset, int magic
+ * </pre>
+ * The enums are stored with their ordinal, -1 is null.
+ */
+public class GTFSFeedSnapshot {
+    private static final int MAGIC = 0x47544653; //GTFS
+    private static final int VERSION = 2;
+    private static final int FOOTER_SIZE = 6 * Long.BYTES + Integer.BYTES;
+
+    public static final String SNAPSHOT_FILE_EXTENSION = ".snapshot";
+
+    private final GTFSIdDictionaries idDictionaries;
+    //the methods read through their own duplicate of the buffer, so they don't share its position and can be called concurrently
+    private final MappedByteBuffer buffer;
+    private final long stopsOffset, routesOffset, tripsOffset, stopTimesOffset, shapesOffset;
+    //the offsets of the strings in the string table, the strings are decoded the first time they're used
+    private final int[] stringOffsets;
+    private final String[] decodedStrings;
+
+    //shape id -> offset of the shape in the file, built the first time a single shape is requested
+    private volatile GTFSIdMap<Long> shapeOffsets;
+
+    private GTFSFeedSnapshot(GTFSIdDictionaries idDictionaries, MappedByteBuffer buffer) throws IOException {
+        this.idDictionaries = idDictionaries;
+        this.buffer = buffer;
+
+        if (buffer.capacity() < 2 * Integer.BYTES + FOOTER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(buffer.capacity() - Integer.BYTES) != MAGIC)
+            throw new IOException("Invalid GTFS snapshot");
+        if (buffer.getInt(Integer.BYTES) != VERSION)
+            throw new IOException("Unsupported GTFS snapshot version");
+
+        int footer = buffer.capacity() - FOOTER_SIZE;
+        stopsOffset = buffer.getLong(footer);
+        routesOffset = buffer.getLong(footer + Long.BYTES);
+        tripsOffset = buffer.getLong(footer + 2 * Long.BYTES);
+        stopTimesOffset = buffer.getLong(footer + 3 * Long.BYTES);
+        shapesOffset = buffer.getLong(footer + 4 * Long.BYTES);
+        long stringsOffset = buffer.getLong(footer + 5 * Long.BYTES);
+
+        //only the lengths are read, to find the offsets
+        int offset = (int) stringsOffset;
+        stringOffsets = new int[buffer.getInt(offset)];
+        offset += Integer.BYTES;
+        for (int i = 0; i < stringOffsets.length; i++) {
+            stringOffsets[i] = offset;
+            offset += Integer.BYTES + buffer.getInt(offset);
+        }
+        decodedStrings = new String[stringOffsets.length];
+    }
+
+    /**
+     * @return the path of the snapshot of the feed in the directory. The name of the snapshot contains the hash of the zip file and the plugin class,
+     * so a new feed or a different plugin use a new snapshot.
+     */
+    public static Path getSnapshotPath(ZipGTFSSource source, Path snapshotsDirectory, String pluginClassName) throws IOException {
+        return snapshotsDirectory.resolve(hash(source.getZipFile()) + "_" + pluginClassName + SNAPSHOT_FILE_EXTENSION);
+    }
+
+    /**
+     * Loads the snapshot of the feed if it has already been created, without creating it
+     *
+     * @return the snapshot, or null if it isn't present or it isn't valid
+     */
+    public static GTFSFeedSnapshot loadExisting(ZipGTFSSource source, Path snapshotPath) {
+        if (Files.isRegularFile(snapshotPath)) {
+            try {
+                return load(source.getIdDictionaries(), snapshotPath);
+            } catch (IOException e) {
+                System.out.println(ansi().render("@|red Invalid GTFS snapshot " + snapshotPath + ", it will be created again: " + e.getMessage() + " |@"));
+
+                //so it's reported once, and not again when the snapshot is created
+                try {
+                    Files.deleteIfExists(snapshotPath);
+                } catch (IOException ignored) {
+                    //it's replaced when the snapshot is created
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Loads the snapshot of the feed, creating it if it's not present.
+     *
+     * If the snapshot can't be created (for example because it would be larger than 2 GB, which can't be memory mapped) a warning is printed
+     * and the partial file is deleted, so the parser reads the text files.
+     *
+     * @return the snapshot, or null if it couldn't be created
+     */
+    public static GTFSFeedSnapshot loadOrCreate(ZipGTFSSource source, Path snapshotPath) {
+        GTFSFeedSnapshot existingSnapshot = loadExisting(source, snapshotPath);
+        if (existingSnapshot != null)
+            return existingSnapshot;
+
+        System.out.println(ansi().fg(Ansi.Color.YELLOW).a("Creating the snapshot of the GTFS data, the next commands will load it without parsing the GTFS files again...").reset());
+
+        Path tempPath = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(snapshotPath.getParent());
+            //the parallel parsing option of the stop times is used for the stop times of the snapshot, which are then read from it
+            write(source, tempPath, SharedCliOptions.parallelParsing ? Runtime.getRuntime().availableProcessors() : 1);
+            Files.move(tempPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING);
+
+            return load(source.getIdDictionaries(), snapshotPath);
+        } catch (IOException e) {
+            System.out.println(ansi().render("@|yellow Unable to create the snapshot of the GTFS data, the GTFS files will be parsed: " + e.getMessage() + " |@"));
+
+            try {
+                Files.deleteIfExists(tempPath);
+                Files.deleteIfExists(snapshotPath);
+            } catch (IOException ignored) {
+                //the snapshots directory itself isn't usable, there is nothing to delete
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Deletes all the snapshots in the directory, the update command calls it when a new feed is downloaded
+     */
+    public static void deleteAll(Path snapshotsDirectory) throws IOException {
+        if (!Files.isDirectory(snapshotsDirectory))
+            return;
+
+        try (DirectoryStream<Path> snapshots = Files.newDirectoryStream(snapshotsDirectory, "*" + SNAPSHOT_FILE_EXTENSION + "*")) {
+            for (Path snapshot : snapshots) {
+                Files.delete(snapshot);
+            }
+        }
+    }
+
+    private static GTFSFeedSnapshot load(GTFSIdDictionaries idDictionaries, Path snapshotPath) throws IOException {
+        try (FileChannel fileChannel = FileChannel.open(snapshotPath, StandardOpenOption.READ)) {
+            if (fileChannel.size() > Integer.MAX_VALUE)
+                throw new IOException("GTFS snapshot too large to be memory mapped");
+
+            //the mapping stays valid after the channel is closed
+            return new GTFSFeedSnapshot(idDictionaries, fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size()));
+        }
+    }
+
+    public List<GTFSStop> getStops(boolean onlyBusStops) {
+        ByteBuffer buffer = this.buffer.duplicate().position((int) stopsOffset);
+        int count = buffer.getInt();
+
+        List<GTFSStop> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String gtfsId = getId(idDictionaries.getStopIds(), buffer.getInt());
+            String code = getString(buffer.getInt());
+            GeoPosition geoPosition = new GeoPosition(buffer.getDouble(), buffer.getDouble());
+            String name = getString(buffer.getInt());
+            WheelchairAccess wheelchairAccess = getEnum(WheelchairAccess.values(), buffer.get());
+            OSMStopType stopType = getEnum(OSMStopType.values(), buffer.get());
+
+            if (!OSMStopType.PHYSICAL_BUS_STOP.equals(stopType) && onlyBusStops)
+                continue;
+
+            //the stop type isn't set by the constructor
+            GTFSStop gtfsStop = new GTFSStop(gtfsId, code, geoPosition, name, null, null, wheelchairAccess);
+            gtfsStop.setStopType(stopType);
+
+            result.add(gtfsStop);
+        }
+
+        return result;
+    }
+
+    public Map<String, Route> getRoutes(GTFSReadFilter filter) {
+        ByteBuffer buffer = this.buffer.duplicate().position((int) routesOffset);
+        int count = buffer.getInt();
+
+        Map<String, Route> result = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            String id = getId(idDictionaries.getRouteIds(), buffer.getInt());
+            Route route = new Route(id,
+                    getString(buffer.getInt()),
+                    getString(buffer.getInt()),
+                    getString(buffer.getInt()),
+                    getEnum(RouteType.values(), buffer.get()),
+                    getString(buffer.getInt()));
+
+            if (filter.acceptsRoute(route))
+                result.put(id, route);
+        }
+
+        return result;
+    }
+
+    public List<Trip> getTrips(Map<String, Route> routes, GTFSIdMap<TripStopsList> stopTimes, IntPredicate tripSelection) {
+        ByteBuffer buffer = this.buffer.duplicate().position((int) tripsOffset);
+        int count = buffer.getInt();
+
+        GTFSIdDictionary tripIds = idDictionaries.getTripIds();
+        List<Trip> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int tripId = tripIds.getOrAdd(getString(buffer.getInt()));
+
+            if (!tripSelection.test(tripId)) {
+                //skips the other fields of the trip
+                buffer.position(buffer.position() + 4 * Integer.BYTES + 1);
+                continue;
+            }
+
+            String routeId = getString(buffer.getInt());
+
+            result.add(new Trip(tripIds.getString(tripId),
+                    routeId == null ? null : routes.get(routeId),
+                    getId(idDictionaries.getShapeIds(), buffer.getInt()),
+                    getId(idDictionaries.getServiceIds(), buffer.getInt()),
+                    getString(buffer.getInt()),
+                    stopTimes.get(tripId),
+                    getEnum(WheelchairAccess.values(), buffer.get())));
+        }
+
+        return result;
+    }
+
+    /**
+     * Sets the ids of the trips of the given routes and of their shapes, like GTFSParser.selectTrips
+     */
+    public void selectTrips(BitSet routeIds, BitSet serviceIds, BitSet tripIds, BitSet shapeIds) {
+        ByteBuffer buffer = this.buffer.duplicate().position((int) tripsOffset);
+        int count = buffer.getInt();
+
+        for (int i = 0; i < count; i++) {
+            int tripString = buffer.getInt();
+            int routeString = buffer.getInt();
+            int shapeString = buffer.getInt();
+            int serviceString = buffer.getInt();
+            buffer.position(buffer.position() + Integer.BYTES + 1);
+
+            int routeId = (routeString < 0) ? GTFSIdDictionary.NO_ID : idDictionaries.getRouteIds().get(decodeString(routeString));
+            int serviceId = (serviceString < 0 || serviceIds == null) ? GTFSIdDictionary.NO_ID : idDictionaries.getServiceIds().get(decodeString(serviceString));
+
+            if (routeId != GTFSIdDictionary.NO_ID && routeIds.get(routeId) && shapeString >= 0 &&
+                    (serviceIds == null || (serviceId != GTFSIdDictionary.NO_ID && serviceIds.get(serviceId)))) {
+                tripIds.set(idDictionaries.getTripIds().getOrAdd(decodeString(tripString)));
+                shapeIds.set(idDictionaries.getShapeIds().getOrAdd(decodeString(shapeString)));
+            }
+        }
+    }
+
+    /**
+     * Matches the stop times with the OSM stops, with the same result and warnings of GTFSParser.readStopTimes
+     */
+    public ReadStopTimesResult readStopTimes(Map<String, OSMStop> gtfsIdOsmStopMap, IntPredicate tripSelection) {
+        //the OSM stop of every string of the table, resolved the first time the string is used as a stop id
+        OSMStop[] osmStopsByString = new OSMStop[stringOffsets.length];
+        boolean[] resolved = new boolean[stringOffsets.length];
+
+        GTFSIdDictionary tripIds = idDictionaries.getTripIds();
+        GTFSIdMap<TripStopsList> tripIdStopListMap = new GTFSIdMap<>(tripIds);
+        Map<String, String> missingStops = new LinkedHashMap<>();
+
+        ByteBuffer buffer = this.buffer.duplicate().position((int) stopTimesOffset);
+        int count = buffer.getInt();
+
+        int previousTripString = -1;
+        TripStopsList tripStopsList = null;
+
+        //the trip strings are checked once, the strings of the trips that aren't selected are skipped
+        BitSet checkedTripStrings = new BitSet(), selectedTripStrings = new BitSet();
+
+        for (int i = 0; i < count; i++) {
+            int tripString = buffer.getInt();
+            long stopSequence = buffer.getLong();
+            int stopString = buffer.getInt();
+            int arrivalTimeString = buffer.getInt();
+
+            if (!checkedTripStrings.get(tripString)) {
+                if (tripSelection.test(tripIds.getOrAdd(decodeString(tripString))))
+                    selectedTripStrings.set(tripString);
+                checkedTripStrings.set(tripString);
+            }
+
+            if (!selectedTripStrings.get(tripString))
+                continue;
+
+            if (tripString != previousTripString) {
+                int tripId = tripIds.getOrAdd(decodeString(tripString));
+
+                tripStopsList = tripIdStopListMap.get(tripId);
+                if (tripStopsList == null) {
+                    tripStopsList = new TripStopsList(tripIds.getString(tripId));
+                    tripIdStopListMap.put(tripId, tripStopsList);
+                }
+                previousTripString = tripString;
+            }
+
+            if (!resolved[stopString]) {
+                osmStopsByString[stopString] = gtfsIdOsmStopMap.get(decodeString(stopString));
+                resolved[stopString] = true;
+            }
+
+            OSMStop osmStop = osmStopsByString[stopString];
+
+            if (osmStop != null) {
+                tripStopsList.addStop(stopSequence, osmStop, decodeString(arrivalTimeString));
+            } else {
+                tripStopsList.invalidate();
+                missingStops.putIfAbsent(decodeString(stopString), tripStopsList.getTripId());
+            }
+        }
+
+        return GTFSParser.stopTimesResult(tripIdStopListMap, missingStops);
+    }
+
+    public GTFSIdMap<Shape> getShapes(IntPredicate shapeSelection) {
+        GTFSIdMap<Shape> result = new GTFSIdMap<>(idDictionaries.getShapeIds());
+
+        ByteBuffer buffer = this.buffer.duplicate().position((int) shapesOffset);
+        int count = buffer.getInt();
+
+        for (int i = 0; i < count; i++) {
+            int offset = buffer.position();
+            int shapeId = idDictionaries.getShapeIds().getOrAdd(decodeString(buffer.getInt()));
+
+            if (shapeSelection.test(shapeId)) {
+                result.put(shapeId, readShape(buffer, offset));
+            } else {
+                buffer.position(offset + shapeSize(buffer.getInt()));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the shape with the given id, or null if the feed doesn't contain it
+     */
+    public Shape getShape(String shapeId) {
+        Long offset = getShapeOffsets().get(shapeId);
+        return (offset == null) ? null : readShape(buffer.duplicate(), offset);
+    }
+
+    public int getShapesCount() {
+        return getShapeOffsets().size();
+    }
+
+    //two threads can both build the index the first time, but they build the same one
+    private GTFSIdMap<Long> getShapeOffsets() {
+        GTFSIdMap<Long> offsets = shapeOffsets;
+        if (offsets == null) {
+            offsets = new GTFSIdMap<>(idDictionaries.getShapeIds());
+
+            ByteBuffer buffer = this.buffer.duplicate().position((int) shapesOffset);
+            int count = buffer.getInt();
+
+            for (int i = 0; i < count; i++) {
+                int offset = buffer.position();
+                int shapeId = idDictionaries.getShapeIds().getOrAdd(decodeString(buffer.getInt()));
+                int pointsCount = buffer.getInt();
+
+                offsets.put(shapeId, (long) offset);
+                buffer.position(offset + shapeSize(pointsCount));
+            }
+
+            shapeOffsets = offsets;
+        }
+
+        return offsets;
+    }
+
+    private static int shapeSize(int pointsCount) {
+        return 2 * Integer.BYTES + pointsCount * (Integer.BYTES + 2 * Double.BYTES);
+    }
+
+    //leaves the buffer position after the shape
+    private Shape readShape(ByteBuffer buffer, long offset) {
+        buffer.position((int) offset);
+
+        Shape shape = new Shape(getId(idDictionaries.getShapeIds(), buffer.getInt()));
+        int pointsCount = buffer.getInt();
+
+        int seqsOffset = buffer.position();
+        int latsOffset = seqsOffset + pointsCount * Integer.BYTES;
+        int lonsOffset = latsOffset + pointsCount * Double.BYTES;
+
+        for (int i = 0; i < pointsCount; i++) {
+            shape.pushPoint(buffer.getInt(seqsOffset + i * Integer.BYTES), buffer.getDouble(latsOffset + i * Double.BYTES), buffer.getDouble(lonsOffset + i * Double.BYTES));
+        }
+        shape.sortPoints();
+
+        buffer.position(lonsOffset + pointsCount * Double.BYTES);
+        return shape;
+    }
+
+    private String getString(int index) {
+        return (index < 0) ? null : decodeString(index);
+    }
+
+    //two threads can both decode a string the first time it's used, but they decode the same value
+    private String decodeString(int index) {
+        String string = decodedStrings[index];
+        if (string == null) {
+            int offset = stringOffsets[index];
+            byte[] bytes = new byte[buffer.getInt(offset)];
+            buffer.get(offset + Integer.BYTES, bytes);
+
+            string = new String(bytes, StandardCharsets.UTF_8);
+            decodedStrings[index] = string;
+        }
+
+        return string;
+    }
+
+    //the ids use the canonical strings of the dictionaries of the feed
+    private String getId(GTFSIdDictionary idDictionary, int index) {
+        return (index < 0) ? null : idDictionary.intern(decodeString(index));
+    }
+
+    private static <E extends Enum<E>> E getEnum(E[] values, byte ordinal) {
+        return (ordinal < 0) ? null : values[ordinal];
+    }
+
+    /**
+     * @param parallelism the number of threads used to parse stop_times.txt, with 1 (or less) the file is read sequentially
+     */
+    static void write(GTFSSource source, Path snapshotPath, int parallelism) throws IOException {
+        try (SnapshotWriter writer = new SnapshotWriter(snapshotPath)) {
+            write(source, writer, parallelism);
+        }
+    }
+
+    private static void write(GTFSSource source, SnapshotWriter writer, int parallelism) throws IOException {
+        writer.out.writeInt(MAGIC);
+        writer.out.writeInt(VERSION);
+
+        long stopsOffset = writer.position();
+        List<GTFSStop> stops = GTFSParser.parseStops(source, false);
+        writer.out.writeInt(stops.size());
+        for (GTFSStop stop : stops) {
+            writer.writeString(stop.getGtfsId());
+            writer.writeString(stop.getCode());
+            writer.out.writeDouble(stop.getGeoPosition().getLatitude());
+            writer.out.writeDouble(stop.getGeoPosition().getLongitude());
+            writer.writeString(stop.getName());
+            writer.writeEnum(stop.getWheelchairAccessibility());
+            writer.writeEnum(stop.getStopType());
+        }
+
+        long routesOffset = writer.position();
+        Map<String, Route> routes = GTFSParser.parseRoutes(source, GTFSReadFilter.ALL);
+        writer.out.writeInt(routes.size());
+        for (Route route : routes.values()) {
+            writer.writeString(route.getId());
+            writer.writeString(route.getAgencyId());
+            writer.writeString(route.getLongName());
+            writer.writeString(route.getShortName());
+            writer.writeEnum(route.getRouteType());
+            writer.writeString(route.getRouteColor());
+        }
+
+        long tripsOffset = writer.position();
+        List<Trip> trips = GTFSParser.parseTrips(source, routes, new GTFSIdMap<>(source.getIdDictionaries().getTripIds()), tripId -> true);
+        writer.out.writeInt(trips.size());
+        for (Trip trip : trips) {
+            writer.writeString(trip.getTripId());
+            writer.writeString(trip.getRoute() == null ? null : trip.getRoute().getId());
+            writer.writeString(trip.getShapeId());
+            writer.writeString(trip.getServiceId());
+            writer.writeString(trip.getTripHeadsign());
+            writer.writeEnum(trip.getWheelchairAccess());
+        }
+
+        long stopTimesOffset = writer.position();
+        writeStopTimes(source, writer, parallelism);
+
+        long shapesOffset = writer.position();
+        try (IndexedShapeReader shapes = new IndexedShapeReader(source, 1, false)) {
+            writer.out.writeInt(shapes.size());
+            for (String shapeId : shapes.getShapeIds()) {
+                Shape shape = shapes.get(shapeId);
+                int pointsCount = shape.getPointsCount();
+
+                writer.writeString(shape.getId());
+                writer.out.writeInt(pointsCount);
+                for (int i = 0; i < pointsCount; i++) {
+                    writer.out.writeInt(shape.getSeq(i));
+                }
+                for (int i = 0; i < pointsCount; i++) {
+                    writer.out.writeDouble(shape.getLat(i));
+                }
+                for (int i = 0; i < pointsCount; i++) {
+                    writer.out.writeDouble(shape.getLon(i));
+                }
+            }
+        }
+
+        long stringsOffset = writer.position();
+        writer.writeStringTable();
+
+        writer.out.writeLong(stopsOffset);
+        writer.out.writeLong(routesOffset);
+        writer.out.writeLong(tripsOffset);
+        writer.out.writeLong(stopTimesOffset);
+        writer.out.writeLong(shapesOffset);
+        writer.out.writeLong(stringsOffset);
+        writer.out.writeInt(MAGIC);
+    }
+
+    //the rows are written as they are, the stops are resolved when the snapshot is read
+    private static void writeStopTimes(GTFSSource source, SnapshotWriter writer, int parallelism) throws IOException {
+        //the number of rows is known only at the end, so the rows are counted and written in a temporary file first
+        Path rowsPath = Files.createTempFile("gtfs_stop_times", ".bin");
+
+        try {
+            int count = -1;
+            try (DataOutputStream rows = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(rowsPath), 64 * 1024))) {
+                if (parallelism > 1) {
+                    count = writeStopTimesChunks(source, writer, rows, parallelism);
+
+                    if (count < 0)
+                        System.out.println(ansi().render("@|yellow The stop_times.txt file has quoted values with newlines, it is read again without the parallel parsing.|@"));
+                }
+
+                if (count < 0)
+                    count = writeStopTimesRows(source, writer, rows);
+            }
+
+            writer.out.writeInt(count);
+            Files.copy(rowsPath, writer.out);
+        } finally {
+            Files.deleteIfExists(rowsPath);
+        }
+    }
+
+    /**
+     * @return the number of rows written
+     */
+    private static int writeStopTimesRows(GTFSSource source, SnapshotWriter writer, DataOutputStream rows) throws IOException {
+        GTFSCSVReader reader = GTFSParser.openReader(source, GTFSImportSettings.GTFS_STOP_TIMES_FILE_NAME, true);
+        GTFSParser.StopTimesColumns columns = new GTFSParser.StopTimesColumns(reader.getHeader());
+        int count = 0;
+
+        while (reader.readRecord()) {
+            if (!reader.isEmpty(columns.tripId)) {
+                rows.writeInt(writer.stringIndex(reader.getCharSequence(columns.tripId)));
+                rows.writeLong(reader.getLong(columns.stopSequence));
+                rows.writeInt(writer.stringIndex(reader.getCharSequence(columns.stopId)));
+                rows.writeInt(writer.stringIndex(reader.getCharSequence(columns.arrivalTime)));
+                count++;
+            }
+        }
+        reader.close();
+
+        return count;
+    }
+
+    /**
+     * Parses the chunks of stop_times.txt in parallel, each one with its own table of strings, and writes their rows in file order.
+     * The strings of every chunk are added to the string table in the order they were first seen, so the snapshot is the same of the sequential reading.
+     *
+     * @return the number of rows written, or -1 if the file must be read sequentially because a chunk ended inside a quoted value
+     */
+    private static int writeStopTimesChunks(GTFSSource source, SnapshotWriter writer, DataOutputStream rows, int parallelism) throws IOException {
+        List<StopTimesRows> chunks = GTFSParser.readStopTimesChunks(source, parallelism, ReadProgressListener.NONE, (reader, columns, onProgress) -> {
+            StopTimesRows chunk = new StopTimesRows();
+            chunk.read(reader, columns);
+            return chunk;
+        });
+
+        if (chunks == null)
+            return -1;
+
+        int count = 0;
+        for (StopTimesRows chunk : chunks) {
+            int[] stringIndexes = new int[chunk.strings.size()];
+            for (int i = 0; i < stringIndexes.length; i++) {
+                stringIndexes[i] = writer.stringIndex(chunk.strings.getString(i));
+            }
+
+            for (int i = 0; i < chunk.count; i++) {
+                rows.writeInt(stringIndexes[chunk.tripStrings[i]]);
+                rows.writeLong(chunk.stopSequences[i]);
+                rows.writeInt(stringIndexes[chunk.stopStrings[i]]);
+                rows.writeInt(stringIndexes[chunk.arrivalTimeStrings[i]]);
+            }
+            count += chunk.count;
+        }
+
+        return count;
+    }
+
+    private static String hash(File file) throws IOException {
+        try (InputStream inputStream = new FileInputStream(file)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] readBuffer = new byte[64 * 1024];
+            int read;
+            while ((read = inputStream.read(readBuffer)) >= 0) {
+                digest.update(readBuffer, 0, read);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /***
+     * The rows of a chunk of stop_times.txt parsed by the parallel reading, with the indexes of the strings in the table of the chunk
+     */
+    private static class StopTimesRows {
+        private final GTFSIdDictionary strings = new GTFSIdDictionary();
+        private int[] tripStrings = new int[1024];
+        private long[] stopSequences = new long[1024];
+        private int[] stopStrings = new int[1024];
+        private int[] arrivalTimeStrings = new int[1024];
+        private int count = 0;
+
+        private void read(GTFSCSVReader reader, GTFSParser.StopTimesColumns columns) throws IOException {
+            while (reader.readRecord()) {
+                if (!reader.isEmpty(columns.tripId)) {
+                    if (count == tripStrings.length) {
+                        tripStrings = Arrays.copyOf(tripStrings, count * 2);
+                        stopSequences = Arrays.copyOf(stopSequences, count * 2);
+                        stopStrings = Arrays.copyOf(stopStrings, count * 2);
+                        arrivalTimeStrings = Arrays.copyOf(arrivalTimeStrings, count * 2);
+                    }
+
+                    //in the same order of the sequential reading
+                    tripStrings[count] = strings.getOrAdd(reader.getCharSequence(columns.tripId));
+                    stopSequences[count] = reader.getLong(columns.stopSequence);
+                    stopStrings[count] = strings.getOrAdd(reader.getCharSequence(columns.stopId));
+                    arrivalTimeStrings[count] = strings.getOrAdd(reader.getCharSequence(columns.arrivalTime));
+                    count++;
+                }
+            }
+        }
+    }
+
+    private static class SnapshotWriter implements Closeable {
+        private final DataOutputStream out;
+        private long written;
+
+        //the table of all the strings of the snapshot, every string is stored once
+        private final GTFSIdDictionary strings = new GTFSIdDictionary();
+
+        private SnapshotWriter(Path snapshotPath) throws IOException {
+            //the bytes are counted as a long, DataOutputStream.size() stops at Integer.MAX_VALUE
+            out = new DataOutputStream(new FilterOutputStream(new BufferedOutputStream(Files.newOutputStream(snapshotPath), 64 * 1024)) {
+                @Override
+                public void write(int b) throws IOException {
+                    count(1);
+                    out.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    count(len);
+                    out.write(b, off, len);
+                }
+            });
+        }
+
+        //a larger file can't be memory mapped by load, so the snapshot is abandoned as soon as it exceeds the limit
+        private void count(int length) throws IOException {
+            written += length;
+            if (written > Integer.MAX_VALUE)
+                throw new IOException("GTFS snapshot larger than " + Integer.MAX_VALUE + " bytes, it can't be memory mapped");
+        }
+
+        private long position() {
+            return written;
+        }
+
+        private int stringIndex(CharSequence string) {
+            return strings.getOrAdd(string);
+        }
+
+        private void writeString(String string) throws IOException {
+            out.writeInt(string == null ? -1 : strings.getOrAdd(string));
+        }
+
+        private void writeEnum(Enum<?> value) throws IOException {
+            out.writeByte(value == null ? -1 : value.ordinal());
+        }
+
+        private void writeStringTable() throws IOException {
+            out.writeInt(strings.size());
+            for (int i = 0; i < strings.size(); i++) {
+                byte[] bytes = strings.getString(i).getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
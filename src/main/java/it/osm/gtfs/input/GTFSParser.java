@@ -15,6 +15,7 @@ package it.osm.gtfs.input;
 
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Multimap;
+import com.google.common.io.CountingInputStream;
 import it.osm.gtfs.enums.OSMStopType;
 import it.osm.gtfs.enums.RouteType;
 import it.osm.gtfs.enums.WheelchairAccess;
@@ -24,318 +25,622 @@ import it.osm.gtfs.utils.SharedCliOptions;
 import org.fusesource.jansi.Ansi;
 import org.jxmapviewer.viewer.GeoPosition;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.IOException;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
 import java.util.*;
-import java.util.regex.Pattern;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntPredicate;
 
 import static org.fusesource.jansi.Ansi.ansi;
 
 public class GTFSParser {
 
-    private static String sanitizeBOM(String s) {
-        final String UTF8_BOM = "\uFEFF";
-        if (s.startsWith(UTF8_BOM)) {
-            s = s.substring(1);
-            System.out.println(ansi().render("@|red GTFSParser: removed BOM|@" ));
-        }
-        return s;
+    //smaller chunks aren't worth the overhead of the parallel reading
+    private static final long MIN_STOP_TIMES_CHUNK_SIZE = 16 * 1024 * 1024;
+
+    public static List<GTFSStop> readStops(GTFSSource source) throws IOException {
+        GTFSFeedSnapshot snapshot = getExistingSnapshot(source);
+        if (snapshot != null)
+            return snapshot.getStops(SharedCliOptions.onlyBusStops);
+
+        return parseStops(source, SharedCliOptions.onlyBusStops);
     }
 
-    public static List<GTFSStop> readStops(String fName) throws IOException {
+    static List<GTFSStop> parseStops(GTFSSource source, boolean onlyBusStops) throws IOException {
         List<GTFSStop> resultGtfsStopsList = new ArrayList<>();
 
-        String thisLine;
-        String[] elements;
         int stopIdKey = -1, stopNameKey = -1, stopCodeKey = -1, stopLatKey = -1, stopLonKey = -1, locationTypeKey = -1, parentStationKey = -1, wheelchairBoardingKey = -1;
 
-        BufferedReader br = new BufferedReader(new FileReader(fName, StandardCharsets.UTF_8));
-        boolean isFirstLine = true;
+        GTFSCSVReader reader = openReader(source, GTFSImportSettings.GTFS_STOP_FILE_NAME, true);
         Hashtable<String, Integer> keysIndex = new Hashtable<>();
-        while ((thisLine = br.readLine()) != null) {
-            if (isFirstLine) {
-                isFirstLine = false;
-
-                thisLine = sanitizeBOM(thisLine).replace("\"", "");
-                String[] keys = thisLine.split(",");
-
-                for (int i = 0; i < keys.length; i++) {
-                    switch (keys[i]) {
-                        case "stop_id" -> stopIdKey = i;
-                        case "stop_name" -> stopNameKey = i;
-                        case "stop_lat" -> stopLatKey = i;
-                        case "stop_lon" -> stopLonKey = i;
-                        case "stop_code" -> stopCodeKey = i;
-                        case "location_type" -> locationTypeKey = i;
-                        case "parent_station" -> parentStationKey = i;
-                        case "wheelchair_boarding" -> wheelchairBoardingKey = i;
-
-                        // gtfs stop_url is mapped to source_ref tag in OSM
-                        case "stop_url" -> keysIndex.put("source_ref", i);
-                        default -> {
-                            String t = "gtfs_" + keys[i];
-                            keysIndex.put(t, i);
-                        }
-                    }
+
+        String[] keys = reader.getHeader();
+
+        for (int i = 0; i < keys.length; i++) {
+            switch (keys[i]) {
+                case "stop_id" -> stopIdKey = i;
+                case "stop_name" -> stopNameKey = i;
+                case "stop_lat" -> stopLatKey = i;
+                case "stop_lon" -> stopLonKey = i;
+                case "stop_code" -> stopCodeKey = i;
+                case "location_type" -> locationTypeKey = i;
+                case "parent_station" -> parentStationKey = i;
+                case "wheelchair_boarding" -> wheelchairBoardingKey = i;
+
+                // gtfs stop_url is mapped to source_ref tag in OSM
+                case "stop_url" -> keysIndex.put("source_ref", i);
+                default -> {
+                    String t = "gtfs_" + keys[i];
+                    keysIndex.put(t, i);
                 }
+            }
+        }
 
-                //GTFS Brescia: if code isn't present we use id as code
-                if (stopCodeKey == -1)
-                    stopCodeKey = stopIdKey;
-            } else {
-                elements = getElementsFromLine(thisLine, true);
-
-                //GTFS Milano: code column present but empty (using id as code)
-                String stopCode = elements[stopCodeKey];
-                if (stopCode.length() == 0)
-                    stopCode = elements[stopIdKey];
-                if (stopCode.length() > 0) {
-                    if (locationTypeKey >= 0 && parentStationKey >= 0 && "1".equals(elements[locationTypeKey])) {
-                        //this is a station (group of multiple stops)
-                        System.out.println(ansi().render("@|red GTFSParser: Skipped a station (group of multiple stops) with gtfs id: |@" + elements[stopIdKey]));
-                    } else {
+        //GTFS Brescia: if code isn't present we use id as code
+        if (stopCodeKey == -1)
+            stopCodeKey = stopIdKey;
+
+        while (reader.readRecord()) {
+            //GTFS Milano: code column present but empty (using id as code)
+            String stopCode = reader.get(stopCodeKey);
+            if (stopCode.length() == 0)
+                stopCode = reader.get(stopIdKey);
+            if (stopCode.length() > 0) {
+                if (locationTypeKey >= 0 && parentStationKey >= 0 && reader.valueEquals(locationTypeKey, "1")) {
+                    //this is a station (group of multiple stops)
+                    System.out.println(ansi().render("@|red GTFSParser: Skipped a station (group of multiple stops) with gtfs id: |@" + reader.get(stopIdKey)));
+                } else {
 
-                        GTFSStop gtfsStop = new GTFSStop(elements[stopIdKey],
-                                elements[stopCodeKey],
-                                new GeoPosition(Double.parseDouble(elements[stopLatKey]), Double.parseDouble(elements[stopLonKey])),
-                                elements[stopNameKey],
-                                null, //TODO: we probably should find a way to get the real operator from GTFS for GTFS-type stops - no because the operator is set by us
-                                null,
-                                (wheelchairBoardingKey > -1 && elements[wheelchairBoardingKey] != "") ?
-                                    WheelchairAccess.getEnumByGtfsValue(Integer.parseInt(elements[wheelchairBoardingKey])) : null
-                        );
+                    GTFSStop gtfsStop = new GTFSStop(reader.get(stopIdKey),
+                            reader.get(stopCodeKey),
+                            new GeoPosition(reader.getDouble(stopLatKey), reader.getDouble(stopLonKey)),
+                            reader.get(stopNameKey),
+                            null, //TODO: we probably should find a way to get the real operator from GTFS for GTFS-type stops - no because the operator is set by us
+                            null,
+                            (wheelchairBoardingKey > -1 && !reader.isEmpty(wheelchairBoardingKey)) ?
+                                WheelchairAccess.getEnumByGtfsValue(reader.getInt(wheelchairBoardingKey)) : null
+                    );
 
-                        OSMStopType stopType = GTFSImportSettings.getInstance().getPlugin().getStopType(gtfsStop);
+                    OSMStopType stopType = GTFSImportSettings.getInstance().getPlugin().getStopType(gtfsStop);
 
-                        if (!stopType.equals(OSMStopType.PHYSICAL_BUS_STOP) && SharedCliOptions.onlyBusStops) {
-                            continue;
-                        }
+                    if (!stopType.equals(OSMStopType.PHYSICAL_BUS_STOP) && onlyBusStops) {
+                        continue;
+                    }
 
-                        //todo: probably we should remove this plugin call and instead find a way to include the stop type directly in the constructor up there
-                        gtfsStop.setStopType(stopType);
+                    //todo: probably we should remove this plugin call and instead find a way to include the stop type directly in the constructor up there
+                    gtfsStop.setStopType(stopType);
 
-                        if (GTFSImportSettings.getInstance().getPlugin().isValidStop(gtfsStop)) {
-                            resultGtfsStopsList.add(gtfsStop);
-                        }
+                    if (GTFSImportSettings.getInstance().getPlugin().isValidStop(gtfsStop)) {
+                        resultGtfsStopsList.add(gtfsStop);
                     }
-                } else {
-                    System.out.println(ansi().render("@|red GTFSParser: Failed to parse stops.txt line: |@" + thisLine));
                 }
+            } else {
+                System.out.println(ansi().render("@|red GTFSParser: Failed to parse stops.txt line: |@" + reader));
             }
         }
-        br.close();
+        reader.close();
 
         return resultGtfsStopsList;
     }
 
-    public static List<Trip> readTrips(String gtfsTripsFilePath, Map<String, Route> routes, Map<String, TripStopsList> stopTimes) throws IOException {
-        List<Trip> finalTripsList = new ArrayList<>();
+    public static List<Trip> readTrips(GTFSSource source, Map<String, Route> routes, GTFSIdMap<TripStopsList> stopTimes) throws IOException {
+        return readTrips(source, routes, stopTimes, GTFSReadFilter.ALL);
+    }
 
+    /**
+     * Reads only the trips of the routes selected by the filter
+     */
+    public static List<Trip> readTrips(GTFSSource source, Map<String, Route> routes, GTFSIdMap<TripStopsList> stopTimes, GTFSReadFilter filter) throws IOException {
         if (stopTimes.isEmpty()) {
             System.out.println(ansi().render("@|red No stop times provided! The trips list will be generated without a stop list! |@"));
         }
 
-        String thisLine;
-        String[] elements;
-        int shape_id = -1, route_id = -1, trip_id = -1, trip_headsign = -1, wheelchair_accessible = -1;
-
-        BufferedReader br = new BufferedReader(new FileReader(gtfsTripsFilePath, StandardCharsets.UTF_8));
-        boolean isFirstLine = true;
-        while ((thisLine = br.readLine()) != null) {
-            if (isFirstLine) {
-                isFirstLine = false;
-                thisLine = thisLine.replace("\"", "");
-                String[] keys = thisLine.split(",");
-                for (int i = 0; i < keys.length; i++) {
-                    switch (keys[i]) {
-                        case "route_id" -> route_id = i;
-                        case "trip_id" -> trip_id = i;
-                        case "trip_headsign" -> trip_headsign = i;
-                        case "shape_id" -> shape_id = i;
-                        case "wheelchair_accessible" -> wheelchair_accessible = i;
+        IntPredicate tripSelection = filter.getTripSelection(source);
 
-                    }
+        GTFSFeedSnapshot snapshot = getExistingSnapshot(source);
+        if (snapshot != null)
+            return snapshot.getTrips(routes, stopTimes, tripSelection);
+
+        return parseTrips(source, routes, stopTimes, tripSelection);
+    }
+
+    static List<Trip> parseTrips(GTFSSource source, Map<String, Route> routes, GTFSIdMap<TripStopsList> stopTimes, IntPredicate tripSelection) throws IOException {
+        List<Trip> finalTripsList = new ArrayList<>();
+
+        int shape_id = -1, route_id = -1, trip_id = -1, service_id = -1, trip_headsign = -1, wheelchair_accessible = -1;
+
+        GTFSIdDictionaries idDictionaries = source.getIdDictionaries();
+        GTFSIdDictionary tripIds = idDictionaries.getTripIds();
+        GTFSCSVReader reader = openReader(source, GTFSImportSettings.GTFS_TRIPS_FILE_NAME, false);
+
+        String[] keys = reader.getHeader();
+        for (int i = 0; i < keys.length; i++) {
+            switch (keys[i]) {
+                case "route_id" -> route_id = i;
+                case "trip_id" -> trip_id = i;
+                case "service_id" -> service_id = i;
+                case "trip_headsign" -> trip_headsign = i;
+                case "shape_id" -> shape_id = i;
+                case "wheelchair_accessible" -> wheelchair_accessible = i;
+
+            }
+        }
+
+        while (reader.readRecord()) {
+            if (!reader.isEmpty(shape_id)) {
+                //the ids are shared with the ones of the other files of the feed
+                int tripId = tripIds.getOrAdd(reader.getCharSequence(trip_id));
+
+                if (!tripSelection.test(tripId))
+                    continue;
+
+                finalTripsList.add(new Trip(tripIds.getString(tripId),
+                        routes.get(reader.get(route_id)),
+                        idDictionaries.getShapeIds().intern(reader.getCharSequence(shape_id)),
+                        (service_id > -1) ? idDictionaries.getServiceIds().intern(reader.getCharSequence(service_id)) : null,
+                        (trip_headsign > -1) ? reader.get(trip_headsign) : "",
+                        stopTimes.get(tripId),
+                        (wheelchair_accessible > -1 && !reader.isEmpty(wheelchair_accessible)) ?
+                            WheelchairAccess.getEnumByGtfsValue(reader.getInt(wheelchair_accessible)) : null
+                ));
+            }
+        }
+        reader.close();
+
+        return finalTripsList;
+    }
+
+    /**
+     * Scans trips.txt to find the ids of the trips of the given routes and of their shapes, without creating the trips
+     *
+     * @param serviceIds the ids of the services the trips must belong to, null to accept the trips of any service
+     */
+    static void selectTrips(GTFSSource source, BitSet routeIds, BitSet serviceIds, BitSet tripIds, BitSet shapeIds) throws IOException {
+        GTFSFeedSnapshot snapshot = getExistingSnapshot(source);
+        if (snapshot != null) {
+            snapshot.selectTrips(routeIds, serviceIds, tripIds, shapeIds);
+            return;
+        }
+
+        GTFSIdDictionaries idDictionaries = source.getIdDictionaries();
+        GTFSCSVReader reader = openReader(source, GTFSImportSettings.GTFS_TRIPS_FILE_NAME, false);
+
+        int route_id = reader.getColumnIndex("route_id"), service_id = reader.getColumnIndex("service_id"), trip_id = reader.getColumnIndex("trip_id"), shape_id = reader.getColumnIndex("shape_id");
+
+        while (reader.readRecord()) {
+            //the same trips read by parseTrips
+            if (!reader.isEmpty(shape_id)) {
+                int routeId = idDictionaries.getRouteIds().get(reader.getCharSequence(route_id));
+                int serviceId = (serviceIds == null) ? GTFSIdDictionary.NO_ID : idDictionaries.getServiceIds().get(reader.getCharSequence(service_id));
+
+                if (routeId != GTFSIdDictionary.NO_ID && routeIds.get(routeId) &&
+                        (serviceIds == null || (serviceId != GTFSIdDictionary.NO_ID && serviceIds.get(serviceId)))) {
+                    tripIds.set(idDictionaries.getTripIds().getOrAdd(reader.getCharSequence(trip_id)));
+                    shapeIds.set(idDictionaries.getShapeIds().getOrAdd(reader.getCharSequence(shape_id)));
                 }
-                //                    System.out.println(stopIdKey+","+stopNameKey+","+stopLatKey+","+stopLonKey);
-            } else {
-                elements = getElementsFromLine(thisLine, false);
-
-                if (elements[shape_id].length() > 0) {
-                    finalTripsList.add(new Trip(elements[trip_id],
-                            routes.get(elements[route_id]),
-                            elements[shape_id],
-                            (trip_headsign > -1) ? elements[trip_headsign] : "",
-                            stopTimes.get(elements[trip_id]),
-                            (wheelchair_accessible > -1 && elements[wheelchair_accessible] != "") ?
-                                WheelchairAccess.getEnumByGtfsValue(Integer.parseInt(elements[wheelchair_accessible])) : null
-                    ));
+            }
+        }
+        reader.close();
+    }
+
+    /**
+     * Reads the days of the services from calendar.txt and calendar_dates.txt, the calendar is empty if the feed has neither file
+     */
+    public static GTFSServiceCalendar readCalendar(GTFSSource source) throws IOException {
+        GTFSIdDictionary serviceIds = source.getIdDictionaries().getServiceIds();
+        GTFSServiceCalendar calendar = new GTFSServiceCalendar(serviceIds);
+
+        if (source.exists(GTFSImportSettings.GTFS_CALENDAR_FILE_NAME)) {
+            GTFSCSVReader reader = openReader(source, GTFSImportSettings.GTFS_CALENDAR_FILE_NAME, false);
+
+            int service_id = reader.getColumnIndex("service_id"), start_date = reader.getColumnIndex("start_date"), end_date = reader.getColumnIndex("end_date");
+            int[] weekdayColumns = new int[7];
+            String[] weekdayNames = {"monday", "tuesday", "wednesday", "thursday", "friday", "saturday", "sunday"};
+            for (int i = 0; i < weekdayColumns.length; i++) {
+                weekdayColumns[i] = reader.getColumnIndex(weekdayNames[i]);
+            }
+
+            boolean[] weekdays = new boolean[7];
+            while (reader.readRecord()) {
+                for (int i = 0; i < weekdays.length; i++) {
+                    weekdays[i] = !reader.isEmpty(weekdayColumns[i]) && reader.getInt(weekdayColumns[i]) == 1;
                 }
+
+                calendar.addWeeklyService(serviceIds.getOrAdd(reader.getCharSequence(service_id)), weekdays,
+                        parseDate(reader, start_date), parseDate(reader, end_date));
             }
+            reader.close();
         }
-        br.close();
 
-        return finalTripsList;
+        //the exceptions are applied after all the weekly services
+        if (source.exists(GTFSImportSettings.GTFS_CALENDAR_DATES_FILE_NAME)) {
+            GTFSCSVReader reader = openReader(source, GTFSImportSettings.GTFS_CALENDAR_DATES_FILE_NAME, false);
+
+            int service_id = reader.getColumnIndex("service_id"), date = reader.getColumnIndex("date"), exception_type = reader.getColumnIndex("exception_type");
+
+            while (reader.readRecord()) {
+                calendar.addException(serviceIds.getOrAdd(reader.getCharSequence(service_id)),
+                        parseDate(reader, date), reader.getInt(exception_type) == 1);
+            }
+            reader.close();
+        }
+
+        return calendar;
+    }
+
+    //the GTFS dates are in the YYYYMMDD format
+    private static LocalDate parseDate(GTFSCSVReader reader, int index) {
+        int value = reader.getInt(index);
+        return LocalDate.of(value / 10000, value / 100 % 100, value % 100);
+    }
+
+    public static GTFSIdMap<Shape> readShapes(GTFSSource source) throws IOException {
+        return readShapes(source, GTFSReadFilter.ALL);
+    }
+
+    /**
+     * Reads only the shapes of the trips selected by the filter
+     */
+    public static GTFSIdMap<Shape> readShapes(GTFSSource source, GTFSReadFilter filter) throws IOException {
+        IntPredicate shapeSelection = filter.getShapeSelection(source);
+
+        GTFSFeedSnapshot snapshot = getSnapshot(source);
+        if (snapshot != null)
+            return snapshot.getShapes(shapeSelection);
+
+        return parseShapes(source, shapeSelection);
     }
 
-    public static Map<String, Shape> readShapes(String fName) throws IOException {
-        Map<String, Shape> result = new TreeMap<>();
+    static GTFSIdMap<Shape> parseShapes(GTFSSource source, IntPredicate shapeSelection) throws IOException {
+        GTFSIdDictionary shapeIds = source.getIdDictionaries().getShapeIds();
+        GTFSIdMap<Shape> result = new GTFSIdMap<>(shapeIds);
 
-        String thisLine;
-        String[] elements;
         int shape_id = -1, shape_pt_lat = -1, shape_pt_lon = -1, shape_pt_sequence = -1;
 
-        BufferedReader br = new BufferedReader(new FileReader(fName, StandardCharsets.UTF_8));
-        boolean isFirstLine = true;
-        while ((thisLine = br.readLine()) != null) {
-            if (isFirstLine) {
-                isFirstLine = false;
-                thisLine = thisLine.replace("\"", "");
-                String[] keys = thisLine.split(",");
-                for (int i = 0; i < keys.length; i++) {
-                    switch (keys[i]) {
-                        case "shape_id" -> shape_id = i;
-                        case "shape_pt_lat" -> shape_pt_lat = i;
-                        case "shape_pt_lon" -> shape_pt_lon = i;
-                        case "shape_pt_sequence" -> shape_pt_sequence = i;
-                    }
-                }
-                //                    System.out.println(stopIdKey+","+stopNameKey+","+stopLatKey+","+stopLonKey);
-            } else {
-                elements = getElementsFromLine(thisLine, true);
+        GTFSCSVReader reader = openReader(source, GTFSImportSettings.GTFS_SHAPES_FILE_NAME, true);
+
+        String[] keys = reader.getHeader();
+        for (int i = 0; i < keys.length; i++) {
+            switch (keys[i]) {
+                case "shape_id" -> shape_id = i;
+                case "shape_pt_lat" -> shape_pt_lat = i;
+                case "shape_pt_lon" -> shape_pt_lon = i;
+                case "shape_pt_sequence" -> shape_pt_sequence = i;
+            }
+        }
 
-                if (elements[shape_id].length() > 0) {
-                    Shape s = result.get(elements[shape_id]);
-                    if (s == null) {
-                        s = new Shape(elements[shape_id]);
-                        result.put(elements[shape_id], s);
+        Shape s = null;
+        String currentShapeId = null;
+
+        while (reader.readRecord()) {
+            if (!reader.isEmpty(shape_id)) {
+                //shapes.txt is usually grouped by shape_id, so we avoid a map lookup (and a new string) for every point of the same shape
+                if (currentShapeId == null || !reader.valueEquals(shape_id, currentShapeId)) {
+                    int shapeId = shapeIds.getOrAdd(reader.getCharSequence(shape_id));
+                    currentShapeId = shapeIds.getString(shapeId);
+
+                    if (shapeSelection.test(shapeId)) {
+                        s = result.get(shapeId);
+                        if (s == null) {
+                            s = new Shape(currentShapeId);
+                            result.put(shapeId, s);
+                        }
+                    } else {
+                        //the points of this shape are skipped
+                        s = null;
                     }
-                    s.pushPoint(Long.parseLong(elements[shape_pt_sequence]), Double.parseDouble(elements[shape_pt_lat]), Double.parseDouble(elements[shape_pt_lon]));
                 }
+
+                if (s != null)
+                    s.pushPoint(reader.getInt(shape_pt_sequence), reader.getDouble(shape_pt_lat), reader.getDouble(shape_pt_lon));
             }
         }
-        br.close();
+        reader.close();
+
+        for (Shape shape : result.values()) {
+            shape.sortPoints();
+        }
+
         return result;
     }
 
-    public static Map<String, Route> readRoutes(String fName) throws IOException {
+    public static Map<String, Route> readRoutes(GTFSSource source) throws IOException {
+        return readRoutes(source, GTFSReadFilter.ALL);
+    }
+
+    /**
+     * Reads only the routes accepted by the filter
+     */
+    public static Map<String, Route> readRoutes(GTFSSource source, GTFSReadFilter filter) throws IOException {
+        GTFSFeedSnapshot snapshot = getExistingSnapshot(source);
+        if (snapshot != null)
+            return snapshot.getRoutes(filter);
+
+        return parseRoutes(source, filter);
+    }
+
+    static Map<String, Route> parseRoutes(GTFSSource source, GTFSReadFilter filter) throws IOException {
         Map<String, Route> finalRouteIdRouteMap = new HashMap<>();
 
-        String thisLine;
-        String[] elements;
         int route_id = -1, agency_id = -1, route_short_name = -1, route_long_name = -1, route_type = -1, route_color = -1;
 
-        BufferedReader br = new BufferedReader(new FileReader(fName, StandardCharsets.UTF_8));
-        boolean isFirstLine = true;
-        while ((thisLine = br.readLine()) != null) {
-            if (isFirstLine) {
-                isFirstLine = false;
-                thisLine = thisLine.replace("\"", "");
-                String[] keys = thisLine.split(",");
-                for (int i = 0; i < keys.length; i++) {
-                    switch (keys[i]) {
-                        case "route_id" -> route_id = i;
-                        case "agency_id" -> agency_id = i;
-                        case "route_short_name" -> route_short_name = i;
-                        case "route_long_name" -> route_long_name = i;
-                        case "route_type" -> route_type = i;
-                        case "route_color" -> route_color = i;
-                    }
-                }
-            } else {
-                elements = getElementsFromLine(thisLine, true);
-
-                if (elements[route_id].length() > 0) {
-                    finalRouteIdRouteMap.put(elements[route_id],
-                            new Route(elements[route_id],
-                                    agency_id > -1 ? elements[agency_id] : null,
-                                    elements[route_long_name],
-                                    elements[route_short_name],
-                                    RouteType.getEnumByGtfsValue(Integer.parseInt(elements[route_type])),
-                                    route_color > -1 ? elements[route_color] : null)
-                    );
-                }
+        GTFSCSVReader reader = openReader(source, GTFSImportSettings.GTFS_ROUTES_FILE_NAME, true);
+
+        String[] keys = reader.getHeader();
+        for (int i = 0; i < keys.length; i++) {
+            switch (keys[i]) {
+                case "route_id" -> route_id = i;
+                case "agency_id" -> agency_id = i;
+                case "route_short_name" -> route_short_name = i;
+                case "route_long_name" -> route_long_name = i;
+                case "route_type" -> route_type = i;
+                case "route_color" -> route_color = i;
             }
         }
-        br.close();
+
+        while (reader.readRecord()) {
+            if (!reader.isEmpty(route_id)) {
+                String routeId = reader.get(route_id);
+
+                Route route = new Route(routeId,
+                        agency_id > -1 ? reader.get(agency_id) : null,
+                        reader.get(route_long_name),
+                        reader.get(route_short_name),
+                        RouteType.getEnumByGtfsValue(reader.getInt(route_type)),
+                        route_color > -1 ? reader.get(route_color) : null);
+
+                if (filter.acceptsRoute(route))
+                    finalRouteIdRouteMap.put(routeId, route);
+            }
+        }
+        reader.close();
 
         return finalRouteIdRouteMap;
     }
 
-    public static ReadStopTimesResult readStopTimes(String gtfsStopTimesFilePath, Map<String, OSMStop> gtfsIdOsmStopMap) throws IOException {
-        Map<String, TripStopsList> tripIdStopListMap = new TreeMap<>();
-        Set<String> missingStops = new HashSet<>();
+    public static ReadStopTimesResult readStopTimes(GTFSSource source, Map<String, OSMStop> gtfsIdOsmStopMap) throws IOException {
+        return readStopTimes(source, gtfsIdOsmStopMap, GTFSReadFilter.ALL);
+    }
 
-        final ReadStopTimesResult readStopTimesResult;
+    /**
+     * Reads only the stop times of the trips selected by the filter, the rows of the other trips are skipped without being parsed
+     */
+    public static ReadStopTimesResult readStopTimes(GTFSSource source, Map<String, OSMStop> gtfsIdOsmStopMap, GTFSReadFilter filter) throws IOException {
+        int parallelism = SharedCliOptions.parallelParsing ? Runtime.getRuntime().availableProcessors() : 1;
 
-        int count = 0;
+        return readStopTimes(source, gtfsIdOsmStopMap, filter, ReadProgressListener.console("Stop times read so far: "), parallelism);
+    }
 
-        String thisLine;
-        String[] thisLineElements;
-        int trip_id = -1, stop_id = -1, stop_sequence = -1, arrival_time = -1;
+    /**
+     * Reads the stop_times.txt file in a single pass, the progress is reported to the listener every 100000 rows
+     * using the bytes read so far and the size of the file (-1 if the source doesn't know it).
+     */
+    public static ReadStopTimesResult readStopTimes(GTFSSource source, Map<String, OSMStop> gtfsIdOsmStopMap, GTFSReadFilter filter, ReadProgressListener progressListener) throws IOException {
+        IntPredicate tripSelection = filter.getTripSelection(source);
 
-        Path filePath = Paths.get(gtfsStopTimesFilePath);
+        GTFSFeedSnapshot snapshot = getSnapshot(source);
+        if (snapshot != null)
+            return snapshot.readStopTimes(gtfsIdOsmStopMap, tripSelection);
 
-        long numberOfLines = Files.lines(filePath).count();
+        long fileSize = source.size(GTFSImportSettings.GTFS_STOP_TIMES_FILE_NAME);
 
-        BufferedReader br = new BufferedReader(new FileReader(filePath.toFile(), StandardCharsets.UTF_8));
-        boolean isFirstLine = true;
-        while ((thisLine = br.readLine()) != null) {
-            count++;
+        CountingInputStream inputStream = new CountingInputStream(source.open(GTFSImportSettings.GTFS_STOP_TIMES_FILE_NAME));
+        GTFSCSVReader reader = new GTFSCSVReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8), true);
 
-            if (count % 100000 == 0)
-                System.out.println(ansi().fg(Ansi.Color.YELLOW).a("Stop times read so far: ").reset().a(count + "/" + numberOfLines));
+        GTFSIdDictionary tripIds = source.getIdDictionaries().getTripIds();
+        GTFSIdMap<OSMStop> osmStopsByGtfsId = toIdMap(source.getIdDictionaries().getStopIds(), gtfsIdOsmStopMap);
 
-            if (isFirstLine) {
-                isFirstLine = false;
+        StopTimesChunk chunk = new StopTimesChunk(reader, new StopTimesColumns(reader.getHeader()));
+        chunk.read(tripIds, osmStopsByGtfsId, tripSelection, () -> progressListener.onProgress(inputStream.getCount(), fileSize));
 
-                thisLine = thisLine.replace("\"", "");
-                String[] keys = thisLine.split(",");
+        progressListener.onProgress(inputStream.getCount(), fileSize);
 
-                for (int i = 0; i < keys.length; i++) {
-                    switch (keys[i]) {
-                        case "trip_id" -> trip_id = i;
-                        case "arrival_time" -> arrival_time = i;
-                        case "stop_id" -> stop_id = i;
-                        case "stop_sequence" -> stop_sequence = i;
-                    }
-                }
+        //this closes also the input stream
+        reader.close();
 
-            } else {
-                thisLineElements = getElementsFromLine(thisLine, true);
+        return mergeStopTimesChunks(tripIds, List.of(chunk));
+    }
 
-                if (thisLineElements[trip_id].length() > 0) {
-                    TripStopsList tripStopsList = tripIdStopListMap.get(thisLineElements[trip_id]);
+    /**
+     * Reads the stop_times.txt file splitting it in chunks at line boundaries, which are parsed in parallel on a fork-join pool.
+     * The chunks are merged in file order, so the result and the missing stops warnings are the same of the sequential reading.
+     * If a chunk ends inside a quoted value (a value with a newline split between two chunks) the file is read again sequentially.
+     * The feeds with a snapshot are read from the snapshot, which is faster than the parallel parsing. The parallel parsing option is used
+     * to create the snapshot instead, see GTFSFeedSnapshot.
+     *
+     * @param parallelism the number of threads to use, with 1 (or less) the file is read sequentially
+     */
+    public static ReadStopTimesResult readStopTimes(GTFSSource source, Map<String, OSMStop> gtfsIdOsmStopMap, GTFSReadFilter filter, ReadProgressListener progressListener, int parallelism) throws IOException {
+        if (parallelism <= 1 || getSnapshot(source) != null)
+            return readStopTimes(source, gtfsIdOsmStopMap, filter, progressListener);
+
+        //the chunks only look up the stop and trip ids in their dictionaries, no new id is added while they're read
+        GTFSIdDictionary tripIds = source.getIdDictionaries().getTripIds();
+        GTFSIdMap<OSMStop> osmStopsByGtfsId = toIdMap(source.getIdDictionaries().getStopIds(), gtfsIdOsmStopMap);
+        IntPredicate tripSelection = filter.getTripSelection(source);
+
+        List<StopTimesChunk> chunks = readStopTimesChunks(source, parallelism, progressListener, (reader, columns, onProgress) -> {
+            StopTimesChunk chunk = new StopTimesChunk(reader, columns);
+            chunk.read(tripIds, osmStopsByGtfsId, tripSelection, onProgress);
+            return chunk;
+        });
+
+        if (chunks == null) {
+            System.out.println(ansi().render("@|yellow The stop_times.txt file has quoted values with newlines, it is read again without the parallel parsing.|@"));
+            return readStopTimes(source, gtfsIdOsmStopMap, filter, progressListener);
+        }
 
-                    if (tripStopsList == null) {
-                        tripStopsList = new TripStopsList(thisLineElements[trip_id]);
-                        tripIdStopListMap.put(thisLineElements[trip_id], tripStopsList);
-                    }
+        return mergeStopTimesChunks(tripIds, chunks);
+    }
 
-                    String thisLineGtfsID = thisLineElements[stop_id];
+    /**
+     * Splits the stop_times.txt file in chunks at line boundaries and reads them in parallel on a fork-join pool.
+     * The chunks are memory mapped, so the file of a feed that isn't extracted in a directory is inflated once to a temporary file.
+     *
+     * @param chunkReader reads the rows of a chunk, it's called concurrently for the different chunks
+     * @return the results of the chunks in file order, or null if a chunk ended inside a quoted value, as the following chunks weren't split at a record boundary
+     */
+    static <T> List<T> readStopTimesChunks(GTFSSource source, int parallelism, ReadProgressListener progressListener, StopTimesChunkReader<T> chunkReader) throws IOException {
+        Path filePath;
+        boolean temporaryFile = !(source instanceof DirectoryGTFSSource);
 
-                    if (gtfsIdOsmStopMap.get(thisLineGtfsID) != null) {
+        if (temporaryFile) {
+            filePath = Files.createTempFile("gtfs_stop_times", ".txt");
+            filePath.toFile().deleteOnExit();
 
-                        tripStopsList.addStop(Long.parseLong(thisLineElements[stop_sequence]), gtfsIdOsmStopMap.get(thisLineGtfsID), thisLineElements[arrival_time]);
-                    } else {
-                        tripStopsList.invalidate();
+            try (InputStream inputStream = source.open(GTFSImportSettings.GTFS_STOP_TIMES_FILE_NAME)) {
+                Files.copy(inputStream, filePath, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } else {
+            filePath = ((DirectoryGTFSSource) source).getFilePath(GTFSImportSettings.GTFS_STOP_TIMES_FILE_NAME);
+        }
+
+        try (FileChannel fileChannel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            long fileSize = fileChannel.size();
+
+            //a single memory mapping can't be larger than 2GB
+            long chunkSize = Math.min(Math.max(fileSize / parallelism + 1, MIN_STOP_TIMES_CHUNK_SIZE), Integer.MAX_VALUE - 1);
+
+            List<GTFSCSVReader> readers = new ArrayList<>();
+            List<ChunkProgress> progresses = new ArrayList<>();
+            String[] header = null;
+            AtomicLong bytesRead = new AtomicLong();
+
+            long chunkStart = 0;
+            while (chunkStart < fileSize) {
+                long chunkEnd = Math.min(chunkStart + chunkSize, fileSize);
+                if (chunkEnd < fileSize)
+                    chunkEnd = findNextLineStart(fileChannel, chunkEnd);
+
+                MappedByteBuffer buffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, chunkStart, chunkEnd - chunkStart);
+                Reader bufferReader = new InputStreamReader(new ByteBufferInputStream(buffer), StandardCharsets.UTF_8);
+
+                if (header == null) {
+                    //the first chunk contains the header of the file
+                    readers.add(new GTFSCSVReader(bufferReader, true));
+                    header = readers.get(0).getHeader();
+                } else {
+                    readers.add(new GTFSCSVReader(bufferReader, true, header));
+                }
+                progresses.add(new ChunkProgress(buffer, bytesRead));
+
+                chunkStart = chunkEnd;
+            }
 
-                        if (!missingStops.contains(thisLineGtfsID)) {
-                            missingStops.add(thisLineGtfsID);
-                            System.out.println(ansi().render("@|red Warning: GTFS stop with gtfsId=" + thisLineGtfsID + " not found in OpenStreetMap data! The trip " + thisLineElements[trip_id] + " and maybe others won't be generated! |@"));
+            StopTimesColumns columns = new StopTimesColumns(header == null ? new String[0] : header);
+
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                List<Callable<T>> tasks = new ArrayList<>();
+                for (int i = 0; i < readers.size(); i++) {
+                    GTFSCSVReader reader = readers.get(i);
+                    ChunkProgress progress = progresses.get(i);
+
+                    tasks.add(() -> {
+                        try {
+                            return chunkReader.read(reader, columns, () -> {
+                                synchronized (progressListener) {
+                                    progressListener.onProgress(progress.update(), fileSize);
+                                }
+                            });
+                        } finally {
+                            progress.update();
+                            reader.close();
                         }
-                    }
+                    });
                 }
+
+                List<Future<T>> futures = pool.invokeAll(tasks);
+
+                //this is checked before the errors, as the chunks after a wrong split can fail on the misaligned records
+                for (GTFSCSVReader reader : readers) {
+                    if (reader.hasUnterminatedQuote())
+                        return null;
+                }
+
+                List<T> results = new ArrayList<>(futures.size());
+                for (Future<T> future : futures) {
+                    results.add(future.get());
+                }
+
+                progressListener.onProgress(fileSize, fileSize);
+
+                return results;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Stop times reading interrupted", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof UncheckedIOException)
+                    throw ((UncheckedIOException) e.getCause()).getCause();
+                if (e.getCause() instanceof IOException)
+                    throw (IOException) e.getCause();
+                throw new IllegalStateException("Failed to read the stop times", e.getCause());
+            } finally {
+                pool.shutdown();
             }
+        } finally {
+            if (temporaryFile)
+                Files.deleteIfExists(filePath);
         }
+    }
 
-        System.out.println(ansi().fg(Ansi.Color.GREEN).a("Stop times read completed.").reset());
+    private static GTFSIdMap<OSMStop> toIdMap(GTFSIdDictionary stopIds, Map<String, OSMStop> gtfsIdOsmStopMap) {
+        GTFSIdMap<OSMStop> result = new GTFSIdMap<>(stopIds);
 
-        br.close();
+        for (Map.Entry<String, OSMStop> entry : gtfsIdOsmStopMap.entrySet()) {
+            result.put(stopIds.getOrAdd(entry.getKey()), entry.getValue());
+        }
+
+        return result;
+    }
+
+    /**
+     * Merges the chunks (in file order) into the final stop times result and prints the missing stops warnings
+     */
+    private static ReadStopTimesResult mergeStopTimesChunks(GTFSIdDictionary tripIds, List<StopTimesChunk> chunks) {
+        GTFSIdMap<TripStopsList> tripIdStopListMap = new GTFSIdMap<>(tripIds);
+        Map<String, String> missingStops = new LinkedHashMap<>();
+
+        for (StopTimesChunk chunk : chunks) {
+            for (TripStopsList partialTripStopsList : chunk.tripIdStopListMap.values()) {
+                int tripId = tripIds.getOrAdd(partialTripStopsList.getTripId());
+                TripStopsList tripStopsList = tripIdStopListMap.get(tripId);
+
+                if (tripStopsList == null) {
+                    tripIdStopListMap.put(tripId, partialTripStopsList);
+                } else {
+                    tripStopsList.merge(partialTripStopsList);
+                }
+            }
+
+            for (Map.Entry<String, String> missingStop : chunk.missingStops.entrySet()) {
+                missingStops.putIfAbsent(missingStop.getKey(), missingStop.getValue());
+            }
+        }
+
+        return stopTimesResult(tripIdStopListMap, missingStops);
+    }
+
+    /**
+     * Prints the missing stops warnings and the completion message of the stop times reading
+     *
+     * @param missingStops gtfs id of the missing stop -> trip id of its first occurrence, in reading order
+     */
+    static ReadStopTimesResult stopTimesResult(GTFSIdMap<TripStopsList> tripIdStopListMap, Map<String, String> missingStops) {
+        for (Map.Entry<String, String> missingStop : missingStops.entrySet()) {
+            System.out.println(ansi().render("@|red Warning: GTFS stop with gtfsId=" + missingStop.getKey() + " not found in OpenStreetMap data! The trip " + missingStop.getValue() + " and maybe others won't be generated! |@"));
+        }
+
+        System.out.println(ansi().fg(Ansi.Color.GREEN).a("Stop times read completed.").reset());
 
         if (missingStops.size() > 0) {
             System.out.println(ansi().render("@|red \nError: Some GTFS stops weren't found in OSM data. |@"));
@@ -343,56 +648,92 @@ public class GTFSParser {
             System.out.println(ansi().render("@|red Run the GTFSOSMImport \"stops\" command to create the new stops, upload the new stops to OSM, and then run this command again! |@"));
         }
 
-        readStopTimesResult = new ReadStopTimesResult(tripIdStopListMap, missingStops);
+        return new ReadStopTimesResult(tripIdStopListMap, new HashSet<>(missingStops.keySet()));
+    }
+
+    /**
+     * @return the position of the first byte after the newline found at or after the given position, or the file size
+     */
+    private static long findNextLineStart(FileChannel fileChannel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        long fileSize = fileChannel.size();
+
+        while (position < fileSize) {
+            buffer.clear();
+            int read = fileChannel.read(buffer, position);
+            if (read <= 0)
+                break;
+
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n')
+                    return position + i + 1;
+            }
+            position += read;
+        }
 
-        return readStopTimesResult;
+        return fileSize;
     }
 
-    public static GTFSFeedInfo readFeedInfo(String gtfsFeedInfoPath) throws IOException {
+    public static GTFSFeedInfo readFeedInfo(GTFSSource source) throws IOException {
 
-        if (!Files.isRegularFile(Paths.get(gtfsFeedInfoPath))) return null;
+        if (!source.exists(GTFSImportSettings.GTFS_FEED_INFO_FILE_NAME)) return null;
 
-        GTFSFeedInfo gtfsFeedInfo;
+        GTFSFeedInfo gtfsFeedInfo = null;
 
-        String thisLine;
-        String[] elements;
         int feed_publisher_name = -1, feed_publisher_url = -1, feed_start_date = -1, feed_end_date = -1, feed_version = -1;
 
-        BufferedReader br = new BufferedReader(new FileReader(gtfsFeedInfoPath, StandardCharsets.UTF_8));
-        boolean isFirstLine = true;
-        while ((thisLine = br.readLine()) != null) {
-            if (isFirstLine) {
-                isFirstLine = false;
-                thisLine = thisLine.replace("\"", "");
-                String[] keys = thisLine.split(",");
-                for (int i = 0; i < keys.length; i++) {
-                    switch (keys[i]) {
-                        case "feed_publisher_name" -> feed_publisher_name = i;
-                        case "feed_publisher_url" -> feed_publisher_url = i;
-                        case "feed_start_date" -> feed_start_date = i;
-                        case "feed_end_date" -> feed_end_date = i;
-                        case "feed_version" -> feed_version = i;
+        GTFSCSVReader reader = openReader(source, GTFSImportSettings.GTFS_FEED_INFO_FILE_NAME, true);
 
-                    }
-                }
-            } else {
-                elements = getElementsFromLine(thisLine, true);
-
-                gtfsFeedInfo = new GTFSFeedInfo(elements[feed_publisher_name],
-                        elements[feed_publisher_url],
-                        (feed_start_date > -1) ? elements[feed_start_date] : null,
-                        (feed_end_date > -1) ? elements[feed_end_date] : null,
-                        (feed_version > -1) ? elements[feed_version] : null
-                );
+        String[] keys = reader.getHeader();
+        for (int i = 0; i < keys.length; i++) {
+            switch (keys[i]) {
+                case "feed_publisher_name" -> feed_publisher_name = i;
+                case "feed_publisher_url" -> feed_publisher_url = i;
+                case "feed_start_date" -> feed_start_date = i;
+                case "feed_end_date" -> feed_end_date = i;
+                case "feed_version" -> feed_version = i;
 
-                return gtfsFeedInfo;
             }
         }
-        br.close();
+
+        if (reader.readRecord()) {
+            gtfsFeedInfo = new GTFSFeedInfo(reader.get(feed_publisher_name),
+                    reader.get(feed_publisher_url),
+                    (feed_start_date > -1) ? reader.get(feed_start_date) : null,
+                    (feed_end_date > -1) ? reader.get(feed_end_date) : null,
+                    (feed_version > -1) ? reader.get(feed_version) : null
+            );
+        }
+        reader.close();
+
+        return gtfsFeedInfo;
+    }
+
+    /**
+     * @return the snapshot of the parsed feed, which is created if it doesn't exist yet, or null if the source doesn't support snapshots.
+     * Only the readers of the stop times and of the shapes create it, the commands that read only the other files don't parse the whole feed.
+     */
+    private static GTFSFeedSnapshot getSnapshot(GTFSSource source) throws IOException {
+        if (source instanceof ZipGTFSSource)
+            return ((ZipGTFSSource) source).getSnapshot();
+
+        return null;
+    }
+
+    /**
+     * @return the snapshot of the parsed feed if it has already been created, otherwise the text files are read
+     */
+    private static GTFSFeedSnapshot getExistingSnapshot(GTFSSource source) throws IOException {
+        if (source instanceof ZipGTFSSource)
+            return ((ZipGTFSSource) source).getExistingSnapshot();
 
         return null;
     }
 
+    static GTFSCSVReader openReader(GTFSSource source, String fileName, boolean removeCommasFromValues) throws IOException {
+        return new GTFSCSVReader(new InputStreamReader(source.open(fileName), StandardCharsets.UTF_8), removeCommasFromValues);
+    }
+
     public static Multimap<Route, Trip> groupTrips(Map<String, Route> routes, List<Trip> trips) {
         Collections.sort(trips);
         Multimap<Route, Trip> result = ArrayListMultimap.create();
@@ -410,37 +751,146 @@ public class GTFSParser {
         return result;
     }
 
-    /**
-     * This code uses a regular expression to split the input string by commas that are not inside quotes.
-     * It then iterates through the resulting array, removing the quotes from the elements that are enclosed in quotes, and adding them to the elements list.
-     * If removeCommasFromValues is true, it also removes any commas from the elements before adding them to the list.
-     *
-     * @param thisLine
-     * @param removeCommasFromValues
-     * @return Split line in a vector
+    static class StopTimesColumns {
+        int tripId = -1, stopId = -1, stopSequence = -1, arrivalTime = -1;
+
+        StopTimesColumns(String[] keys) {
+            for (int i = 0; i < keys.length; i++) {
+                switch (keys[i]) {
+                    case "trip_id" -> tripId = i;
+                    case "arrival_time" -> arrivalTime = i;
+                    case "stop_id" -> stopId = i;
+                    case "stop_sequence" -> stopSequence = i;
+                }
+            }
+        }
+    }
+
+    /***
+     * A part of the stop_times.txt file, read into its own partial trips map so that the chunks can be parsed independently
      */
-    private static String[] getElementsFromLine(String thisLine, boolean removeCommasFromValues) {
-        List<String> elements = new ArrayList<>();
+    private static class StopTimesChunk {
+        private final GTFSCSVReader reader;
+        private final StopTimesColumns columns;
+
+        //in the order the trips are first seen, so the trips get their dictionary ids in file order when the chunks are merged
+        private final Map<String, TripStopsList> tripIdStopListMap = new LinkedHashMap<>();
+        //gtfs id of the missing stop -> trip id of its first occurrence in this chunk, in reading order
+        private final Map<String, String> missingStops = new LinkedHashMap<>();
+
+        private StopTimesChunk(GTFSCSVReader reader, StopTimesColumns columns) {
+            this.reader = reader;
+            this.columns = columns;
+        }
 
-        thisLine = thisLine.trim();
+        private void read(GTFSIdDictionary tripIds, GTFSIdMap<OSMStop> osmStopsByGtfsId, IntPredicate tripSelection, Runnable onProgress) throws IOException {
+            GTFSIdDictionary stopIds = osmStopsByGtfsId.getDictionary();
 
-        Pattern pattern = Pattern.compile(",(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)");
-        // pass limit=-1 to pattern.split() to avoid discarding trailing empty fields
-        String[] temp = pattern.split(thisLine, -1);
+            int count = 0;
+            TripStopsList tripStopsList = null;
+            //the trip of the rows being skipped, as it isn't selected
+            String skippedTripId = null;
 
-        for (String element : temp) {
-            if (element.startsWith("\"") && element.endsWith("\"")) {
-                element = element.substring(1, element.length() - 1);
-            }
+            while (reader.readRecord()) {
+                count++;
+
+                if (count % 100000 == 0)
+                    onProgress.run();
+
+                if (!reader.isEmpty(columns.tripId)) {
+                    if (skippedTripId != null && reader.valueEquals(columns.tripId, skippedTripId))
+                        continue;
 
-            if (removeCommasFromValues) {
-                element = element.replace(",", "");
+                    //stop_times.txt is usually grouped by trip_id, so we avoid a map lookup (and a new string) for every stop of the same trip
+                    if (tripStopsList == null || !reader.valueEquals(columns.tripId, tripStopsList.getTripId())) {
+                        String tripId = reader.get(columns.tripId);
+
+                        if (!tripSelection.test(tripIds.get(tripId))) {
+                            skippedTripId = tripId;
+                            tripStopsList = null;
+                            continue;
+                        }
+                        skippedTripId = null;
+
+                        tripStopsList = tripIdStopListMap.get(tripId);
+
+                        if (tripStopsList == null) {
+                            tripStopsList = new TripStopsList(tripId);
+                            tripIdStopListMap.put(tripId, tripStopsList);
+                        }
+                    }
+
+                    OSMStop osmStop = osmStopsByGtfsId.get(stopIds.get(reader.getCharSequence(columns.stopId)));
+
+                    if (osmStop != null) {
+                        tripStopsList.addStop(reader.getLong(columns.stopSequence), osmStop, reader.get(columns.arrivalTime));
+                    } else {
+                        tripStopsList.invalidate();
+                        missingStops.putIfAbsent(reader.get(columns.stopId), tripStopsList.getTripId());
+                    }
+                }
             }
+        }
 
-            elements.add(element);
+    }
+
+    /***
+     * Reads the rows of a chunk of the stop_times.txt file in the parallel reading
+     */
+    @FunctionalInterface
+    interface StopTimesChunkReader<T> {
+        /**
+         * @param onProgress to be called every 100000 rows
+         */
+        T read(GTFSCSVReader reader, StopTimesColumns columns, Runnable onProgress) throws IOException;
+    }
+
+    /***
+     * The bytes read by a chunk of the parallel reading, which are added to the total of all the chunks
+     */
+    private static class ChunkProgress {
+        private final ByteBuffer buffer;
+        private final AtomicLong totalBytesRead;
+        private long bytesReported = 0;
+
+        private ChunkProgress(ByteBuffer buffer, AtomicLong totalBytesRead) {
+            this.buffer = buffer;
+            this.totalBytesRead = totalBytesRead;
         }
 
-        return elements.toArray(new String[0]);
+        /**
+         * Adds the bytes read by the chunk since the last call to the shared counter
+         *
+         * @return the total bytes read so far by all the chunks
+         */
+        private long update() {
+            long position = buffer.position();
+            long total = totalBytesRead.addAndGet(position - bytesReported);
+            bytesReported = position;
+            return total;
+        }
     }
 
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining())
+                return -1;
+
+            int read = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, read);
+            return read;
+        }
+    }
 }
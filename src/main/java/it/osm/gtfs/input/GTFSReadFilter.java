@@ -0,0 +1,147 @@
+/**
+ * Licensed under the GNU General Public License version 3
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.gnu.org/licenses/gpl-3.0.html
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package it.osm.gtfs.input;
+
+import it.osm.gtfs.models.GTFSServiceCalendar;
+import it.osm.gtfs.models.Route;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+
+import static org.fusesource.jansi.Ansi.ansi;
+
+/***
+ * Selects the part of the feed to read: the route predicate is applied while reading routes.txt,
+ * then the trips of the selected routes (and of the services active in the selected dates) and their shapes are found with a scan of trips.txt,
+ * so the parser can skip the rows of stop_times.txt and shapes.txt of the other trips before creating any object for them.
+ * The selection is computed once for the source, the first time it's needed.
+ */
+public class GTFSReadFilter {
+    /**
+     * Reads the whole feed
+     */
+    public static final GTFSReadFilter ALL = new GTFSReadFilter(null, null, null);
+
+    private final Predicate<Route> routeFilter;
+    //the dates the services of the trips must be active in, both included
+    private final LocalDate activeFromDate, activeToDate;
+
+    //the selection, the bits are the ids of the trip and shape dictionaries of the selected source
+    private GTFSSource selectedSource;
+    private BitSet tripIds;
+    private BitSet shapeIds;
+
+    private GTFSReadFilter(Predicate<Route> routeFilter, LocalDate activeFromDate, LocalDate activeToDate) {
+        this.routeFilter = routeFilter;
+        this.activeFromDate = activeFromDate;
+        this.activeToDate = activeToDate;
+    }
+
+    public static GTFSReadFilter forRoutes(Predicate<Route> routeFilter) {
+        return new GTFSReadFilter(routeFilter, null, null);
+    }
+
+    /**
+     * @param routes the route_id or route_short_name values of the routes to read, with null or an empty collection the whole feed is read
+     */
+    public static GTFSReadFilter forSelectedRoutes(Collection<String> routes) {
+        if (routes == null || routes.isEmpty())
+            return ALL;
+
+        Set<String> selectedRoutes = new HashSet<>(routes);
+        return forRoutes(route -> selectedRoutes.contains(route.getId()) || selectedRoutes.contains(route.getShortName()));
+    }
+
+    /**
+     * @return a filter that reads only the routes accepted by both this filter and the predicate
+     */
+    public GTFSReadFilter and(Predicate<Route> otherRouteFilter) {
+        return new GTFSReadFilter(routeFilter == null ? otherRouteFilter : routeFilter.and(otherRouteFilter), activeFromDate, activeToDate);
+    }
+
+    /**
+     * @return a filter that reads only the trips whose service runs in at least one day between the two dates (both included),
+     * according to calendar.txt and calendar_dates.txt. If only one date is given the trips must run in that day,
+     * with no dates this filter is returned.
+     */
+    public GTFSReadFilter activeBetween(LocalDate fromDate, LocalDate toDate) {
+        if (fromDate == null && toDate == null)
+            return this;
+
+        return new GTFSReadFilter(routeFilter, fromDate != null ? fromDate : toDate, toDate != null ? toDate : fromDate);
+    }
+
+    public boolean isAll() {
+        return routeFilter == null && activeFromDate == null;
+    }
+
+    public boolean acceptsRoute(Route route) {
+        return routeFilter == null || routeFilter.test(route);
+    }
+
+    /**
+     * @return a predicate on the ids of the trips in the trip dictionary of the source, which is safe to use from more threads
+     */
+    public IntPredicate getTripSelection(GTFSSource source) throws IOException {
+        if (isAll())
+            return tripId -> true;
+
+        BitSet selectedTripIds = select(source).tripIds;
+        return tripId -> tripId >= 0 && selectedTripIds.get(tripId);
+    }
+
+    /**
+     * @return a predicate on the ids of the shapes in the shape dictionary of the source, which is safe to use from more threads
+     */
+    public IntPredicate getShapeSelection(GTFSSource source) throws IOException {
+        if (isAll())
+            return shapeId -> true;
+
+        BitSet selectedShapeIds = select(source).shapeIds;
+        return shapeId -> shapeId >= 0 && selectedShapeIds.get(shapeId);
+    }
+
+    //computes the selected trips and shapes of the source, if they're not already computed
+    private synchronized GTFSReadFilter select(GTFSSource source) throws IOException {
+        if (selectedSource == source)
+            return this;
+
+        BitSet routeIds = new BitSet();
+
+        for (Map.Entry<String, Route> route : GTFSParser.readRoutes(source, this).entrySet()) {
+            routeIds.set(source.getIdDictionaries().getRouteIds().getOrAdd(route.getKey()));
+        }
+
+        BitSet serviceIds = null;
+        if (activeFromDate != null) {
+            GTFSServiceCalendar calendar = GTFSParser.readCalendar(source);
+
+            if (calendar.isEmpty()) {
+                System.out.println(ansi().render("@|red The GTFS feed has no calendar.txt or calendar_dates.txt, the trips of all the dates will be read! |@"));
+            } else {
+                serviceIds = calendar.getServicesActiveBetween(activeFromDate, activeToDate);
+            }
+        }
+
+        tripIds = new BitSet();
+        shapeIds = new BitSet();
+        GTFSParser.selectTrips(source, routeIds, serviceIds, tripIds, shapeIds);
+
+        selectedSource = source;
+        return this;
+    }
+}
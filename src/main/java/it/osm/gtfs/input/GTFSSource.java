@@ -0,0 +1,48 @@
+/**
+ * Licensed under the GNU General Public License version 3
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.gnu.org/licenses/gpl-3.0.html
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package it.osm.gtfs.input;
+
+import it.osm.gtfs.models.GTFSIdDictionaries;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/***
+ * A GTFS feed that GTFSParser can read the files from (a directory, a zip file or a zip in memory)
+ */
+public interface GTFSSource {
+
+    /**
+     * @param fileName the name of the GTFS file, like stops.txt
+     * @return whether the feed contains the file
+     */
+    boolean exists(String fileName) throws IOException;
+
+    /**
+     * Opens the file for reading, the caller must close the returned stream
+     *
+     * @throws java.io.FileNotFoundException if the feed doesn't contain the file
+     */
+    InputStream open(String fileName) throws IOException;
+
+    /**
+     * @return the uncompressed size in bytes of the file, or -1 if unknown
+     */
+    long size(String fileName) throws IOException;
+
+    /**
+     * @return the dictionaries of the ids of this feed, one for every kind of id, shared by all the files read from this source
+     */
+    GTFSIdDictionaries getIdDictionaries();
+}
@@ -0,0 +1,82 @@
+/**
+ * Licensed under the GNU General Public License version 3
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.gnu.org/licenses/gpl-3.0.html
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package it.osm.gtfs.input;
+
+import it.osm.gtfs.models.GTFSIdDictionaries;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/***
+ * A GTFS feed whose zip file is kept in memory, the entries are inflated while they are parsed
+ */
+public class InMemoryGTFSSource implements GTFSSource {
+    private final byte[] zipData;
+    private final GTFSIdDictionaries idDictionaries = new GTFSIdDictionaries();
+
+    public InMemoryGTFSSource(byte[] zipData) {
+        this.zipData = zipData;
+    }
+
+    @Override
+    public boolean exists(String fileName) throws IOException {
+        try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(zipData))) {
+            return seekEntry(zipInputStream, fileName) != null;
+        }
+    }
+
+    @Override
+    public InputStream open(String fileName) throws IOException {
+        ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(zipData));
+
+        if (seekEntry(zipInputStream, fileName) == null) {
+            zipInputStream.close();
+            throw new FileNotFoundException(fileName + " not found in the in-memory GTFS zip");
+        }
+
+        //the ZipInputStream returns the data of the current entry only
+        return zipInputStream;
+    }
+
+    @Override
+    public long size(String fileName) throws IOException {
+        try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(zipData))) {
+            ZipEntry entry = seekEntry(zipInputStream, fileName);
+            //the size is usually known only after reading the entry when the zip uses data descriptors
+            return (entry == null) ? -1 : entry.getSize();
+        }
+    }
+
+    //moves the stream to the start of the entry data, some feeds have the files inside a folder of the zip
+    private static ZipEntry seekEntry(ZipInputStream zipInputStream, String fileName) throws IOException {
+        ZipEntry entry;
+
+        while ((entry = zipInputStream.getNextEntry()) != null) {
+            if (!entry.isDirectory() && (entry.getName().equals(fileName) || entry.getName().endsWith("/" + fileName))) {
+                return entry;
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public GTFSIdDictionaries getIdDictionaries() {
+        return idDictionaries;
+    }
+}
@@ -0,0 +1,303 @@
+/**
+ * Licensed under the GNU General Public License version 3
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.gnu.org/licenses/gpl-3.0.html
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package it.osm.gtfs.input;
+
+import it.osm.gtfs.models.GTFSIdDictionary;
+import it.osm.gtfs.models.GTFSIdMap;
+import it.osm.gtfs.models.Shape;
+import it.osm.gtfs.utils.GTFSImportSettings;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/***
+ * Reads the shapes of shapes.txt on demand: a first pass over the file records the byte ranges of the rows of every shape_id,
+ * then every shape is parsed only when it's requested, and the last used shapes are kept in a bounded LRU cache.
+ * This way the memory used doesn't depend on the size of the feed.
+ * The shapes of a feed that isn't extracted in a directory are copied to a temporary file during the first pass,
+ * unless the feed has a snapshot, which is used instead of the text file.
+ */
+public class IndexedShapeReader implements Closeable {
+    public static final int DEFAULT_CACHE_SIZE = 100;
+
+    private final GTFSIdDictionary idDictionary;
+    private final GTFSFeedSnapshot snapshot;
+    private Path shapesFilePath;
+    private boolean temporaryFile;
+    private FileChannel fileChannel;
+
+    private String[] header;
+    private int shapeIdColumn = -1, shapePtLatColumn = -1, shapePtLonColumn = -1, shapePtSequenceColumn = -1;
+
+    //shape id -> start and end (exclusive) offsets of its rows, a shape has more ranges only if its rows aren't contiguous in the file
+    private final GTFSIdMap<long[]> shapeRanges;
+    private final List<String> shapeIds = new ArrayList<>();
+
+    private final Map<String, Shape> cache;
+
+    public IndexedShapeReader(GTFSSource source) throws IOException {
+        this(source, DEFAULT_CACHE_SIZE);
+    }
+
+    public IndexedShapeReader(GTFSSource source, int cacheSize) throws IOException {
+        this(source, cacheSize, true);
+    }
+
+    IndexedShapeReader(GTFSSource source, int cacheSize, boolean useSnapshot) throws IOException {
+        this.idDictionary = source.getIdDictionaries().getShapeIds();
+        this.shapeRanges = new GTFSIdMap<>(idDictionary);
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Shape> eldest) {
+                return size() > cacheSize;
+            }
+        };
+
+        this.snapshot = (useSnapshot && source instanceof ZipGTFSSource) ? ((ZipGTFSSource) source).getSnapshot() : null;
+
+        if (snapshot != null)
+            return;
+
+        if (source instanceof DirectoryGTFSSource) {
+            shapesFilePath = ((DirectoryGTFSSource) source).getFilePath(GTFSImportSettings.GTFS_SHAPES_FILE_NAME);
+            temporaryFile = false;
+
+            try (InputStream inputStream = Files.newInputStream(shapesFilePath)) {
+                buildIndex(inputStream, null);
+            }
+        } else {
+            shapesFilePath = Files.createTempFile("gtfs_shapes", ".txt");
+            shapesFilePath.toFile().deleteOnExit();
+            temporaryFile = true;
+
+            try (InputStream inputStream = source.open(GTFSImportSettings.GTFS_SHAPES_FILE_NAME);
+                 OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(shapesFilePath), 64 * 1024)) {
+                buildIndex(inputStream, outputStream);
+            }
+        }
+
+        fileChannel = FileChannel.open(shapesFilePath, StandardOpenOption.READ);
+    }
+
+    /**
+     * @return the shape with the given id, or null if shapes.txt doesn't contain it
+     */
+    public synchronized Shape get(String shapeId) throws IOException {
+        Shape shape = cache.get(shapeId);
+
+        if (shape == null) {
+            if (snapshot != null) {
+                shape = snapshot.getShape(shapeId);
+            } else {
+                long[] ranges = shapeRanges.get(shapeId);
+                if (ranges != null)
+                    shape = readShape(idDictionary.getString(idDictionary.get(shapeId)), ranges);
+            }
+
+            if (shape == null)
+                return null;
+
+            cache.put(shapeId, shape);
+        }
+
+        return shape;
+    }
+
+    /**
+     * @return the number of shapes of the feed
+     */
+    public int size() {
+        return (snapshot != null) ? snapshot.getShapesCount() : shapeRanges.size();
+    }
+
+    /**
+     * @return the ids of the indexed shapes, in the order of shapes.txt
+     */
+    List<String> getShapeIds() {
+        return shapeIds;
+    }
+
+    private Shape readShape(String shapeId, long[] ranges) throws IOException {
+        int length = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            length += (int) (ranges[i + 1] - ranges[i]);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        for (int i = 0; i < ranges.length; i += 2) {
+            long position = ranges[i];
+            while (position < ranges[i + 1]) {
+                buffer.limit(buffer.position() + (int) (ranges[i + 1] - position));
+                int read = fileChannel.read(buffer, position);
+                if (read < 0)
+                    throw new EOFException("Unexpected end of " + shapesFilePath);
+                position += read;
+            }
+        }
+
+        Shape shape = new Shape(shapeId);
+
+        GTFSCSVReader reader = new GTFSCSVReader(new InputStreamReader(new ByteArrayInputStream(buffer.array()), StandardCharsets.UTF_8), true, header);
+        while (reader.readRecord()) {
+            //the rows of the other shapes can't be in the ranges, but the rows with an empty shape_id can
+            if (reader.valueEquals(shapeIdColumn, shapeId)) {
+                shape.pushPoint(reader.getInt(shapePtSequenceColumn), reader.getDouble(shapePtLatColumn), reader.getDouble(shapePtLonColumn));
+            }
+        }
+        reader.close();
+
+        shape.sortPoints();
+        return shape;
+    }
+
+    /**
+     * Scans the bytes of shapes.txt recording the ranges of the rows of every shape, without decoding the rows.
+     * The newlines inside quoted values don't end the row, as in GTFSCSVReader.
+     *
+     * @param copyTo if not null the bytes of the file are also copied to this stream
+     */
+    private void buildIndex(InputStream inputStream, OutputStream copyTo) throws IOException {
+        byte[] readBuffer = new byte[64 * 1024];
+
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        boolean inHeader = true;
+
+        //the bytes of the shape_id of the current row and of the previous row
+        byte[] currentId = new byte[64];
+        int currentIdLength = 0;
+        byte[] previousId = new byte[64];
+        int previousIdLength = 0;
+        int previousShapeId = GTFSIdDictionary.NO_ID;
+
+        long offset = 0;
+        long rowStart = 0;
+        int fieldIndex = 0;
+        boolean quoted = false;
+
+        int read;
+        while ((read = inputStream.read(readBuffer)) >= 0) {
+            if (copyTo != null)
+                copyTo.write(readBuffer, 0, read);
+
+            for (int i = 0; i < read; i++, offset++) {
+                byte b = readBuffer[i];
+
+                if (inHeader) {
+                    if (b == '"')
+                        quoted = !quoted;
+
+                    if (b == '\n' && !quoted) {
+                        readHeader(headerBytes.toString(StandardCharsets.UTF_8));
+                        inHeader = false;
+                        rowStart = offset + 1;
+                    } else {
+                        headerBytes.write(b);
+                    }
+                    continue;
+                }
+
+                if (b == '"') {
+                    quoted = !quoted;
+                } else if (!quoted && b == ',') {
+                    fieldIndex++;
+                } else if (!quoted && b == '\n') {
+                    //end of the row
+                    if (currentIdLength > 0 && !Arrays.equals(currentId, 0, currentIdLength, previousId, 0, previousIdLength)) {
+                        closeRange(previousShapeId, rowStart);
+                        previousShapeId = openRange(new String(currentId, 0, currentIdLength, StandardCharsets.UTF_8), rowStart);
+
+                        byte[] swap = previousId;
+                        previousId = currentId;
+                        previousIdLength = currentIdLength;
+                        currentId = swap;
+                    }
+
+                    currentIdLength = 0;
+                    fieldIndex = 0;
+                    rowStart = offset + 1;
+                } else if (fieldIndex == shapeIdColumn && b != '\r' && b != ',') {
+                    //the commas inside the quoted id are removed, as readShapes does
+                    if (currentIdLength == currentId.length)
+                        currentId = Arrays.copyOf(currentId, currentId.length * 2);
+
+                    currentId[currentIdLength++] = b;
+                }
+            }
+        }
+
+        if (inHeader) {
+            readHeader(headerBytes.toString(StandardCharsets.UTF_8));
+        } else if (currentIdLength > 0 && !Arrays.equals(currentId, 0, currentIdLength, previousId, 0, previousIdLength)) {
+            //the last row of a file without the final newline
+            closeRange(previousShapeId, rowStart);
+            previousShapeId = openRange(new String(currentId, 0, currentIdLength, StandardCharsets.UTF_8), rowStart);
+        }
+
+        closeRange(previousShapeId, offset);
+    }
+
+    private void readHeader(String headerLine) throws IOException {
+        GTFSCSVReader reader = new GTFSCSVReader(new StringReader(headerLine), false);
+        header = reader.getHeader();
+        reader.close();
+
+        for (int i = 0; i < header.length; i++) {
+            switch (header[i]) {
+                case "shape_id" -> shapeIdColumn = i;
+                case "shape_pt_lat" -> shapePtLatColumn = i;
+                case "shape_pt_lon" -> shapePtLonColumn = i;
+                case "shape_pt_sequence" -> shapePtSequenceColumn = i;
+            }
+        }
+    }
+
+    private int openRange(String shapeId, long start) {
+        int id = idDictionary.getOrAdd(shapeId);
+        long[] ranges = shapeRanges.get(id);
+
+        if (ranges == null) {
+            ranges = new long[]{start, -1};
+            shapeIds.add(idDictionary.getString(id));
+        } else {
+            ranges = Arrays.copyOf(ranges, ranges.length + 2);
+            ranges[ranges.length - 2] = start;
+            ranges[ranges.length - 1] = -1;
+        }
+
+        shapeRanges.put(id, ranges);
+        return id;
+    }
+
+    private void closeRange(int shapeId, long end) {
+        if (shapeId != GTFSIdDictionary.NO_ID) {
+            long[] ranges = shapeRanges.get(shapeId);
+            ranges[ranges.length - 1] = end;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (fileChannel != null)
+            fileChannel.close();
+
+        if (temporaryFile)
+            Files.deleteIfExists(shapesFilePath);
+    }
+}
@@ -16,19 +16,17 @@ package it.osm.gtfs.input;
 import it.osm.gtfs.enums.OSMStopType;
 import it.osm.gtfs.enums.RouteType;
 import it.osm.gtfs.enums.WheelchairAccess;
+import it.osm.gtfs.models.OSMIdDictionary;
 import it.osm.gtfs.models.OSMStop;
+import it.osm.gtfs.models.OSMXMLNode;
 import it.osm.gtfs.models.ReadOSMRelationsResult;
 import it.osm.gtfs.models.Relation;
-import it.osm.gtfs.models.Relation.OSMNode;
 import it.osm.gtfs.models.Relation.OSMWay;
 import it.osm.gtfs.utils.GTFSImportSettings;
 import it.osm.gtfs.utils.SharedCliOptions;
 import org.apache.commons.lang3.StringUtils;
 import org.fusesource.jansi.Ansi;
 import org.jxmapviewer.viewer.GeoPosition;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
@@ -36,12 +34,9 @@ import org.xml.sax.XMLReader;
 import org.xml.sax.helpers.DefaultHandler;
 import org.xml.sax.helpers.XMLReaderFactory;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import java.io.File;
-import java.io.FileReader;
-import java.io.IOException;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.*;
 import java.util.*;
 
 import static org.fusesource.jansi.Ansi.ansi;
@@ -51,17 +46,16 @@ public class OSMParser {
     public static List<OSMStop> readOSMStops(String osmStopsFileName, boolean readStopsOfAnyOperator) throws ParserConfigurationException, SAXException, IOException {
         List<OSMStop> osmStopsListOutput = new ArrayList<>();
 
-        File osmStopsFile = new File(osmStopsFileName);
-        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-        DocumentBuilder db = dbf.newDocumentBuilder();
-        Document doc = db.parse(osmStopsFile);
-        doc.getDocumentElement().normalize();
-
-        NodeList nodeList = doc.getElementsByTagName("node");
+        //the nodes are read in a compact model instead of a DOM of the whole file, the output files are written from it
+        StopsParser stopsParser = new StopsParser();
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(osmStopsFileName))) {
+            SAXParserFactory factory = SAXParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.newSAXParser().parse(inputStream, stopsParser);
+        }
 
-        for (int s = 0; s < nodeList.getLength(); s++) {
-            Node fstNode = nodeList.item(s);
-            OSMStop osmStop = new OSMStop(null, null, new GeoPosition(Double.parseDouble(fstNode.getAttributes().getNamedItem("lat").getNodeValue()), Double.parseDouble(fstNode.getAttributes().getNamedItem("lon").getNodeValue())), null, null, null, null);
+        for (OSMXMLNode fstNode : stopsParser.result) {
+            OSMStop osmStop = new OSMStop(null, null, new GeoPosition(Double.parseDouble(fstNode.getAttribute("lat")), Double.parseDouble(fstNode.getAttribute("lon"))), null, null, null, null);
             osmStop.originalXMLNode = fstNode;
 
             //temp variables for tags
@@ -74,64 +68,57 @@ public class OSMParser {
                     station_tag = "",
                     subway_tag = "";
 
-            NodeList att = fstNode.getChildNodes();
-
-            for (int t = 0; t < att.getLength(); t++) {
-                Node attNode = att.item(t);
-
-                if (attNode.getAttributes() != null) {
-                    String key = attNode.getAttributes().getNamedItem("k").getNodeValue();
-                    String value = attNode.getAttributes().getNamedItem("v").getNodeValue();
-
-                    if (StringUtils.containsIgnoreCase(key, "disused")) {
-                        osmStop.setDisused(true);
-                        key = key.replace("disused:", ""); //we remove the disused part from the key name so that we can continue setting the stop's data
-                    }
+            for (int t = 0; t < fstNode.getTagsCount(); t++) {
+                String key = fstNode.getTagKey(t);
+                String value = fstNode.getTagValue(t);
 
+                if (StringUtils.containsIgnoreCase(key, "disused")) {
+                    osmStop.setDisused(true);
+                    key = key.replace("disused:", ""); //we remove the disused part from the key name so that we can continue setting the stop's data
+                }
 
-                    if (key.equalsIgnoreCase("ref"))
-                        osmStop.setCode(value);
 
-                    if (key.equalsIgnoreCase("name"))
-                        osmStop.setName(value);
+                if (key.equalsIgnoreCase("ref"))
+                    osmStop.setCode(value);
 
-                    if (key.equalsIgnoreCase("operator"))
-                        osmStop.setOperator(value);
+                if (key.equalsIgnoreCase("name"))
+                    osmStop.setName(value);
 
-                    if (key.equalsIgnoreCase("gtfs_id"))
-                        osmStop.setGtfsId(value);
+                if (key.equalsIgnoreCase("operator"))
+                    osmStop.setOperator(value);
 
-                    if (key.equalsIgnoreCase("highway"))
-                        highway_tag = value;
+                if (key.equalsIgnoreCase("gtfs_id"))
+                    osmStop.setGtfsId(value);
 
-                    if (key.equalsIgnoreCase("railway"))
-                        railway_tag = value;
+                if (key.equalsIgnoreCase("highway"))
+                    highway_tag = value;
 
-                    if (key.equalsIgnoreCase("public_transport"))
-                        public_transport_tag = value;
+                if (key.equalsIgnoreCase("railway"))
+                    railway_tag = value;
 
-                    if (key.equalsIgnoreCase("train"))
-                        train_tag = value;
+                if (key.equalsIgnoreCase("public_transport"))
+                    public_transport_tag = value;
 
-                    if (key.equalsIgnoreCase("tram"))
-                        tram_tag = value;
+                if (key.equalsIgnoreCase("train"))
+                    train_tag = value;
 
-                    if (key.equalsIgnoreCase("bus"))
-                        bus_tag = value;
+                if (key.equalsIgnoreCase("tram"))
+                    tram_tag = value;
 
-                    if (key.equalsIgnoreCase("station"))
-                        station_tag = value;
+                if (key.equalsIgnoreCase("bus"))
+                    bus_tag = value;
 
-                    if (key.equalsIgnoreCase("subway"))
-                        subway_tag = value;
+                if (key.equalsIgnoreCase("station"))
+                    station_tag = value;
 
-                    if (key.equalsIgnoreCase("wheelchair"))
-                        osmStop.setWheelchairAccessibility(WheelchairAccess.getEnumByOsmValue(value));
+                if (key.equalsIgnoreCase("subway"))
+                    subway_tag = value;
 
-                    if (key.equalsIgnoreCase(GTFSImportSettings.REVISED_KEY) && value.equalsIgnoreCase("yes"))
-                        osmStop.setIsRevised(true);
+                if (key.equalsIgnoreCase("wheelchair"))
+                    osmStop.setWheelchairAccessibility(WheelchairAccess.getEnumByOsmValue(value));
 
-                }
+                if (key.equalsIgnoreCase(GTFSImportSettings.REVISED_KEY) && value.equalsIgnoreCase("yes"))
+                    osmStop.setIsRevised(true);
             }
 
             //osmstop type value setting
@@ -219,34 +206,15 @@ public class OSMParser {
     }
 
     public static ReadOSMRelationsResult readOSMRelations(File file, Map<String, OSMStop> stopsWithOSMIndex, boolean readRelationsOfAnyOperator) throws SAXException, IOException {
-        NodeParser nodeParser;
-        {
+        //the nodes, ways and relations are read in a single pass, the references between them are resolved at the end of the file
+        RelationParser relationParser = new RelationParser(stopsWithOSMIndex, readRelationsOfAnyOperator);
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(file))) {
             XMLReader xr = XMLReaderFactory.createXMLReader();
-            nodeParser = new NodeParser();
-            xr.setContentHandler(nodeParser);
-            xr.setErrorHandler(nodeParser);
-            xr.parse(new InputSource(new FileReader(file)));
-        }
-
-        WayParser wayParser;
-        {
-            XMLReader xr = XMLReaderFactory.createXMLReader();
-            wayParser = new WayParser(nodeParser.result);
-            xr.setContentHandler(wayParser);
-            xr.setErrorHandler(wayParser);
-            xr.parse(new InputSource(new FileReader(file)));
-        }
-
-        RelationParser relationParser;
-        {
-            XMLReader xr = XMLReaderFactory.createXMLReader();
-            relationParser = new RelationParser(stopsWithOSMIndex, wayParser.result, readRelationsOfAnyOperator);
             xr.setContentHandler(relationParser);
             xr.setErrorHandler(relationParser);
-            xr.parse(new InputSource(new FileReader(file)));
+            xr.parse(new InputSource(inputStream));
         }
 
-
         if (relationParser.missingNodes.size() > 0 || relationParser.failedRelations.size() > 0) {
             List<String> failedRelsIds = new ArrayList<>();
 
@@ -261,65 +229,65 @@ public class OSMParser {
         return new ReadOSMRelationsResult(relationParser.validRelations, relationParser.failedRelations, relationParser.missingNodes);
     }
 
-    private static class NodeParser extends DefaultHandler {
-        private final Map<Long, OSMNode> result = new HashMap<>();
-
-        @Override
-        public void startElement(String uri, String localName, String qName,
-                                 Attributes attributes) {
-            if (localName.equals("node")) {
-
-                OSMNode osmNode = new OSMNode(new GeoPosition(Double.parseDouble(attributes.getValue("lat")),
-                        Double.parseDouble(attributes.getValue("lon"))), Long.parseLong(attributes.getValue("id")), null);
-
-                result.put(Long.parseLong(attributes.getValue("id")), osmNode);
-
-            }
-        }
-    }
-
-    private static class WayParser extends DefaultHandler {
-        Map<Long, OSMNode> nodes;
+    private static class StopsParser extends DefaultHandler {
+        private final List<OSMXMLNode> result = new ArrayList<>();
 
-        Map<Long, OSMWay> result = new HashMap<>();
-        OSMWay currentWay;
+        //the tag keys and attribute names are repeated in every node, so only one string is kept for each of them
+        private final Map<String, String> namesPool = new HashMap<>();
 
-        private WayParser(Map<Long, OSMNode> nodes) {
-            super();
-            this.nodes = nodes;
-        }
+        private OSMXMLNode currentNode;
 
         @Override
         public void startElement(String uri, String localName, String qName,
                                  Attributes attributes) {
+            if (localName.equals("node")) {
+                currentNode = new OSMXMLNode();
 
-            if (localName.equals("way")) {
-                currentWay = new OSMWay(Long.parseLong(attributes.getValue("id")));
-
-            } else if (currentWay != null && localName.equals("nd")) { //aggiungiamo all'oggetto way tutti i nodi che la compongono
-                currentWay.nodes.add(nodes.get(Long.parseLong(attributes.getValue("ref"))));
-
-            } else if (currentWay != null && localName.equals("tag")) {
-
-                String key = attributes.getValue("k");
-                String value = attributes.getValue("v");
+                for (int i = 0; i < attributes.getLength(); i++) {
+                    currentNode.setAttribute(pooled(attributes.getLocalName(i)), attributes.getValue(i));
+                }
 
-                //we don't need to parse any way tag values/attributes at the moment
+            } else if (currentNode != null && localName.equals("tag")) {
+                currentNode.addTag(pooled(attributes.getValue("k")), attributes.getValue("v"));
             }
         }
 
         @Override
         public void endElement(String uri, String localName, String qName) {
-            if (localName.equals("way")) {
-                result.put(currentWay.getId(), currentWay);
-                currentWay = null;
+            if (localName.equals("node")) {
+                currentNode.trimToSize();
+                result.add(currentNode);
+                currentNode = null;
             }
         }
+
+        private String pooled(String name) {
+            String pooledName = namesPool.putIfAbsent(name, name);
+            return (pooledName == null) ? name : pooledName;
+        }
     }
 
     private static class RelationParser extends DefaultHandler {
         private final Map<String, OSMStop> stopsWithOSMIndex;
-        private final Map<Long, OSMWay> ways;
+
+        //the coordinates of the nodes in fixed point, at the index of the node id in the dictionary
+        private final OSMIdDictionary nodeIds = new OSMIdDictionary();
+        private int[] nodeLatitudes = new int[1024];
+        private int[] nodeLongitudes = new int[1024];
+
+        //the ways at the index of the way id in the dictionary
+        private final OSMIdDictionary wayIds = new OSMIdDictionary();
+        private final List<OSMWay> ways = new ArrayList<>();
+
+        //the ways of the relations, resolved in endDocument() as they can come before the ways in the file, like the nodes of the ways
+        private final Map<Relation, long[]> relationWayRefs = new HashMap<>();
+
+        private long currentWayId;
+        private boolean inWay = false;
+
+        //the refs of the current way or relation, they're copied to an array of the right size at its end
+        private long[] refsBuffer = new long[256];
+        private int refsCount = 0;
 
         private final List<Relation> validRelations = new ArrayList<>();
         private final List<Relation> failedRelations = new ArrayList<>();
@@ -335,10 +303,9 @@ public class OSMParser {
         private long seq = 1;
         private boolean failed = false;
 
-        private RelationParser(Map<String, OSMStop> stopsWithOSMIndex, Map<Long, OSMWay> ways, boolean readRelationsOfAnyOperator) {
+        private RelationParser(Map<String, OSMStop> stopsWithOSMIndex, boolean readRelationsOfAnyOperator) {
             super();
             this.stopsWithOSMIndex = stopsWithOSMIndex;
-            this.ways = ways;
             this.readRelationsOfAnyOperator = readRelationsOfAnyOperator;
         }
 
@@ -346,7 +313,26 @@ public class OSMParser {
         public void startElement(String uri, String localName, String qName,
                                  Attributes attributes) {
 
-            if (localName.equals("relation")) {
+            if (localName.equals("node")) {
+                int node = nodeIds.getOrAdd(Long.parseLong(attributes.getValue("id")));
+
+                if (node == nodeLatitudes.length) {
+                    nodeLatitudes = Arrays.copyOf(nodeLatitudes, node * 2);
+                    nodeLongitudes = Arrays.copyOf(nodeLongitudes, node * 2);
+                }
+
+                nodeLatitudes[node] = OSMWay.toFixedPoint(Double.parseDouble(attributes.getValue("lat")));
+                nodeLongitudes[node] = OSMWay.toFixedPoint(Double.parseDouble(attributes.getValue("lon")));
+
+            } else if (localName.equals("way")) {
+                currentWayId = Long.parseLong(attributes.getValue("id"));
+                inWay = true;
+                refsCount = 0;
+
+            } else if (inWay && localName.equals("nd")) { //aggiungiamo all'oggetto way tutti i nodi che la compongono
+                addRef(Long.parseLong(attributes.getValue("ref")));
+
+            } else if (localName.equals("relation")) {
                 currentRelation = new Relation(attributes.getValue("id"));
                 currentRelation.setVersion(Integer.parseInt(attributes.getValue("version")));
                 seq = 1;
@@ -356,6 +342,7 @@ public class OSMParser {
                 type_tag = "";
 
                 tempMemberRefRoleMap = new HashMap<>();
+                refsCount = 0;
 
             } else if (currentRelation != null && localName.equals("member")) {
                 String memberType = attributes.getValue("type");
@@ -366,8 +353,7 @@ public class OSMParser {
                     tempMemberRefRoleMap.put(memberRef, memberRole);
 
                 } else if (memberType.equals("way")) {
-                    OSMWay member = ways.get(Long.parseLong(attributes.getValue("ref")));
-                    currentRelation.getWayMembers().add(member);
+                    addRef(Long.parseLong(attributes.getValue("ref")));
 
                 } else { //TODO: supportare i membri "relation", ovvero le master_relation solitamente
                     System.out.println(ansi().render("@|red Warning: Relation " + currentRelation.getId() + " has a member (id: " + memberRef + ") of an unsupported type \"" + memberType + "\"" + "|@"));
@@ -401,63 +387,106 @@ public class OSMParser {
             }
         }
 
-        //here we check the relation data we gathered during the parsing
         @Override
         public void endElement(String uri, String localName, String qName) {
-            if (localName.equals("relation")) {
-
-                if (!type_tag.equalsIgnoreCase("route")) {
-                    System.out.println(ansi().fg(Ansi.Color.YELLOW).a("Skipping OSM relation " + currentRelation.getId() + " as its type tag (" + type_tag + ") is not a route.").reset());
+            if (localName.equals("way")) {
+                int way = wayIds.getOrAdd(currentWayId);
+                OSMWay osmWay = new OSMWay(currentWayId, Arrays.copyOf(refsBuffer, refsCount));
 
-                    return;
+                if (way == ways.size()) {
+                    ways.add(osmWay);
+                } else {
+                    ways.set(way, osmWay);
                 }
+                inWay = false;
 
-                //if the current osm relation has a different operator tag value than the one specified in the properties we skip it - but we keep the stops with a null operator as they could be of our operator
-                if (!readRelationsOfAnyOperator && currentRelation.getOperator() != null && !StringUtils.containsIgnoreCase(currentRelation.getOperator(), GTFSImportSettings.getInstance().getOperator())) {
+            } else if (localName.equals("relation")) {
+                checkCurrentRelation();
+                currentRelation = null;
+            }
+        }
 
-                    System.out.println(ansi().fg(Ansi.Color.YELLOW).a("Skipping OSM relation " + currentRelation.getId() + " as its operator tag value (" + currentRelation.getOperator() + ") is different than the one specified in the properties file.").reset());
+        @Override
+        public void endDocument() {
+            for (OSMWay osmWay : ways) {
+                for (int i = 0; i < osmWay.getNodesCount(); i++) {
+                    int node = nodeIds.get(osmWay.getNodeId(i));
 
-                    return;
+                    if (node != OSMIdDictionary.NO_ID)
+                        osmWay.setNodeCoordinates(i, nodeLatitudes[node], nodeLongitudes[node]);
                 }
+            }
 
-                //members check
-                for (var entry : tempMemberRefRoleMap.entrySet()) {
-                    var tempMemberRole = entry.getValue();
-                    var tempMemberRef = entry.getKey();
+            for (var entry : relationWayRefs.entrySet()) {
+                for (long wayRef : entry.getValue()) {
+                    int way = wayIds.get(wayRef);
+                    entry.getKey().getWayMembers().add((way == OSMIdDictionary.NO_ID) ? null : ways.get(way));
+                }
+            }
+        }
 
-                    //array with the supported roles
-                    String[] supportedRoles = new String[]{"stop", "platform", "stop_exit_only", "stop_entry_only", "platform_exit_only", "platform_entry_only"};
+        private void addRef(long ref) {
+            if (refsCount == refsBuffer.length)
+                refsBuffer = Arrays.copyOf(refsBuffer, refsCount * 2);
 
-                    if (Arrays.asList(supportedRoles).contains(tempMemberRole) ) {
-                        OSMStop osmStop = stopsWithOSMIndex.get(tempMemberRef);
+            refsBuffer[refsCount++] = ref;
+        }
 
-                        if (osmStop == null) {
-                            System.out.println(ansi().render("@|yellow Warning: Node " + tempMemberRef + " not found in internal stops array/map. Probably this isn't a valid stop anymore but is still attached to the relation " + currentRelation.getId() + ". Better checking it out. |@"));
-                            missingNodes.add(tempMemberRef);
-                            failed = true;
-                        }
-                        currentRelation.pushPoint(seq++, osmStop);
+        //here we check the relation data we gathered during the parsing
+        private void checkCurrentRelation() {
+            if (!type_tag.equalsIgnoreCase("route")) {
+                System.out.println(ansi().fg(Ansi.Color.YELLOW).a("Skipping OSM relation " + currentRelation.getId() + " as its type tag (" + type_tag + ") is not a route.").reset());
 
-                    } else {
-                        System.out.println(ansi().render("@|red Warning: Relation " + currentRelation.getId() + " has a member node with an unsupported role \"" + tempMemberRole + "\", node ref/Id = " + tempMemberRef + "|@"));
-                    }
-                }
+                return;
+            }
 
-                //route tag
-                try {
-                    currentRelation.setRouteType(RouteType.getEnumByOsmValue(route_tag));
-                } catch (IllegalArgumentException e) {
-                    e.printStackTrace();
-                    failed = true;
-                }
+            //if the current osm relation has a different operator tag value than the one specified in the properties we skip it - but we keep the stops with a null operator as they could be of our operator
+            if (!readRelationsOfAnyOperator && currentRelation.getOperator() != null && !StringUtils.containsIgnoreCase(currentRelation.getOperator(), GTFSImportSettings.getInstance().getOperator())) {
+
+                System.out.println(ansi().fg(Ansi.Color.YELLOW).a("Skipping OSM relation " + currentRelation.getId() + " as its operator tag value (" + currentRelation.getOperator() + ") is different than the one specified in the properties file.").reset());
+
+                return;
+            }
+
+            //members check
+            for (var entry : tempMemberRefRoleMap.entrySet()) {
+                var tempMemberRole = entry.getValue();
+                var tempMemberRef = entry.getKey();
+
+                //array with the supported roles
+                String[] supportedRoles = new String[]{"stop", "platform", "stop_exit_only", "stop_entry_only", "platform_exit_only", "platform_entry_only"};
+
+                if (Arrays.asList(supportedRoles).contains(tempMemberRole) ) {
+                    OSMStop osmStop = stopsWithOSMIndex.get(tempMemberRef);
+
+                    if (osmStop == null) {
+                        System.out.println(ansi().render("@|yellow Warning: Node " + tempMemberRef + " not found in internal stops array/map. Probably this isn't a valid stop anymore but is still attached to the relation " + currentRelation.getId() + ". Better checking it out. |@"));
+                        missingNodes.add(tempMemberRef);
+                        failed = true;
+                    }
+                    currentRelation.pushPoint(seq++, osmStop);
 
-                if (!failed) {
-                    validRelations.add(currentRelation);
                 } else {
-                    failedRelations.add(currentRelation);
-                    System.out.println(ansi().render("@|red OSMParser: Relation " + currentRelation.getId() + " couldn't be parsed because of invalid member nodes. [" + currentRelation.getName() + "]" + "|@"));
+                    System.out.println(ansi().render("@|red Warning: Relation " + currentRelation.getId() + " has a member node with an unsupported role \"" + tempMemberRole + "\", node ref/Id = " + tempMemberRef + "|@"));
                 }
             }
+
+            //route tag
+            try {
+                currentRelation.setRouteType(RouteType.getEnumByOsmValue(route_tag));
+            } catch (IllegalArgumentException e) {
+                e.printStackTrace();
+                failed = true;
+            }
+
+            relationWayRefs.put(currentRelation, Arrays.copyOf(refsBuffer, refsCount));
+
+            if (!failed) {
+                validRelations.add(currentRelation);
+            } else {
+                failedRelations.add(currentRelation);
+                System.out.println(ansi().render("@|red OSMParser: Relation " + currentRelation.getId() + " couldn't be parsed because of invalid member nodes. [" + currentRelation.getName() + "]" + "|@"));
+            }
         }
     }
 }
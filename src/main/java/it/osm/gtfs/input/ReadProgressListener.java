@@ -0,0 +1,45 @@
+/**
+ * Licensed under the GNU General Public License version 3
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.gnu.org/licenses/gpl-3.0.html
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package it.osm.gtfs.input;
+
+import org.fusesource.jansi.Ansi;
+
+import static org.fusesource.jansi.Ansi.ansi;
+
+/***
+ * Receives the reading progress of a GTFS file, based on the bytes read so far and the size of the file
+ */
+@FunctionalInterface
+public interface ReadProgressListener {
+
+    ReadProgressListener NONE = (bytesRead, totalBytes) -> {};
+
+    void onProgress(long bytesRead, long totalBytes);
+
+    /**
+     * @return a listener that prints the progress percentage in the console
+     */
+    static ReadProgressListener console(String message) {
+        return (bytesRead, totalBytes) -> {
+            //the size of the files read from a zip in memory can be unknown
+            if (totalBytes < 0) {
+                System.out.println(ansi().fg(Ansi.Color.YELLOW).a(message).reset().a(bytesRead / 1024 + " KB"));
+                return;
+            }
+
+            long percentage = (totalBytes > 0) ? Math.min(100, bytesRead * 100 / totalBytes) : 100;
+            System.out.println(ansi().fg(Ansi.Color.YELLOW).a(message).reset().a(percentage + "% (" + bytesRead / 1024 + "/" + totalBytes / 1024 + " KB)"));
+        };
+    }
+}
@@ -0,0 +1,155 @@
+/**
+ * Licensed under the GNU General Public License version 3
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.gnu.org/licenses/gpl-3.0.html
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package it.osm.gtfs.input;
+
+import it.osm.gtfs.models.GTFSIdDictionaries;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/***
+ * A GTFS feed read directly from a local zip file, the entries are inflated while they are parsed without extracting them to disk
+ */
+public class ZipGTFSSource implements GTFSSource {
+    private final File zipFile;
+    private final GTFSIdDictionaries idDictionaries = new GTFSIdDictionaries();
+
+    private final Path snapshotsDirectory;
+    private final String pluginClassName;
+    private Path snapshotPath;
+    private GTFSFeedSnapshot snapshot;
+    //set when the existing snapshot has been looked for, so the snapshots directory isn't checked again for every file
+    private boolean existingSnapshotChecked;
+    //set when the snapshot couldn't be created, so it's not created again for every file
+    private boolean snapshotUnavailable;
+
+    public ZipGTFSSource(File zipFile) {
+        this(zipFile, null, null);
+    }
+
+    /**
+     * @param snapshotsDirectory where the snapshot of the parsed feed is stored, it's created when the stop times or the shapes are read
+     *                           and then the parser reads the snapshot instead of the text files
+     * @param pluginClassName    the class of the plugin used to parse the feed, which is part of the key of the snapshot
+     */
+    public ZipGTFSSource(File zipFile, Path snapshotsDirectory, String pluginClassName) {
+        this.zipFile = zipFile;
+        this.snapshotsDirectory = snapshotsDirectory;
+        this.pluginClassName = pluginClassName;
+    }
+
+    public File getZipFile() {
+        return zipFile;
+    }
+
+    @Override
+    public boolean exists(String fileName) throws IOException {
+        try (ZipFile zip = new ZipFile(zipFile)) {
+            return findEntry(zip, fileName) != null;
+        }
+    }
+
+    @Override
+    public InputStream open(String fileName) throws IOException {
+        ZipFile zip = new ZipFile(zipFile);
+        ZipEntry entry = findEntry(zip, fileName);
+
+        if (entry == null) {
+            zip.close();
+            throw new FileNotFoundException(fileName + " not found in " + zipFile);
+        }
+
+        //the zip file gets closed together with the entry stream
+        return new FilterInputStream(zip.getInputStream(entry)) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    zip.close();
+                }
+            }
+        };
+    }
+
+    @Override
+    public long size(String fileName) throws IOException {
+        try (ZipFile zip = new ZipFile(zipFile)) {
+            ZipEntry entry = findEntry(zip, fileName);
+            return (entry == null) ? -1 : entry.getSize();
+        }
+    }
+
+    //some feeds have the files inside a folder of the zip
+    static ZipEntry findEntry(ZipFile zip, String fileName) {
+        ZipEntry entry = zip.getEntry(fileName);
+
+        if (entry == null) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry current = entries.nextElement();
+                if (!current.isDirectory() && current.getName().endsWith("/" + fileName)) {
+                    return current;
+                }
+            }
+        }
+
+        return entry;
+    }
+
+    /**
+     * @return the snapshot of the feed, created the first time it's requested, or null if the snapshots are disabled for this source or it couldn't be created
+     */
+    public synchronized GTFSFeedSnapshot getSnapshot() throws IOException {
+        if (snapshot == null && snapshotsDirectory != null && !snapshotUnavailable) {
+            snapshot = GTFSFeedSnapshot.loadOrCreate(this, getSnapshotPath());
+            snapshotUnavailable = (snapshot == null);
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * @return the snapshot of the feed if it has already been created (by a previous command or by a reader of this source), null otherwise
+     */
+    public synchronized GTFSFeedSnapshot getExistingSnapshot() throws IOException {
+        if (snapshot == null && snapshotsDirectory != null && !existingSnapshotChecked) {
+            snapshot = GTFSFeedSnapshot.loadExisting(this, getSnapshotPath());
+            existingSnapshotChecked = true;
+        }
+
+        return snapshot;
+    }
+
+    //the name of the snapshot contains the hash of the zip file, which is computed once
+    private Path getSnapshotPath() throws IOException {
+        if (snapshotPath == null)
+            snapshotPath = GTFSFeedSnapshot.getSnapshotPath(this, snapshotsDirectory, pluginClassName);
+
+        return snapshotPath;
+    }
+
+    @Override
+    public GTFSIdDictionaries getIdDictionaries() {
+        return idDictionaries;
+    }
+
+    @Override
+    public String toString() {
+        return zipFile.toString();
+    }
+}
@@ -16,6 +16,8 @@ package it.osm.gtfs.models;
 import it.osm.gtfs.output.IElementCreator;
 import org.w3c.dom.Element;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 import java.util.Collection;
 
 public class BoundingBox {
@@ -55,8 +57,13 @@ public class BoundingBox {
         return minLon + "," + minLat + "," + maxLon + "," + maxLat; //questo è per la nuova api Overpass QL
     }
 
-    public String getXMLTag() {
-        return "<bounds minlat='" + minLat + "' minlon='" + minLon + "' maxlat='" + maxLat + "' maxlon='" + maxLon + "' origin='GTFSOSMImport' />";
+    public void writeXMLTag(XMLStreamWriter writer) throws XMLStreamException {
+        writer.writeEmptyElement("bounds");
+        writer.writeAttribute("minlat", minLat.toString());
+        writer.writeAttribute("minlon", minLon.toString());
+        writer.writeAttribute("maxlat", maxLat.toString());
+        writer.writeAttribute("maxlon", maxLon.toString());
+        writer.writeAttribute("origin", "GTFSOSMImport");
     }
 
     public Element getXMLTag(IElementCreator document) {
@@ -0,0 +1,46 @@
+/**
+ * Licensed under the GNU General Public License version 3
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.gnu.org/licenses/gpl-3.0.html
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package it.osm.gtfs.models;
+
+/***
+ * The dictionaries of the ids of a feed, one for every kind of id, so the GTFSIdMaps and the bitsets keyed by an id
+ * are sized only to the ids of their kind and not to all the ids of the feed
+ */
+public class GTFSIdDictionaries {
+    private final GTFSIdDictionary tripIds = new GTFSIdDictionary();
+    private final GTFSIdDictionary stopIds = new GTFSIdDictionary();
+    private final GTFSIdDictionary shapeIds = new GTFSIdDictionary();
+    private final GTFSIdDictionary routeIds = new GTFSIdDictionary();
+    private final GTFSIdDictionary serviceIds = new GTFSIdDictionary();
+
+    public GTFSIdDictionary getTripIds() {
+        return tripIds;
+    }
+
+    public GTFSIdDictionary getStopIds() {
+        return stopIds;
+    }
+
+    public GTFSIdDictionary getShapeIds() {
+        return shapeIds;
+    }
+
+    public GTFSIdDictionary getRouteIds() {
+        return routeIds;
+    }
+
+    public GTFSIdDictionary getServiceIds() {
+        return serviceIds;
+    }
+}
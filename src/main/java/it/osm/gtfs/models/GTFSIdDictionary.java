@@ -0,0 +1,139 @@
+/**
+ * Licensed under the GNU General Public License version 3
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.gnu.org/licenses/gpl-3.0.html
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package it.osm.gtfs.models;
+
+import java.util.Arrays;
+
+/***
+ * Feed-scoped dictionary of one kind of GTFS identifiers (trip_id, stop_id, shape_id...), every distinct id gets a dense int
+ * the first time it's seen and a single canonical String instance shared by all the models of the feed.
+ * The lookups take a CharSequence, so the parser can search the ids without creating a new String for every row.
+ * The dictionary is not thread safe: concurrent lookups are fine only while nobody is adding new ids.
+ */
+public class GTFSIdDictionary {
+    public static final int NO_ID = -1;
+
+    private String[] ids = new String[1024];
+    private int[] idHashes = new int[1024];
+    private int size = 0;
+
+    //open addressing hash table of the ids, every slot contains the id + 1 (0 is an empty slot)
+    private int[] table = new int[2048];
+
+    /**
+     * @return the int of the id, adding the id to the dictionary if it's not present yet
+     */
+    public int getOrAdd(CharSequence id) {
+        int hash = hash(id);
+        int slot = findSlot(id, hash);
+
+        if (table[slot] != 0)
+            return table[slot] - 1;
+
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+            idHashes = Arrays.copyOf(idHashes, size * 2);
+        }
+
+        int newId = size++;
+        ids[newId] = id.toString();
+        idHashes[newId] = hash;
+        table[slot] = newId + 1;
+
+        //we keep the load factor of the table under 0.5
+        if (size * 2 > table.length)
+            rehash();
+
+        return newId;
+    }
+
+    /**
+     * @return the int of the id, or NO_ID if the id is not in the dictionary
+     */
+    public int get(CharSequence id) {
+        return table[findSlot(id, hash(id))] - 1;
+    }
+
+    /**
+     * @return the canonical String instance of the id
+     */
+    public String getString(int id) {
+        return ids[id];
+    }
+
+    /**
+     * @return the canonical String instance of the id, adding it to the dictionary if it's not present yet
+     */
+    public String intern(CharSequence id) {
+        return ids[getOrAdd(id)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int findSlot(CharSequence id, int hash) {
+        int mask = table.length - 1;
+        int slot = mix(hash) & mask;
+
+        while (table[slot] != 0) {
+            int current = table[slot] - 1;
+            if (idHashes[current] == hash && contentEquals(ids[current], id))
+                return slot;
+
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+
+        for (int i = 0; i < size; i++) {
+            int slot = mix(idHashes[i]) & mask;
+            while (table[slot] != 0)
+                slot = (slot + 1) & mask;
+
+            table[slot] = i + 1;
+        }
+    }
+
+    //same hash of String.hashCode(), computed on any CharSequence
+    private static int hash(CharSequence id) {
+        int hash = 0;
+        for (int i = 0; i < id.length(); i++) {
+            hash = 31 * hash + id.charAt(i);
+        }
+        return hash;
+    }
+
+    //spreads the bits of the hash, as the ids often differ only in the last characters
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean contentEquals(String string, CharSequence id) {
+        if (string.length() != id.length())
+            return false;
+
+        for (int i = 0; i < string.length(); i++) {
+            if (string.charAt(i) != id.charAt(i))
+                return false;
+        }
+        return true;
+    }
+}
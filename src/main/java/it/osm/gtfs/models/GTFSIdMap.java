@@ -0,0 +1,81 @@
+/**
+ * Licensed under the GNU General Public License version 3
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.gnu.org/licenses/gpl-3.0.html
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package it.osm.gtfs.models;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/***
+ * Map of the GTFS elements keyed by the int of their id in the GTFSIdDictionary of their kind of id, the values are kept in an array indexed by the id
+ */
+public class GTFSIdMap<V> {
+    private final GTFSIdDictionary dictionary;
+    private Object[] values = new Object[0];
+    private int count = 0;
+
+    public GTFSIdMap(GTFSIdDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    public GTFSIdDictionary getDictionary() {
+        return dictionary;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int id) {
+        if (id < 0 || id >= values.length)
+            return null;
+
+        return (V) values[id];
+    }
+
+    public V get(String id) {
+        return get(dictionary.get(id));
+    }
+
+    public void put(int id, V value) {
+        if (id >= values.length)
+            values = Arrays.copyOf(values, Math.max(id + 1, Math.max(dictionary.size(), values.length * 2)));
+
+        if (values[id] == null && value != null)
+            count++;
+        else if (values[id] != null && value == null)
+            count--;
+
+        values[id] = value;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * @return the values in the order of their ids, which is the order they were first seen in the feed
+     */
+    @SuppressWarnings("unchecked")
+    public Collection<V> values() {
+        List<V> result = new ArrayList<>(count);
+        for (Object value : values) {
+            if (value != null)
+                result.add((V) value);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * Licensed under the GNU General Public License version 3
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.gnu.org/licenses/gpl-3.0.html
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package it.osm.gtfs.models;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.BitSet;
+
+/***
+ * Service calendar of the feed, built from calendar.txt and calendar_dates.txt.
+ * Every service id of the service dictionary of the feed has a bitset of the days it runs, where the bit i is the day firstDay + i (in epoch days),
+ * so a service that runs for a year takes about 48 bytes.
+ */
+public class GTFSServiceCalendar {
+    private final GTFSIdMap<ServiceDays> services;
+
+    public GTFSServiceCalendar(GTFSIdDictionary dictionary) {
+        this.services = new GTFSIdMap<>(dictionary);
+    }
+
+    /**
+     * Adds the days of a calendar.txt row
+     *
+     * @param weekdays the days of the week the service runs, from monday (0) to sunday (6)
+     */
+    public void addWeeklyService(int serviceId, boolean[] weekdays, LocalDate startDate, LocalDate endDate) {
+        ServiceDays serviceDays = getOrCreate(serviceId);
+
+        for (LocalDate date = startDate; !date.isAfter(endDate); date = date.plusDays(1)) {
+            if (weekdays[date.getDayOfWeek().getValue() - DayOfWeek.MONDAY.getValue()])
+                serviceDays.set(date.toEpochDay(), true);
+        }
+    }
+
+    /**
+     * Applies a calendar_dates.txt row, it must be added after the calendar.txt rows as it overrides them
+     *
+     * @param added true if the service has been added for the date (exception_type 1), false if it has been removed (exception_type 2)
+     */
+    public void addException(int serviceId, LocalDate date, boolean added) {
+        ServiceDays serviceDays = added ? getOrCreate(serviceId) : services.get(serviceId);
+
+        if (serviceDays != null)
+            serviceDays.set(date.toEpochDay(), added);
+    }
+
+    public boolean isEmpty() {
+        return services.isEmpty();
+    }
+
+    public boolean isActive(int serviceId, LocalDate date) {
+        return isActiveBetween(serviceId, date, date);
+    }
+
+    /**
+     * @return true if the service runs in at least one day between the two dates (both included)
+     */
+    public boolean isActiveBetween(int serviceId, LocalDate fromDate, LocalDate toDate) {
+        ServiceDays serviceDays = services.get(serviceId);
+        return serviceDays != null && serviceDays.anyBetween(fromDate.toEpochDay(), toDate.toEpochDay());
+    }
+
+    /**
+     * @return the ids of the services that run in at least one day between the two dates (both included)
+     */
+    public BitSet getServicesActiveBetween(LocalDate fromDate, LocalDate toDate) {
+        BitSet result = new BitSet();
+        int dictionarySize = services.getDictionary().size();
+
+        for (int serviceId = 0; serviceId < dictionarySize; serviceId++) {
+            if (isActiveBetween(serviceId, fromDate, toDate))
+                result.set(serviceId);
+        }
+        return result;
+    }
+
+    private ServiceDays getOrCreate(int serviceId) {
+        ServiceDays serviceDays = services.get(serviceId);
+        if (serviceDays == null) {
+            serviceDays = new ServiceDays();
+            services.put(serviceId, serviceDays);
+        }
+        return serviceDays;
+    }
+
+    private static class ServiceDays {
+        private long firstDay = Long.MIN_VALUE;
+        private BitSet days = new BitSet();
+
+        private void set(long epochDay, boolean active) {
+            if (firstDay == Long.MIN_VALUE) {
+                firstDay = epochDay;
+            } else if (epochDay < firstDay) {
+                if (!active)
+                    return;
+
+                //a day before the first one, the bits are moved to start from the new first day
+                BitSet shifted = new BitSet();
+                int shift = Math.toIntExact(firstDay - epochDay);
+                for (int i = days.nextSetBit(0); i >= 0; i = days.nextSetBit(i + 1)) {
+                    shifted.set(i + shift);
+                }
+                days = shifted;
+                firstDay = epochDay;
+            }
+
+            days.set(Math.toIntExact(epochDay - firstDay), active);
+        }
+
+        private boolean anyBetween(long fromEpochDay, long toEpochDay) {
+            if (firstDay == Long.MIN_VALUE)
+                return false;
+
+            long from = Math.max(fromEpochDay - firstDay, 0);
+            long to = toEpochDay - firstDay;
+
+            if (to < from || from >= days.length())
+                return false;
+
+            int next = days.nextSetBit((int) from);
+            return next >= 0 && next <= to;
+        }
+    }
+}
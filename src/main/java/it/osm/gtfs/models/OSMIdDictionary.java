@@ -0,0 +1,99 @@
+/**
+ * Licensed under the GNU General Public License version 3
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.gnu.org/licenses/gpl-3.0.html
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package it.osm.gtfs.models;
+
+import java.util.Arrays;
+
+/***
+ * Dictionary of the ids of the OSM elements of a file (node ids, way ids...), every distinct id gets a dense int the first time it's seen,
+ * so the data of the elements can be kept in primitive arrays indexed by that int instead of a map of boxed Long keys.
+ * The dictionary is not thread safe.
+ */
+public class OSMIdDictionary {
+    public static final int NO_ID = -1;
+
+    private long[] ids = new long[1024];
+    private int size = 0;
+
+    //open addressing hash table of the ids, every slot contains the index of the id + 1 (0 is an empty slot)
+    private int[] table = new int[2048];
+
+    /**
+     * @return the int of the id, adding the id to the dictionary if it's not present yet
+     */
+    public int getOrAdd(long id) {
+        int slot = findSlot(id);
+
+        if (table[slot] != 0)
+            return table[slot] - 1;
+
+        if (size == ids.length)
+            ids = Arrays.copyOf(ids, size * 2);
+
+        int newId = size++;
+        ids[newId] = id;
+        table[slot] = newId + 1;
+
+        //we keep the load factor of the table under 0.5
+        if (size * 2 > table.length)
+            rehash();
+
+        return newId;
+    }
+
+    /**
+     * @return the int of the id, or NO_ID if the id is not in the dictionary
+     */
+    public int get(long id) {
+        return table[findSlot(id)] - 1;
+    }
+
+    public long getId(int index) {
+        return ids[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int findSlot(long id) {
+        int mask = table.length - 1;
+        int slot = mix(id) & mask;
+
+        while (table[slot] != 0 && ids[table[slot] - 1] != id) {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+
+        for (int i = 0; i < size; i++) {
+            int slot = mix(ids[i]) & mask;
+            while (table[slot] != 0)
+                slot = (slot + 1) & mask;
+
+            table[slot] = i + 1;
+        }
+    }
+
+    //spreads the bits of the id, as the OSM ids of a file are often consecutive numbers
+    private static int mix(long id) {
+        long hash = id * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+}
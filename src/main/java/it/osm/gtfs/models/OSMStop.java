@@ -3,12 +3,11 @@ package it.osm.gtfs.models;
 import it.osm.gtfs.enums.OSMStopType;
 import it.osm.gtfs.enums.WheelchairAccess;
 import org.jxmapviewer.viewer.GeoPosition;
-import org.w3c.dom.Node;
 
 public class OSMStop extends Stop {
 
     public GTFSStop gtfsStopMatchedWith;
-    public Node originalXMLNode;
+    public OSMXMLNode originalXMLNode;
     private boolean needsPositionReview = false;
     private boolean isRevised = false;
     private boolean isDisused = false;
@@ -18,7 +17,7 @@ public class OSMStop extends Stop {
     }
 
     public String getOSMId() {
-        return (originalXMLNode == null) ? null : originalXMLNode.getAttributes().getNamedItem("id").getNodeValue();
+        return (originalXMLNode == null) ? null : originalXMLNode.getAttribute("id");
     }
 
     public void setNeedsPositionReview(boolean needsGuiReview) {
@@ -0,0 +1,121 @@
+/**
+ * Licensed under the GNU General Public License version 3
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.gnu.org/licenses/gpl-3.0.html
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package it.osm.gtfs.models;
+
+import java.util.Arrays;
+
+/***
+ * Compact copy of a node element of an OSM XML file: its attributes (id, version, lat, lon...) and its tags, in the order of the file.
+ * The names and values are kept in flat arrays of pairs instead of a DOM tree, and the nodes are written back to the output files from this model.
+ */
+public class OSMXMLNode {
+    //name0, value0, name1, value1...
+    private String[] attributes = new String[16];
+    private int attributesCount = 0;
+
+    //key0, value0, key1, value1...
+    private String[] tags = new String[16];
+    private int tagsCount = 0;
+
+    public String getAttribute(String name) {
+        for (int i = 0; i < attributesCount; i++) {
+            if (attributes[i * 2].equals(name))
+                return attributes[i * 2 + 1];
+        }
+        return null;
+    }
+
+    public void setAttribute(String name, String value) {
+        for (int i = 0; i < attributesCount; i++) {
+            if (attributes[i * 2].equals(name)) {
+                attributes[i * 2 + 1] = value;
+                return;
+            }
+        }
+
+        if (attributesCount * 2 == attributes.length)
+            attributes = Arrays.copyOf(attributes, Math.max(attributes.length * 2, 8));
+
+        attributes[attributesCount * 2] = name;
+        attributes[attributesCount * 2 + 1] = value;
+        attributesCount++;
+    }
+
+    public int getAttributesCount() {
+        return attributesCount;
+    }
+
+    public String getAttributeName(int index) {
+        return attributes[index * 2];
+    }
+
+    public String getAttributeValue(int index) {
+        return attributes[index * 2 + 1];
+    }
+
+    public int getTagsCount() {
+        return tagsCount;
+    }
+
+    public String getTagKey(int index) {
+        return tags[index * 2];
+    }
+
+    public String getTagValue(int index) {
+        return tags[index * 2 + 1];
+    }
+
+    /**
+     * @return the index of the tag with the given key (ignoring the case), or -1 if the node doesn't have that tag
+     */
+    public int indexOfTag(String key) {
+        for (int i = 0; i < tagsCount; i++) {
+            if (tags[i * 2].equalsIgnoreCase(key))
+                return i;
+        }
+        return -1;
+    }
+
+    public void setTagKey(int index, String key) {
+        tags[index * 2] = key;
+    }
+
+    public void setTagValue(int index, String value) {
+        tags[index * 2 + 1] = value;
+    }
+
+    public void addTag(String key, String value) {
+        if (tagsCount * 2 == tags.length)
+            tags = Arrays.copyOf(tags, Math.max(tags.length * 2, 8));
+
+        tags[tagsCount * 2] = key;
+        tags[tagsCount * 2 + 1] = value;
+        tagsCount++;
+    }
+
+    public void removeTag(int index) {
+        System.arraycopy(tags, (index + 1) * 2, tags, index * 2, (tagsCount - index - 1) * 2);
+        tagsCount--;
+        tags[tagsCount * 2] = null;
+        tags[tagsCount * 2 + 1] = null;
+    }
+
+    /**
+     * Shrinks the arrays to the used size, for the nodes that are kept in memory after the parsing
+     */
+    public void trimToSize() {
+        attributes = Arrays.copyOf(attributes, attributesCount * 2);
+        tags = Arrays.copyOf(tags, tagsCount * 2);
+    }
+}
@@ -5,6 +5,7 @@ import it.osm.gtfs.utils.VariousUtils;
 import org.jxmapviewer.viewer.GeoPosition;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
@@ -141,16 +142,63 @@ public class Relation {
     }
 
     public static class OSMWay {
+        //value of the coordinates of the nodes that are not in the file the way was read from
+        public static final int MISSING_COORDINATE = Integer.MIN_VALUE;
+
         private final long id;
-        public List<OSMNode> nodes = new ArrayList<>();
+        private final long[] nodeIds;
+        //latitude and longitude of every node of the way, in fixed point (1e-7 degrees, the precision of the OSM coordinates)
+        private int[] nodeCoordinates;
 
-        public OSMWay(long id) {
+        public OSMWay(long id, long[] nodeIds) {
             this.id = id;
+            this.nodeIds = nodeIds;
+            this.nodeCoordinates = new int[nodeIds.length * 2];
+            Arrays.fill(nodeCoordinates, MISSING_COORDINATE);
         }
 
         public long getId() {
             return id;
         }
+
+        public int getNodesCount() {
+            return nodeIds.length;
+        }
+
+        public long getNodeId(int index) {
+            return nodeIds[index];
+        }
+
+        public void setNodeCoordinates(int index, int latitude, int longitude) {
+            nodeCoordinates[index * 2] = latitude;
+            nodeCoordinates[index * 2 + 1] = longitude;
+        }
+
+        /**
+         * @return the position of the node, or null if the node is not in the file
+         */
+        public GeoPosition getNodeGeoPosition(int index) {
+            if (nodeCoordinates[index * 2] == MISSING_COORDINATE)
+                return null;
+
+            return new GeoPosition(fromFixedPoint(nodeCoordinates[index * 2]), fromFixedPoint(nodeCoordinates[index * 2 + 1]));
+        }
+
+        /**
+         * @return the node, or null if the node is not in the file
+         */
+        public OSMNode getNode(int index) {
+            GeoPosition geoPosition = getNodeGeoPosition(index);
+            return (geoPosition == null) ? null : new OSMNode(geoPosition, nodeIds[index], null);
+        }
+
+        public static int toFixedPoint(double coordinate) {
+            return (int) Math.round(coordinate * 1e7);
+        }
+
+        public static double fromFixedPoint(int coordinate) {
+            return coordinate / 1e7;
+        }
     }
 
     public static class OSMNode {
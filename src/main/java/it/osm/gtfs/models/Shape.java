@@ -13,36 +13,117 @@
  **/
 package it.osm.gtfs.models;
 
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.Arrays;
 
+/***
+ * The points of a GTFS shape, stored in parallel primitive arrays sorted by the shape_pt_sequence
+ */
 public class Shape {
 
     private final String id;
-    private final Map<Long, ShapePoint> points;
+
+    private int[] seqs = new int[64];
+    private double[] lats = new double[64];
+    private double[] lons = new double[64];
+    private int size = 0;
+    private boolean sorted = true;
 
     public Shape(String id) {
         super();
         this.id = id;
-        points = new TreeMap<>();
     }
 
-    public void pushPoint(Long seq, Double lat, Double lon) {
-        points.put(seq, new ShapePoint(seq, lat, lon));
+    public void pushPoint(int seq, double lat, double lon) {
+        if (size == seqs.length) {
+            seqs = Arrays.copyOf(seqs, size * 2);
+            lats = Arrays.copyOf(lats, size * 2);
+            lons = Arrays.copyOf(lons, size * 2);
+        }
+
+        if (size > 0 && seq <= seqs[size - 1])
+            sorted = false;
+
+        seqs[size] = seq;
+        lats[size] = lat;
+        lons[size] = lon;
+        size++;
+    }
+
+    /**
+     * Sorts the points by sequence and trims the arrays, it's called once after all the points of the shape have been pushed.
+     * As with the previous map-based storage, when two points have the same sequence the last one pushed wins.
+     */
+    public void sortPoints() {
+        if (!sorted) {
+            //the sequence is in the high bits and the push order in the low bits, so a single sort of the keys orders the points
+            long[] keys = new long[size];
+            for (int i = 0; i < size; i++) {
+                keys[i] = ((long) seqs[i] << 32) | i;
+            }
+            Arrays.sort(keys);
+
+            int[] sortedSeqs = new int[size];
+            double[] sortedLats = new double[size];
+            double[] sortedLons = new double[size];
+            int count = 0;
+
+            for (int i = 0; i < size; i++) {
+                int index = (int) keys[i];
+
+                if (count > 0 && sortedSeqs[count - 1] == seqs[index])
+                    count--;
+
+                sortedSeqs[count] = seqs[index];
+                sortedLats[count] = lats[index];
+                sortedLons[count] = lons[index];
+                count++;
+            }
+
+            seqs = sortedSeqs;
+            lats = sortedLats;
+            lons = sortedLons;
+            size = count;
+            sorted = true;
+        }
+
+        if (seqs.length != size) {
+            seqs = Arrays.copyOf(seqs, size);
+            lats = Arrays.copyOf(lats, size);
+            lons = Arrays.copyOf(lons, size);
+        }
     }
 
     public String getId() {
         return id;
     }
 
+    public int getPointsCount() {
+        sortPoints();
+        return size;
+    }
+
+    public int getSeq(int index) {
+        return seqs[index];
+    }
+
+    public double getLat(int index) {
+        return lats[index];
+    }
+
+    public double getLon(int index) {
+        return lons[index];
+    }
+
     public String getGPXwithWaypoints(String desc) {
+        sortPoints();
+
         StringBuilder buffer = new StringBuilder();
         buffer.append("<?xml version=\"1.0\"?><gpx version=\"1.0\" creator=\"GTFS-import\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xmlns=\"http://www.topografix.com/GPX/1/0\" xsi:schemaLocation=\"http://www.topografix.com/GPX/1/0 http://www.topografix.com/GPX/1/0/gpx.xsd\">");
-        for (Long p : points.keySet()) {
+        for (int i = 0; i < size; i++) {
             buffer.append("<wpt lat=\"");
-            buffer.append(points.get(p).getLat());
+            buffer.append(lats[i]);
             buffer.append("\" lon=\"");
-            buffer.append(points.get(p).getLon());
+            buffer.append(lons[i]);
             buffer.append("\"><name>");
             buffer.append(desc);
             buffer.append("</name><desc><![CDATA[");
@@ -54,14 +135,16 @@ public class Shape {
     }
 
     public String getGPXasSegment(String desc) {
+        sortPoints();
+
         StringBuilder buffer = new StringBuilder();
         buffer.append("<?xml version=\"1.0\"?><gpx version=\"1.0\" creator=\"GTFS-import\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xmlns=\"http://www.topografix.com/GPX/1/0\" xsi:schemaLocation=\"http://www.topografix.com/GPX/1/0 http://www.topografix.com/GPX/1/0/gpx.xsd\">");
         buffer.append("<trk><trkseg> "); //per fare diventare i punti una traccia continua
-        for (Long p : points.keySet()) {
+        for (int i = 0; i < size; i++) {
             buffer.append("<trkpt lat=\"");
-            buffer.append(points.get(p).getLat());
+            buffer.append(lats[i]);
             buffer.append("\" lon=\"");
-            buffer.append(points.get(p).getLon());
+            buffer.append(lons[i]);
             buffer.append("\"><name>");
             buffer.append(desc);
             buffer.append("</name><desc><![CDATA[");
@@ -71,30 +154,4 @@ public class Shape {
         buffer.append("</trkseg></trk></gpx>");
         return buffer.toString();
     }
-
-    public class ShapePoint {
-        private final Long seq;
-        private final Double lat;
-        private final Double lon;
-
-        public ShapePoint(Long seq, Double lat, Double lon) {
-            super();
-            this.seq = seq;
-            this.lat = lat;
-            this.lon = lon;
-        }
-
-        public Long getSeq() {
-            return seq;
-        }
-
-        public Double getLat() {
-            return lat;
-        }
-
-        public Double getLon() {
-            return lon;
-        }
-    }
 }
-
@@ -19,15 +19,17 @@ import it.osm.gtfs.enums.WheelchairAccess;
 public class Trip implements Comparable<Trip> {
     private final Route route;
     private final String shapeId;
+    private final String serviceId;
     private final String tripId;
     private final String tripHeadsign;
     private final TripStopsList tripStopsList;
     private final WheelchairAccess wheelchairAccess;
 
-    public Trip(String tripId, Route route, String shapeId, String tripHeadsign, TripStopsList tripStopsList, WheelchairAccess wheelchairAccess) {
+    public Trip(String tripId, Route route, String shapeId, String serviceId, String tripHeadsign, TripStopsList tripStopsList, WheelchairAccess wheelchairAccess) {
         super();
         this.route = route;
         this.shapeId = shapeId;
+        this.serviceId = serviceId;
         this.tripId = tripId;
         this.tripHeadsign = tripHeadsign;
         this.tripStopsList = tripStopsList;
@@ -46,6 +48,10 @@ public class Trip implements Comparable<Trip> {
         return shapeId;
     }
 
+    public String getServiceId() {
+        return serviceId;
+    }
+
     public String getTripHeadsign() {
         return tripHeadsign;
     }
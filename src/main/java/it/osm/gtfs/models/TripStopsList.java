@@ -56,6 +56,15 @@ public class TripStopsList {
         stopSequenceArrivalTimeMap.put(stopSequence, arrivalTime);
     }
 
+    //this method adds the stops of another partial list of the same trip, the stops of the other list replace the ones with the same stop sequence
+    public void merge(TripStopsList other) {
+        stopSequenceOSMStopMap.putAll(other.stopSequenceOSMStopMap);
+        stopSequenceArrivalTimeMap.putAll(other.stopSequenceArrivalTimeMap);
+
+        if (!other.isValid())
+            invalidate();
+    }
+
     public String getStopsListTextFile() {
         StringBuilder buffer = new StringBuilder();
         for (Stop stop : stopSequenceOSMStopMap.values()) {
@@ -14,67 +14,153 @@
 package it.osm.gtfs.output;
 
 import it.osm.gtfs.models.BoundingBox;
-import org.w3c.dom.DOMImplementation;
+import it.osm.gtfs.models.OSMXMLNode;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
 
-import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.*;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import java.io.IOException;
-import java.io.OutputStream;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
+/***
+ * Writes an OSM file with the appended nodes, streaming them to the file as they are appended instead of keeping a DOM of the whole file.
+ * The nodes are written to a temporary file next to the output file, which replaces the output file only when the generator is saved,
+ * so that a discarded generator doesn't leave a partial file.
+ */
 public class OSMBusImportGenerator implements IElementCreator {
-    private final Document document;
-    private final Element root;
+    private final File outputFile;
+    private final File partialFile;
+    private final OutputStream outputStream;
+    private final XMLStreamWriter writer;
+
+    //used only to create the elements of createElement(), which are written by appendNode()
+    private final Document elementsFactory;
+
     private boolean completed = false;
 
-    public OSMBusImportGenerator(BoundingBox bb) throws ParserConfigurationException {
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder builder = factory.newDocumentBuilder();
-        DOMImplementation impl = builder.getDOMImplementation();
+    public OSMBusImportGenerator(BoundingBox bb, File outputFile) throws ParserConfigurationException, IOException, XMLStreamException {
+        this.outputFile = outputFile;
+        this.partialFile = new File(outputFile.getPath() + ".part");
+
+        elementsFactory = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
 
-        document = impl.createDocument(null, null, null);
+        outputStream = new BufferedOutputStream(new FileOutputStream(partialFile));
+        writer = XMLOutputFactory.newInstance().createXMLStreamWriter(outputStream, "UTF-8");
 
-        root = document.createElement("osm");
-        root.setAttribute("version", "0.6");
-        root.setAttribute("generator", "GTFSOSMImport");
-        document.appendChild(root);
-        root.appendChild(bb.getXMLTag(this));
+        writer.writeStartDocument("UTF-8", "1.0");
+        writer.writeStartElement("osm");
+        writer.writeAttribute("version", "0.6");
+        writer.writeAttribute("generator", "GTFSOSMImport");
+        writer.writeCharacters("\n");
+
+        appendNode(bb.getXMLTag(this));
     }
 
-    public void end() {
+    /**
+     * Closes the document, the file can then be saved or discarded
+     */
+    public void end() throws XMLStreamException, IOException {
         if (completed)
             throw new IllegalStateException("This buffer is already closed.");
         completed = true;
+
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        writer.close();
+        outputStream.close();
     }
 
-    public void saveTo(OutputStream outputStream) throws IOException, TransformerException {
+    /**
+     * Replaces the output file with the written one
+     */
+    public void save() throws IOException {
         if (!completed)
             throw new IllegalStateException("This buffer isn't complete, can't save.");
 
-        Source source = new DOMSource(document);
-        Result result = new StreamResult(outputStream);
-        Transformer xformer = TransformerFactory.newInstance().newTransformer();
-        xformer.transform(source, result);
+        Files.move(partialFile.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
 
-        //we close the file stream
-        outputStream.close();
+    /**
+     * Deletes the written file, leaving the output file as it was
+     */
+    public void discard() throws IOException {
+        if (!completed) {
+            completed = true;
+
+            try {
+                writer.close();
+            } catch (XMLStreamException e) {
+                throw new IOException(e);
+            }
+            outputStream.close();
+        }
+
+        Files.deleteIfExists(partialFile.toPath());
     }
 
-    public void appendNode(Element n) {
+    public void appendNode(Element n) throws XMLStreamException {
         if (completed)
             throw new IllegalStateException("This buffer is already closed.");
-        root.appendChild(document.importNode(n, true));
+
+        writeElement(n);
+        writer.writeCharacters("\n");
+    }
+
+    public void appendNode(OSMXMLNode n) throws XMLStreamException {
+        if (completed)
+            throw new IllegalStateException("This buffer is already closed.");
+
+        writer.writeStartElement("node");
+        for (int i = 0; i < n.getAttributesCount(); i++) {
+            writer.writeAttribute(n.getAttributeName(i), n.getAttributeValue(i));
+        }
+        for (int i = 0; i < n.getTagsCount(); i++) {
+            writer.writeEmptyElement("tag");
+            writer.writeAttribute("k", n.getTagKey(i));
+            writer.writeAttribute("v", n.getTagValue(i));
+        }
+        writer.writeEndElement();
+        writer.writeCharacters("\n");
     }
 
     @Override
     public Element createElement(String tagName) {
         if (completed)
             throw new IllegalStateException("This buffer is already closed.");
-        return document.createElement(tagName);
+        return elementsFactory.createElement(tagName);
+    }
+
+    private void writeElement(Element element) throws XMLStreamException {
+        NodeList children = element.getChildNodes();
+
+        if (children.getLength() == 0)
+            writer.writeEmptyElement(element.getTagName());
+        else
+            writer.writeStartElement(element.getTagName());
+
+        NamedNodeMap attributes = element.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            writer.writeAttribute(attributes.item(i).getNodeName(), attributes.item(i).getNodeValue());
+        }
+
+        for (int i = 0; i < children.getLength(); i++) {
+            Node child = children.item(i);
+
+            if (child.getNodeType() == Node.ELEMENT_NODE)
+                writeElement((Element) child);
+            else if (child.getNodeType() == Node.TEXT_NODE)
+                writer.writeCharacters(child.getNodeValue());
+        }
+
+        if (children.getLength() > 0)
+            writer.writeEndElement();
     }
 }
@@ -19,120 +19,174 @@ import it.osm.gtfs.plugins.GTFSPlugin;
 import it.osm.gtfs.utils.GTFSImportSettings;
 import org.apache.commons.lang3.StringUtils;
 
-import java.text.SimpleDateFormat;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 
-public class OSMRelationImportGenerator {
+/***
+ * Writes the generated relations to an OSM file, one relation after the other, straight to the output stream.
+ * The values of the tags are escaped by the XML writer, so names and headsigns can contain any character.
+ */
+public class OSMRelationImportGenerator implements Closeable {
+    private final OutputStream outputStream;
+    private final XMLStreamWriter writer;
+
+    /**
+     * Starts the OSM file, the stream is closed together with this generator
+     */
+    public OSMRelationImportGenerator(OutputStream outputStream, BoundingBox bb) throws XMLStreamException {
+        this.outputStream = new BufferedOutputStream(outputStream);
+        writer = XMLOutputFactory.newInstance().createXMLStreamWriter(this.outputStream, "UTF-8");
+
+        writer.writeStartDocument("UTF-8", "1.0");
+        writer.writeStartElement("osm");
+        writer.writeAttribute("version", "0.6");
+        writer.writeAttribute("generator", "GTFSOSMImport");
+        writer.writeCharacters("\n");
+
+        bb.writeXMLTag(writer);
+        writer.writeCharacters("\n");
+    }
 
-    //TODO: instead of using a StringBuilder to create the XML file, see the OSMBusImportGenerator class instead
-    public static String createSingleTripRelation(BoundingBox bb, List<Integer> osmWaysIds, Trip trip, Route route, GTFSFeedInfo gtfsFeedInfo, int id) {
+    public void writeSingleTripRelation(List<Integer> osmWaysIds, Trip trip, Route route, GTFSFeedInfo gtfsFeedInfo, int id) throws XMLStreamException {
         GTFSPlugin plugin = GTFSImportSettings.getInstance().getPlugin();
 
-        //todo: remove the timestamp as it is redundant, set osmosis' enableDateParsing option to false
-        //the timestamp and the version attribute for every relation is needed by the merge with osmosis, unfortunately
-        String currentTimeStamp = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'").format(new java.util.Date());
-
-        StringBuilder buffer = new StringBuilder();
-        buffer.append("<?xml version=\"1.0\"?><osm version='0.6' generator='GTFSOSMImport'>\n");
-        buffer.append(bb.getXMLTag());
-        buffer.append("<relation id='-" + id + "' version='1' timestamp='" + currentTimeStamp +"' action='modify'>\n");
+        writeRelationStart(id);
 
         for (OSMStop osmStop : trip.getStopsList().getStopSequenceOSMStopMap().values()) {
-            buffer.append("<member type='node' ref='" + osmStop.originalXMLNode.getAttributes().getNamedItem("id").getNodeValue() + "' role='stop' />\n");
+            writeMember("node", osmStop.getOSMId(), "stop");
         }
 
         if (osmWaysIds != null) {
             for (Integer osmWayId : osmWaysIds) {
-                buffer.append("<member type='way' ref=\"" + osmWayId + "\" role='' />\n");
+                writeMember("way", String.valueOf(osmWayId), "");
             }
         }
 
-        buffer.append("<tag k='type' v='route' />\n");
-        buffer.append("<tag k='route' v='" + route.getRouteType().getOsmValue() + "' />\n");
+        writeTag("type", "route");
+        writeTag("route", route.getRouteType().getOsmValue());
 
-        buffer.append("<tag k='public_transport:version' v='2' />\n");
+        writeTag("public_transport:version", "2");
 
         if (GTFSImportSettings.getInstance().useRevisedKey()) {
-            buffer.append("<tag k='" + GTFSImportSettings.REVISED_KEY + "' v='no' />\n");
+            writeTag(GTFSImportSettings.REVISED_KEY, "no");
         }
 
-        buffer.append("<tag k='name' v=\"" + StringUtils.capitalize(route.getRouteType().getOsmValue()) + " " + route.getShortName() + ": " + plugin.fixTripHeadsignName(trip.getTripHeadsign()) + "\" />\n");
+        writeTag("name", StringUtils.capitalize(route.getRouteType().getOsmValue()) + " " + route.getShortName() + ": " + plugin.fixTripHeadsignName(trip.getTripHeadsign()));
 
-        buffer.append("<tag k='ref' v=\"" + route.getShortName() + "\" />\n");
+        writeTag("ref", route.getShortName());
 
-        buffer.append("<tag k='from' v=\"" + trip.getStopsList().getStopSequenceOSMStopMap().firstEntry().getValue().getName() + "\" />\n");
-        buffer.append("<tag k='to' v=\"" + trip.getStopsList().getStopSequenceOSMStopMap().lastEntry().getValue().getName() + "\" />\n");
+        writeTag("from", trip.getStopsList().getStopSequenceOSMStopMap().firstEntry().getValue().getName());
+        writeTag("to", trip.getStopsList().getStopSequenceOSMStopMap().lastEntry().getValue().getName());
 
         var routeColor = route.getRouteColor();
 
         if (routeColor != null && !routeColor.isBlank()) {
-            buffer.append("<tag k='colour' v='#" + route.getRouteColor() + "' />\n");
+            writeTag("colour", "#" + routeColor);
         }
 
-        buffer.append("<tag k='network' v=\"" + GTFSImportSettings.getInstance().getNetwork() + "\" />\n");
-        buffer.append("<tag k='operator' v=\"" + GTFSImportSettings.getInstance().getOperator() + "\" />\n");
+        writeTag("network", GTFSImportSettings.getInstance().getNetwork());
+        writeTag("operator", GTFSImportSettings.getInstance().getOperator());
 
-        buffer.append("<tag k='gtfs:route_id' v='" + route.getId() + "' />\n");
-        buffer.append("<tag k='gtfs:shape_id' v='" + trip.getShapeId() + "' />\n");
+        writeTag("gtfs:route_id", route.getId());
+        writeTag("gtfs:shape_id", trip.getShapeId());
 
         var agencyId = route.getAgencyId();
 
-        if(agencyId != null && !agencyId.isBlank()) {
-            buffer.append("<tag k='gtfs:agency_id' v='" + agencyId + "' />\n");
+        if (agencyId != null && !agencyId.isBlank()) {
+            writeTag("gtfs:agency_id", agencyId);
         }
 
         if (gtfsFeedInfo != null && gtfsFeedInfo.getVersion() != null && !gtfsFeedInfo.getVersion().isBlank()) {
-            buffer.append("<tag k='gtfs:release_date' v='" + plugin.fixGtfsVersionDate(gtfsFeedInfo.getVersion()) + "' />\n");
+            writeTag("gtfs:release_date", plugin.fixGtfsVersionDate(gtfsFeedInfo.getVersion()));
         }
 
         if (trip.getWheelchairAccess() != null && trip.getWheelchairAccess() != WheelchairAccess.UNKNOWN) {
-            buffer.append("<tag k='wheelchair' v='" + trip.getWheelchairAccess().getOsmValue() + "' />\n");
+            writeTag("wheelchair", trip.getWheelchairAccess().getOsmValue());
         }
 
-        buffer.append("</relation>");
-        buffer.append("</osm>");
-
-        return buffer.toString();
+        writeRelationEnd();
     }
 
     //TODO: to implement
-    public static String createMasterRouteTripsRelation(Route route, List<Integer> idList, BoundingBox bb, int routeMasterId) {
-
-        String currentTimeStamp = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'").format(new java.util.Date());
-
-        StringBuilder buffer = new StringBuilder();
-        buffer.append("<?xml version=\"1.0\"?><osm version='0.6' generator='GTFSOSMImport'>\n");
-        buffer.append(bb.getXMLTag());
-        buffer.append("<relation id='-" + routeMasterId + "' version='1' timestamp='" + currentTimeStamp +"' action='modify'>\n");
+    public void writeMasterRouteTripsRelation(Route route, List<Integer> idList, int routeMasterId) throws XMLStreamException {
+        writeRelationStart(routeMasterId);
 
         for (Integer childRelId : idList) {
-            buffer.append("<member type='relation' ref=\"-" + childRelId + "\" role='' />\n");
+            writeMember("relation", "-" + childRelId, "");
         }
 
-        buffer.append("<tag k='type' v='route_master' />\n");
-        buffer.append("<tag k='route_master' v='" + route.getRouteType().getOsmValue() + "' />\n");
-        buffer.append("<tag k='ref' v=\"" + route.getShortName() + "\" />\n");
-        buffer.append("<tag k='name' v=\"" + StringUtils.capitalize(route.getRouteType().getOsmValue()) + " " + route.getShortName() + "\" />\n");
-        buffer.append("<tag k='operator' v=\"" + GTFSImportSettings.getInstance().getOperator() + "\" />\n");
-        buffer.append("<tag k='network' v=\"" + GTFSImportSettings.getInstance().getNetwork() + "\" />\n");
+        writeTag("type", "route_master");
+        writeTag("route_master", route.getRouteType().getOsmValue());
+        writeTag("ref", route.getShortName());
+        writeTag("name", StringUtils.capitalize(route.getRouteType().getOsmValue()) + " " + route.getShortName());
+        writeTag("operator", GTFSImportSettings.getInstance().getOperator());
+        writeTag("network", GTFSImportSettings.getInstance().getNetwork());
 
         var routeColor = route.getRouteColor();
 
         if (routeColor != null && !routeColor.isBlank()) {
-            buffer.append("<tag k='colour' v='#" + routeColor + "' />\n");
+            writeTag("colour", "#" + routeColor);
         }
 
-        buffer.append("<tag k='gtfs:route_id' v='" + route.getId() + "' />\n");
+        writeTag("gtfs:route_id", route.getId());
 
         var agencyId = route.getAgencyId();
 
-        if(agencyId != null && !agencyId.isBlank()) {
-            buffer.append("<tag k='gtfs:agency_id' v='" + agencyId + "' />\n");
+        if (agencyId != null && !agencyId.isBlank()) {
+            writeTag("gtfs:agency_id", agencyId);
         }
 
-        buffer.append("</relation>");
-        buffer.append("</osm>");
+        writeRelationEnd();
+    }
+
+    /**
+     * Ends the OSM file and closes the stream
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.close();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    private void writeRelationStart(int id) throws XMLStreamException {
+        //version='1' is kept for compatibility with the output of the previous generator
+        writer.writeStartElement("relation");
+        writer.writeAttribute("id", "-" + id);
+        writer.writeAttribute("version", "1");
+        writer.writeAttribute("action", "modify");
+        writer.writeCharacters("\n");
+    }
+
+    private void writeRelationEnd() throws XMLStreamException {
+        writer.writeEndElement();
+        writer.writeCharacters("\n");
+    }
+
+    private void writeMember(String type, String ref, String role) throws XMLStreamException {
+        writer.writeEmptyElement("member");
+        writer.writeAttribute("type", type);
+        writer.writeAttribute("ref", String.valueOf(ref));
+        writer.writeAttribute("role", role);
+        writer.writeCharacters("\n");
+    }
 
-        return buffer.toString();
+    private void writeTag(String key, String value) throws XMLStreamException {
+        writer.writeEmptyElement("tag");
+        writer.writeAttribute("k", key);
+        writer.writeAttribute("v", String.valueOf(value));
+        writer.writeCharacters("\n");
     }
 }
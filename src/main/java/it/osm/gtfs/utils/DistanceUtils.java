@@ -18,11 +18,75 @@ package it.osm.gtfs.utils;
 import org.jxmapviewer.viewer.GeoPosition;
 
 public class DistanceUtils {
+    //lower bound of the length of a degree of latitude, and of a degree of longitude at the equator, on the WGS-84 ellipsoid
+    public static final double MIN_METERS_PER_DEGREE = 110000;
+
+    private static final double EARTH_MEAN_RADIUS = 6371008.8;
+
+    //for short distances the equirectangular approximation on the sphere differs from the distance on the ellipsoid by less than 0.6%,
+    //so it's used only for the distances up to 10 km away from the poles, and only when it's more than 1% away from the threshold
+    private static final double APPROXIMATION_MARGIN = 0.01;
+    private static final double MAX_APPROXIMATED_DISTANCE = 10000;
+    private static final double MAX_APPROXIMATED_LATITUDE = 80;
 
     public static double distVincenty(GeoPosition geoPosition1, GeoPosition geoPosition2) {
         return distVincenty(geoPosition1.getLatitude(), geoPosition1.getLongitude(), geoPosition2.getLatitude(), geoPosition2.getLongitude());
     }
 
+    public static boolean isWithinDistance(GeoPosition geoPosition1, GeoPosition geoPosition2, double distance) {
+        return isWithinDistance(geoPosition1.getLatitude(), geoPosition1.getLongitude(), geoPosition2.getLatitude(), geoPosition2.getLongitude(), distance);
+    }
+
+    /**
+     * Checks if two points are nearer than a distance, with the same result of distVincenty(...) < distance.
+     * The points that are clearly nearer or farther are told by the differences of their coordinates and by the equirectangular
+     * approximation, and the Vincenty formula is computed only for the points at about the given distance.
+     *
+     * @param distance the distance in metres
+     */
+    public static boolean isWithinDistance(double latitude1, double longitude1, double latitude2, double longitude2, double distance) {
+        double deltaLatitude = Math.abs(latitude2 - latitude1);
+        double deltaLongitude = Math.abs(longitude2 - longitude1);
+        if (deltaLongitude > 180)
+            deltaLongitude = 360 - deltaLongitude;
+
+        //the path between the points can't get farther from the equator than this latitude without being longer than the distance
+        double maxAbsLatitude = Math.min(Math.max(Math.abs(latitude1), Math.abs(latitude2)) + distance / MIN_METERS_PER_DEGREE, 90);
+
+        if (deltaLatitude * MIN_METERS_PER_DEGREE >= distance || deltaLongitude * MIN_METERS_PER_DEGREE * Math.cos(Math.toRadians(maxAbsLatitude)) >= distance)
+            return false;
+
+        if (distance <= MAX_APPROXIMATED_DISTANCE && maxAbsLatitude <= MAX_APPROXIMATED_LATITUDE) {
+            double approximatedDistance = distEquirectangular(latitude1, longitude1, latitude2, longitude2);
+
+            if (approximatedDistance >= distance * (1 + APPROXIMATION_MARGIN))
+                return false;
+            if (approximatedDistance < distance * (1 - APPROXIMATION_MARGIN))
+                return true;
+        }
+
+        return distVincenty(latitude1, longitude1, latitude2, longitude2) < distance;
+    }
+
+    /**
+     * Calculates the distance between two points with the equirectangular approximation on a spherical earth,
+     * which is accurate for short distances and much faster than distVincenty
+     *
+     * @return distance in metres between points
+     */
+    public static double distEquirectangular(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double deltaLongitude = longitude2 - longitude1;
+        if (deltaLongitude > 180)
+            deltaLongitude -= 360;
+        else if (deltaLongitude < -180)
+            deltaLongitude += 360;
+
+        double x = Math.toRadians(deltaLongitude) * Math.cos(Math.toRadians((latitude1 + latitude2) / 2));
+        double y = Math.toRadians(latitude2 - latitude1);
+
+        return EARTH_MEAN_RADIUS * Math.sqrt(x * x + y * y);
+    }
+
     /**
      * Calculates geodetic distance between two points specified by latitude/longitude using
      * Vincenty inverse formula for ellipsoids
@@ -33,7 +97,7 @@ public class DistanceUtils {
      * @param longitude2 second point's longitude in decimal degrees
      * @return distance in metres between points
      */
-    public static double distVincenty(Double latitude1, Double longitude1, Double latitude2, Double longitude2) {
+    public static double distVincenty(double latitude1, double longitude1, double latitude2, double longitude2) {
         double lat1 = latitude1;
         double lon1 = longitude1;
         double lat2 = latitude2;
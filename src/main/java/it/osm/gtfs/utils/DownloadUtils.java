@@ -19,15 +19,23 @@ import java.net.HttpURLConnection;
 import java.net.SocketTimeoutException;
 import java.net.URL;
 
+import static org.fusesource.jansi.Ansi.ansi;
+
 /***
  * This class contains methods to download files
  */
 public class DownloadUtils {
     private static final int TIMEOUT = 30 * 60000;
 
+    //the overpass servers answer with this code when all the request slots of the client are in use
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    private static final int DEFAULT_RETRY_AFTER_SECONDS = 10;
+    private static final int MAX_SLOT_WAITS = 30;
+
     public static void download(String url, File dest, boolean useGzipCompression) throws IOException {
         int currentretry = 0;
         final int MAX_RETRIES = 3;
+        int slotWaits = 0;
 
         while (++currentretry <= MAX_RETRIES) {
             System.out.println("Downloading (retry count: " + currentretry + "/" + MAX_RETRIES + "): " + url);
@@ -45,6 +53,20 @@ public class DownloadUtils {
                 conn.setRequestMethod("GET");
                 //System.out.println(conn.getRequestProperties());
 
+                //waiting for a free slot doesn't count as a retry, as it is the normal behaviour of the server when it is busy
+                if (conn.getResponseCode() == HTTP_TOO_MANY_REQUESTS) {
+                    int retryAfterSeconds = conn.getHeaderFieldInt("Retry-After", DEFAULT_RETRY_AFTER_SECONDS);
+                    conn.disconnect();
+
+                    if (++slotWaits > MAX_SLOT_WAITS)
+                        throw new IOException("The server had no free slots for " + url);
+
+                    System.out.println(ansi().render("@|yellow The server has no free slots, retrying in " + retryAfterSeconds + " seconds: " + url + "|@"));
+                    Thread.sleep(retryAfterSeconds * 1000L);
+                    currentretry--;
+                    continue;
+                }
+
                 InputStream in = conn.getInputStream();
                 FileOutputStream fos = new FileOutputStream(dest);
                 BufferedOutputStream bout = new BufferedOutputStream(fos, 1024);
@@ -62,18 +84,11 @@ public class DownloadUtils {
                 return;
             } catch (SocketTimeoutException | ConnectException e) {
                 e.printStackTrace();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Download interrupted: " + url);
             }
         }
         throw new SocketTimeoutException();
     }
-
-    public static void downloadZip(String zipUrl, String extractDir) {
-        try {
-            URL url = new URL(zipUrl);
-            ZipUtils.unzipToDirectory(url.openStream(), extractDir);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-    }
 }
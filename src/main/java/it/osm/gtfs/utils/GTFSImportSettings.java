@@ -13,6 +13,9 @@
  **/
 package it.osm.gtfs.utils;
 
+import it.osm.gtfs.input.DirectoryGTFSSource;
+import it.osm.gtfs.input.GTFSSource;
+import it.osm.gtfs.input.ZipGTFSSource;
 import it.osm.gtfs.plugins.DefaultPlugin;
 import it.osm.gtfs.plugins.GTFSPlugin;
 
@@ -20,6 +23,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
 import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.Objects;
 import java.util.Properties;
 
@@ -32,6 +36,9 @@ public class GTFSImportSettings {
     public static final String GTFS_SHAPES_FILE_NAME = "shapes.txt";
     public static final String GTFS_TRIPS_FILE_NAME = "trips.txt";
     public static final String GTFS_FEED_INFO_FILE_NAME = "feed_info.txt";
+    public static final String GTFS_CALENDAR_FILE_NAME = "calendar.txt";
+    public static final String GTFS_CALENDAR_DATES_FILE_NAME = "calendar_dates.txt";
+    public static final String GTFS_ZIP_FILE_NAME = "gtfs.zip";
 
     //public static final String OSM_OVERPASS_XAPI_SERVER = "http://overpass.osm.rambler.ru/cgi/xapi?"; //vecchia xapi
 
@@ -58,6 +65,8 @@ public class GTFSImportSettings {
     private String operator = null;
     private String network = null;
     private boolean useRevisedKey = true;
+    private int overpassMaxConcurrentRequests = 2;
+    private long overpassRequestInterval = 1000;
 
     private GTFSImportSettings() {
 
@@ -107,6 +116,14 @@ public class GTFSImportSettings {
         return overpassApiServer;
     }
 
+    public int getOverpassMaxConcurrentRequests() {
+        return overpassMaxConcurrentRequests;
+    }
+
+    public long getOverpassRequestInterval() {
+        return overpassRequestInterval;
+    }
+
     private static class SettingsHolder {
         private static GTFSImportSettings INSTANCE;
     }
@@ -191,6 +208,36 @@ public class GTFSImportSettings {
             if (overpassApiServer == null)
                 throw new IllegalArgumentException("Please set a valid overpass_api_server value.");
         }
+
+        //overpass_max_concurrent_requests value (optional)
+        synchronized (this) {
+            String tempMaxConcurrentRequests = properties.getProperty("overpass_max_concurrent_requests");
+            if (tempMaxConcurrentRequests != null) {
+                try {
+                    overpassMaxConcurrentRequests = Integer.parseInt(tempMaxConcurrentRequests.trim());
+                } catch (NumberFormatException e) {
+                    overpassMaxConcurrentRequests = 0;
+                }
+
+                if (overpassMaxConcurrentRequests < 1)
+                    throw new IllegalArgumentException("Please set a valid overpass_max_concurrent_requests value (1 or more).");
+            }
+        }
+
+        //overpass_request_interval value (optional)
+        synchronized (this) {
+            String tempRequestInterval = properties.getProperty("overpass_request_interval");
+            if (tempRequestInterval != null) {
+                try {
+                    overpassRequestInterval = Long.parseLong(tempRequestInterval.trim());
+                } catch (NumberFormatException e) {
+                    overpassRequestInterval = -1;
+                }
+
+                if (overpassRequestInterval < 0)
+                    throw new IllegalArgumentException("Please set a valid overpass_request_interval value (milliseconds, 0 or more).");
+            }
+        }
     }
 
     public String getCachePath() {
@@ -205,6 +252,26 @@ public class GTFSImportSettings {
         return getCachePath() + "gtfsdata" + File.separator;
     }
 
+    public String getGTFSSnapshotsPath() {
+        return getCachePath() + "snapshots" + File.separator;
+    }
+
+    public String getGTFSZipFilePath() {
+        return getCachePath() + GTFS_ZIP_FILE_NAME;
+    }
+
+    /**
+     * @return the downloaded GTFS zip file if present, otherwise the directory with the extracted GTFS data
+     */
+    public GTFSSource getGTFSSource() {
+        File gtfsZipFile = new File(getGTFSZipFilePath());
+
+        if (gtfsZipFile.isFile())
+            return new ZipGTFSSource(gtfsZipFile, Paths.get(getGTFSSnapshotsPath()), getPlugin().getClass().getName());
+
+        return new DirectoryGTFSSource(Paths.get(getGTFSDataPath()));
+    }
+
     public String getOsmRelationsFilePath() {
         return getOsmDataPath() + OSM_RELATIONS_FILE_NAME;
     }
@@ -5,26 +5,90 @@ import it.osm.gtfs.models.GTFSStop;
 import it.osm.gtfs.models.OSMStop;
 import org.apache.commons.lang3.StringUtils;
 
-import java.util.List;
+import java.util.*;
+import java.util.stream.IntStream;
 
 import static org.fusesource.jansi.Ansi.ansi;
 
 public class MatchUtils {
+    //the largest distance at which match() can consider two stops with the same ref code the same stop, apart from the revised stops with the same gtfs id
+    private static final int MAX_MATCH_DISTANCE = 2000;
+    //the largest distance at which match() can consider two stops without the same ref code or gtfs id the same stop, by their name
+    private static final int MAX_NAME_MATCH_DISTANCE = 200;
+    //the cell size of the index of the OSM stops, the largest radius searched in it
+    public static final int OSM_STOPS_INDEX_CELL_SIZE = MAX_NAME_MATCH_DISTANCE;
+
     List<GTFSStop> globalGtfsStopsList;
     List<OSMStop> globalOsmStopsList;
+    StopsGridIndex<OSMStop> globalOsmStopsIndex;
+
+    //the names of the OSM stops without accents, computed once as every OSM stop is compared with many GTFS stops
+    private final Map<OSMStop, String> foldedOsmStopNames = new IdentityHashMap<>();
 
     public void doStopsMatching(List<GTFSStop> gtfsStopsList, List<OSMStop> osmStopsList) {
+        doStopsMatching(gtfsStopsList, new StopsGridIndex<>(osmStopsList, OSM_STOPS_INDEX_CELL_SIZE));
+    }
+
+    /**
+     * @param osmStopsIndex the index of the OSM stops to match, so that a caller that already built it doesn't need to build it again
+     */
+    public void doStopsMatching(List<GTFSStop> gtfsStopsList, StopsGridIndex<OSMStop> osmStopsIndex) {
+        List<OSMStop> osmStopsList = osmStopsIndex.getStops();
 
         this.globalGtfsStopsList = gtfsStopsList;
         this.globalOsmStopsList = osmStopsList;
+        this.globalOsmStopsIndex = osmStopsIndex;
+
+        //the map is filled before the parallel checks, which only read it
+        foldedOsmStopNames.clear();
+        for (OSMStop osmStop : osmStopsList) {
+            foldedOsmStopNames.put(osmStop, VariousUtils.removeAccents(osmStop.getName()));
+        }
+
+        //the stops with the same ref code or gtfs id are found by key, the near ones only for the matches by name
+        Map<String, List<Integer>> osmStopsByCode = new HashMap<>();
+        Map<String, List<Integer>> osmStopsByGtfsId = new HashMap<>();
+        for (int i = 0; i < osmStopsList.size(); i++) {
+            OSMStop osmStop = osmStopsList.get(i);
+            if (osmStop.getCode() != null)
+                osmStopsByCode.computeIfAbsent(osmStop.getCode(), code -> new ArrayList<>()).add(i);
+            if (osmStop.getGtfsId() != null)
+                osmStopsByGtfsId.computeIfAbsent(osmStop.getGtfsId(), gtfsId -> new ArrayList<>()).add(i);
+        }
+
+        //the plugin isn't called from more threads, so the names of the GTFS stops are fixed before the parallel checks
+        String[] foldedGtfsStopNames = new String[gtfsStopsList.size()];
+        for (int i = 0; i < gtfsStopsList.size(); i++) {
+            foldedGtfsStopNames[i] = getFoldedName(gtfsStopsList.get(i));
+        }
+
+        //first the rules of match() are checked for all the pairs in parallel, as they only read the stops.
+        //only the OSM stops that can match the GTFS stop are checked, in the order of the list as the multiple matches depend on it
+        StopsPair[][] pairsByGtfsStop = new StopsPair[gtfsStopsList.size()][];
+        IntStream.range(0, gtfsStopsList.size()).parallel().forEach(i -> {
+            GTFSStop gtfsStop = gtfsStopsList.get(i);
+            List<StopsPair> pairs = new ArrayList<>();
+
+            for (int osmStopIndex : getCandidateIndexes(gtfsStop, osmStopsByCode, osmStopsByGtfsId, osmStopsIndex)) {
+                StopsPair pair = checkPair(gtfsStop, foldedGtfsStopNames[i], osmStopsList.get(osmStopIndex));
+                if (pair.rule != MatchRule.NO_MATCH)
+                    pairs.add(pair);
+            }
+            pairsByGtfsStop[i] = pairs.toArray(new StopsPair[0]);
+        });
 
+        //then the matches are applied in the order of the stops, with the same messages and multiple matches handling of a sequential check
         //TODO: consider inverting the for loops, first osmstops and then gtfsstops, so that we can integrate the second step of the cmdgeneratebusstopsimport there directly
-        for (GTFSStop gtfsStop : gtfsStopsList) {
+        for (int i = 0; i < gtfsStopsList.size(); i++) {
+            GTFSStop gtfsStop = gtfsStopsList.get(i);
+
+            for (StopsPair pair : pairsByGtfsStop[i]) {
+                OSMStop osmStop = pair.osmStop;
 
-            for (OSMStop osmStop : osmStopsList) {
+                //check the checkPair() function to understand the criteria used to consider whether the GTFS and OSM stops are the same or not
+                applyRule(gtfsStop, pair);
 
-                //check the match() function to understand the criteria used to consider whether the GTFS and OSM stops are the same or not
-                if (match(gtfsStop, osmStop)) {
+                if (pair.rule.matched) {
                     if (osmStop.getStopType().equals(OSMStopType.TRAM_STOP_POSITION)) { //todo: maybe add also a check for OSMStopType.PHYSICAL_TRAM_STOP ?
 
                         //we check for multiple matches for tram stops && bus stops, and we handle them based on how distant the current loop stop and the already matched stop are
@@ -34,7 +98,7 @@ public class MatchUtils {
                             System.out.println(ansi().render("@|red Current-matching OSM stop: |@" + osmStop));
                             System.out.println(ansi().render("@|red Already-matched OSM stop: |@" + gtfsStop.osmStopMatchedWith));
 
-                            double distanceBetweenCurrentStop = DistanceUtils.distVincenty(gtfsStop.getGeoPosition(), osmStop.getGeoPosition());
+                            double distanceBetweenCurrentStop = pair.distance;
                             double distanceBetweenAlreadyMatchedStop = DistanceUtils.distVincenty(gtfsStop.getGeoPosition(), gtfsStop.railwayStopMatchedWith.getGeoPosition());
 
                             if (distanceBetweenCurrentStop > distanceBetweenAlreadyMatchedStop) {
@@ -58,7 +122,7 @@ public class MatchUtils {
                             System.out.println(ansi().render("@|red Current-matching OSM stop: |@" + osmStop));
                             System.out.println(ansi().render("@|red Already-matched OSM stop: |@" + gtfsStop.osmStopMatchedWith));
 
-                            double distanceBetweenCurrentStop = DistanceUtils.distVincenty(gtfsStop.getGeoPosition(), osmStop.getGeoPosition());
+                            double distanceBetweenCurrentStop = pair.distance;
                             double distanceBetweenAlreadyMatchedStop = DistanceUtils.distVincenty(gtfsStop.getGeoPosition(), gtfsStop.osmStopMatchedWith.getGeoPosition());
 
                             //in case of multiple matching we check what stop is the closest one to the gtfs coordinates between the current loop stop and the already-matched stop
@@ -89,6 +153,42 @@ public class MatchUtils {
         }
     }
 
+    /**
+     * @return the indexes of the OSM stops that match() may consider the same stop of the GTFS stop, in ascending order:
+     * the ones with the same ref code or gtfs id, at any distance, and the ones near enough to be matched by name
+     */
+    private static int[] getCandidateIndexes(GTFSStop gtfsStop, Map<String, List<Integer>> osmStopsByCode, Map<String, List<Integer>> osmStopsByGtfsId, StopsGridIndex<OSMStop> osmStopsIndex) {
+        int[] nearOsmStops = osmStopsIndex.getCandidateIndexes(gtfsStop.getGeoPosition(), MAX_NAME_MATCH_DISTANCE);
+
+        List<Integer> sameCodeOsmStops = (gtfsStop.getCode() == null) ? null : osmStopsByCode.get(gtfsStop.getCode());
+        List<Integer> sameGtfsIdOsmStops = (gtfsStop.getGtfsId() == null) ? null : osmStopsByGtfsId.get(gtfsStop.getGtfsId());
+
+        if (sameCodeOsmStops == null && sameGtfsIdOsmStops == null)
+            return nearOsmStops;
+
+        int[] result = Arrays.copyOf(nearOsmStops, nearOsmStops.length + (sameCodeOsmStops == null ? 0 : sameCodeOsmStops.size()) + (sameGtfsIdOsmStops == null ? 0 : sameGtfsIdOsmStops.size()));
+        int count = nearOsmStops.length;
+        if (sameCodeOsmStops != null) {
+            for (int index : sameCodeOsmStops) {
+                result[count++] = index;
+            }
+        }
+        if (sameGtfsIdOsmStops != null) {
+            for (int index : sameGtfsIdOsmStops) {
+                result[count++] = index;
+            }
+        }
+        Arrays.sort(result);
+
+        //removes the duplicates, a stop can be in more than one of the lists
+        int unique = 0;
+        for (int i = 0; i < result.length; i++) {
+            if (unique == 0 || result[i] != result[unique - 1])
+                result[unique++] = result[i];
+        }
+        return Arrays.copyOf(result, unique);
+    }
+
     /***
      *
      * @param gtfsStop A GTFS stop
@@ -96,59 +196,62 @@ public class MatchUtils {
      * @return Returns whether the two stops are the same stop or not
      */
     public boolean match(GTFSStop gtfsStop, OSMStop osmStop) {
+        StopsPair pair = checkPair(gtfsStop, getFoldedName(gtfsStop), osmStop);
+        applyRule(gtfsStop, pair);
+
+        return pair.rule.matched;
+    }
+
+    /***
+     * Finds the rule that decides whether the two stops are the same stop or not, without printing anything or changing the stops,
+     * so it can be called from more threads
+     */
+    private StopsPair checkPair(GTFSStop gtfsStop, String foldedGtfsStopName, OSMStop osmStop) {
         int maxDist = 100;
 
+        boolean sameCode = osmStop.getCode() != null && osmStop.getCode().equals(gtfsStop.getCode());
+        boolean sameGtfsId = osmStop.getGtfsId() != null && gtfsStop.getGtfsId() != null && osmStop.getGtfsId().equals(gtfsStop.getGtfsId());
+
+        //apart from the revised stops with the same ref code and gtfs id, the stops farther than MAX_MATCH_DISTANCE never match
+        if (!(sameCode && sameGtfsId && osmStop.isRevised()) && !DistanceUtils.isWithinDistance(gtfsStop.getGeoPosition(), osmStop.getGeoPosition(), MAX_MATCH_DISTANCE))
+            return new StopsPair(osmStop, MatchRule.NO_MATCH, Double.NaN);
+
         double distanceBetween = DistanceUtils.distVincenty(gtfsStop.getGeoPosition(), osmStop.getGeoPosition());
-        String debugData = "GTFS Stop data: [" + gtfsStop + "] -> OSM Stop data: [" + osmStop + "], exact distance between: " + distanceBetween + " m";
 
-        if (osmStop.getCode() != null && osmStop.getCode().equals(gtfsStop.getCode())) {
+        if (sameCode) {
 
-            if (distanceBetween < maxDist || (osmStop.getGtfsId() != null && gtfsStop.getGtfsId() != null && osmStop.getGtfsId().equals(gtfsStop.getGtfsId()) && osmStop.isRevised())) {
+            if (distanceBetween < maxDist || (sameGtfsId && osmStop.isRevised())) {
                 //if the stops are less than maxDist far away (with only the ref code in common)
                 // OR (are already linked with gtfsid
                 // AND the OSM stop is already marked as revised)
                 // [if it has the tag that this tool creates during the import, because if the stop was already checked by a real person we know this is probably the real position of the stop.
                 // In other cases the stops can be gtfs-id-matched but the position could have been changed]
-                return true;
-            } else if (distanceBetween < 2000 && osmStop.getOperator() != null) {//if the operator is null and that stop is too distant then it could be of another bus company/operator. so we consider it as not matched (and we will need to remove it from any list later)
-                System.out.println(ansi().render("@|yellow Stop match: found too distant osm and gtfs stops / |@" + debugData));
-
-                //FIXME: we should remove this check and instead decide what to do with the stop positions that are associated to the physical stops (like move them or what during the stop gui review??)
-                if (osmStop.getStopType().equals(OSMStopType.PHYSICAL_BUS_STOP) || osmStop.getStopType().equals(OSMStopType.PHYSICAL_TRAM_STOP)) {
-                    osmStop.setNeedsPositionReview(true); //the position of the osm stop needs to be reviewed as it most probably may have changed
-                }
-
-                return true;
+                return new StopsPair(osmStop, MatchRule.SAME_REF, distanceBetween);
+            } else if (distanceBetween < MAX_MATCH_DISTANCE && osmStop.getOperator() != null) {//if the operator is null and that stop is too distant then it could be of another bus company/operator. so we consider it as not matched (and we will need to remove it from any list later)
+                return new StopsPair(osmStop, MatchRule.SAME_REF_DISTANT, distanceBetween);
             }
 
-        } else if (distanceBetween < 30 && osmStop.getGtfsId() != null && gtfsStop.getGtfsId() != null && osmStop.getGtfsId().equals(gtfsStop.getGtfsId())) {
+        } else if (distanceBetween < 30 && sameGtfsId) {
             //if the stops have different ref tag code, same gtfs_id and are less than 15m far away
-            System.out.println(ansi().render("@|yellow Warning: Stops with different ref-code tag but equal gtfs_id matched / |@" + debugData));
-
-            return true;
+            return new StopsPair(osmStop, MatchRule.SAME_GTFS_ID, distanceBetween);
 
         } else if (((gtfsStop.getStopType().equals(OSMStopType.PHYSICAL_SUBWAY_STOP) && osmStop.getStopType().equals(OSMStopType.PHYSICAL_SUBWAY_STOP))
                 || (gtfsStop.getStopType().equals(OSMStopType.PHYSICAL_TRAIN_STATION) && osmStop.getStopType().equals(OSMStopType.PHYSICAL_TRAIN_STATION)))
-                && distanceBetween < 200 && StringUtils.containsIgnoreCase(VariousUtils.removeAccents(osmStop.getName()), VariousUtils.removeAccents(GTFSImportSettings.getInstance().getPlugin().fixBusStopName(gtfsStop)))) {
+                && distanceBetween < 200 && StringUtils.containsIgnoreCase(getFoldedName(osmStop), foldedGtfsStopName)) {
             //for subway and train stations we consider the stops matched if they are less than 200m far away and have the same name
-
-            System.out.println(ansi().render("@|yellow Warning: Metro/train stop matched only with name / |@" + debugData));
-
-            return true;
+            return new StopsPair(osmStop, MatchRule.SAME_STATION_NAME, distanceBetween);
 
         } else if (osmStop.getGtfsId() == null && osmStop.getCode() == null
                 && (osmStop.getStopType().equals(OSMStopType.PHYSICAL_BUS_STOP) || osmStop.getStopType().equals(OSMStopType.PHYSICAL_TRAM_STOP))
                 && (gtfsStop.getStopType().equals(OSMStopType.PHYSICAL_BUS_STOP) || gtfsStop.getStopType().equals(OSMStopType.PHYSICAL_TRAM_STOP))
-                && distanceBetween < 50 && StringUtils.equalsIgnoreCase(VariousUtils.removeAccents(osmStop.getName()), VariousUtils.removeAccents(GTFSImportSettings.getInstance().getPlugin().fixBusStopName(gtfsStop)))) {
+                && distanceBetween < 50 && StringUtils.equalsIgnoreCase(getFoldedName(osmStop), foldedGtfsStopName)) {
             //remove accents from the osm stop name and try matching it with the gtfs stop name (some GTFS stops have accents, some don't)
 
             //check if in the range of 50m there is another stop with the same name
-            var nearbyStops = StopsUtils.getNearbyStops(osmStop, 50, this.globalOsmStopsList);
+            var nearbyStops = StopsUtils.getNearbyStops(osmStop, 50, this.globalOsmStopsIndex);
 
             if (isAmbiguousNearbyStopPresent(nearbyStops, osmStop)) {
-                System.out.println(ansi().render("@|yellow Warning: Stops with same name not matched as nearby stops have that name also / |@" + debugData));
-
-                return false;
+                return new StopsPair(osmStop, MatchRule.AMBIGUOUS_NAME, distanceBetween);
             }else if (nearbyStops.size() >= 1) {//this means that there are other stops with data that *could* correspond to gtfs data
 
                 for (OSMStop nearbyStop : nearbyStops) {
@@ -157,20 +260,78 @@ public class MatchUtils {
                         //if a nearby stop has the same gtfs_id or code of GTFS data then we don't match the current main-loop osmstop
 
                         //TODO: consider uncommenting this output only when inverting the loop gtfs/osm up there
-                        //System.out.println(ansi().render("@|yellow Warning: Stops with same name not matched as nearby stops have that name also / |@" + debugData));
+                        //System.out.println(ansi().render("@|yellow Warning: Stops with same name not matched as nearby stops have that name also / |@" + debugData(gtfsStop, osmStop, distanceBetween)));
 
-                        return false;
+                        return new StopsPair(osmStop, MatchRule.NO_MATCH, distanceBetween);
                     }
                 }
 
-                System.out.println(ansi().render("@|yellow Warning: Stops with same name matched / |@" + debugData));
-
-                return true;
+                return new StopsPair(osmStop, MatchRule.SAME_NAME, distanceBetween);
             }
 
         }
 
-        return false;
+        return new StopsPair(osmStop, MatchRule.NO_MATCH, distanceBetween);
+    }
+
+    //prints the message of the rule and marks the stops to review, as the match() checks did
+    private static void applyRule(GTFSStop gtfsStop, StopsPair pair) {
+        if (pair.rule.message != null)
+            System.out.println(ansi().render(pair.rule.message + debugData(gtfsStop, pair.osmStop, pair.distance)));
+
+        //FIXME: we should remove this check and instead decide what to do with the stop positions that are associated to the physical stops (like move them or what during the stop gui review??)
+        if (pair.rule == MatchRule.SAME_REF_DISTANT && (pair.osmStop.getStopType().equals(OSMStopType.PHYSICAL_BUS_STOP) || pair.osmStop.getStopType().equals(OSMStopType.PHYSICAL_TRAM_STOP))) {
+            pair.osmStop.setNeedsPositionReview(true); //the position of the osm stop needs to be reviewed as it most probably may have changed
+        }
+    }
+
+    //the stops are converted to string only for the pairs that are printed
+    private static String debugData(GTFSStop gtfsStop, OSMStop osmStop, double distanceBetween) {
+        return "GTFS Stop data: [" + gtfsStop + "] -> OSM Stop data: [" + osmStop + "], exact distance between: " + distanceBetween + " m";
+    }
+
+    private String getFoldedName(OSMStop osmStop) {
+        //the stops of the lists given to doStopsMatching are in the map
+        String foldedName = foldedOsmStopNames.get(osmStop);
+        return (foldedName != null || foldedOsmStopNames.containsKey(osmStop)) ? foldedName : VariousUtils.removeAccents(osmStop.getName());
+    }
+
+    //the name fixed by the plugin and without accents, compared with the folded names of the OSM stops
+    private static String getFoldedName(GTFSStop gtfsStop) {
+        return VariousUtils.removeAccents(GTFSImportSettings.getInstance().getPlugin().fixBusStopName(gtfsStop));
+    }
+
+    /***
+     * The rules that decide whether two stops are the same stop, with the message printed when they're applied
+     */
+    private enum MatchRule {
+        SAME_REF(true, null),
+        SAME_REF_DISTANT(true, "@|yellow Stop match: found too distant osm and gtfs stops / |@"),
+        SAME_GTFS_ID(true, "@|yellow Warning: Stops with different ref-code tag but equal gtfs_id matched / |@"),
+        SAME_STATION_NAME(true, "@|yellow Warning: Metro/train stop matched only with name / |@"),
+        SAME_NAME(true, "@|yellow Warning: Stops with same name matched / |@"),
+        AMBIGUOUS_NAME(false, "@|yellow Warning: Stops with same name not matched as nearby stops have that name also / |@"),
+        NO_MATCH(false, null);
+
+        private final boolean matched;
+        private final String message;
+
+        MatchRule(boolean matched, String message) {
+            this.matched = matched;
+            this.message = message;
+        }
+    }
+
+    private static class StopsPair {
+        private final OSMStop osmStop;
+        private final MatchRule rule;
+        private final double distance;
+
+        private StopsPair(OSMStop osmStop, MatchRule rule, double distance) {
+            this.osmStop = osmStop;
+            this.rule = rule;
+            this.distance = distance;
+        }
     }
 
     public boolean isAmbiguousNearbyStopPresent(List<OSMStop> nearbyStops, OSMStop mainOsmStop) {
@@ -178,7 +339,7 @@ public class MatchUtils {
         for (OSMStop nearbyStop : nearbyStops) {
             if (nearbyStop.getGtfsId() == null && nearbyStop.getCode() == null
                     && (nearbyStop.getStopType().equals(OSMStopType.PHYSICAL_BUS_STOP) || nearbyStop.getStopType().equals(OSMStopType.PHYSICAL_TRAM_STOP))
-                    && StringUtils.equalsIgnoreCase(VariousUtils.removeAccents(nearbyStop.getName()), mainOsmStop.getName())) {
+                    && StringUtils.equalsIgnoreCase(getFoldedName(nearbyStop), mainOsmStop.getName())) {
                 return true;
             }
         }
@@ -0,0 +1,463 @@
+/**
+ * Licensed under the GNU General Public License version 3
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.gnu.org/licenses/gpl-3.0.html
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package it.osm.gtfs.utils;
+
+import it.osm.gtfs.models.OSMIdDictionary;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.*;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/***
+ * This class contains methods to process OSM XML files in streaming, without loading them in memory
+ */
+public class OSMFileUtils {
+    private static final QName ID_ATTRIBUTE = new QName("id");
+    private static final QName VERSION_ATTRIBUTE = new QName("version");
+
+    private static final int TYPE_NODE = 0;
+    private static final int TYPE_WAY = 1;
+    private static final int TYPE_RELATION = 2;
+
+    /**
+     * Copies the OSM file to the output file without the relations with the given ids, in a single pass
+     */
+    public static void removeRelations(File input, File output, Set<String> relationIds) throws IOException, XMLStreamException {
+        copyWithoutElements(input, output, element -> isElementWithId(element, "relation", relationIds));
+    }
+
+    /**
+     * Copies the OSM file to the output file keeping only the ways that are members of a relation,
+     * and the nodes that are members of a relation or are part of one of those ways (like the used-way and used-node tasks of Osmosis).
+     * The file is read three times: for the relations members, for the nodes of the used ways and for the copy.
+     */
+    public static void removeUnusedWaysAndNodes(File input, File output) throws IOException, XMLStreamException {
+        OSMIdDictionary usedWays = new OSMIdDictionary();
+        OSMIdDictionary usedNodes = new OSMIdDictionary();
+
+        //relations members
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(input))) {
+            XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(inputStream);
+
+            boolean inRelation = false;
+
+            while (reader.hasNext()) {
+                int event = reader.next();
+
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = reader.getLocalName();
+
+                    if (name.equals("relation")) {
+                        inRelation = true;
+                    } else if (inRelation && name.equals("member")) {
+                        String type = reader.getAttributeValue(null, "type");
+
+                        if ("way".equals(type)) {
+                            usedWays.getOrAdd(Long.parseLong(reader.getAttributeValue(null, "ref")));
+                        } else if ("node".equals(type)) {
+                            usedNodes.getOrAdd(Long.parseLong(reader.getAttributeValue(null, "ref")));
+                        }
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("relation")) {
+                    inRelation = false;
+                }
+            }
+
+            reader.close();
+        }
+
+        //nodes of the used ways
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(input))) {
+            XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(inputStream);
+
+            boolean inUsedWay = false;
+
+            while (reader.hasNext()) {
+                int event = reader.next();
+
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = reader.getLocalName();
+
+                    if (name.equals("way")) {
+                        inUsedWay = usedWays.get(Long.parseLong(reader.getAttributeValue(null, "id"))) != OSMIdDictionary.NO_ID;
+                    } else if (inUsedWay && name.equals("nd")) {
+                        usedNodes.getOrAdd(Long.parseLong(reader.getAttributeValue(null, "ref")));
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("way")) {
+                    inUsedWay = false;
+                }
+            }
+
+            reader.close();
+        }
+
+        copyWithoutElements(input, output, element -> {
+            String name = element.getName().getLocalPart();
+
+            if (name.equals("way"))
+                return usedWays.get(getId(element)) == OSMIdDictionary.NO_ID;
+            if (name.equals("node"))
+                return usedNodes.get(getId(element)) == OSMIdDictionary.NO_ID;
+
+            return false;
+        });
+    }
+
+    /**
+     * Merges OSM files sorted by entity type (nodes, ways, relations) and id into a single sorted file, with a k-way merge
+     * that keeps only the current entity of every file in memory.
+     * When the same entity is in more than one file the one with the highest version is kept, or the one of the first file if the versions are the same.
+     * The bounds of the output file are the union of the bounds of the input files, if all of them have one.
+     *
+     * @throws IOException if one of the files is not sorted
+     */
+    public static void mergeSortedFiles(List<File> inputs, File output) throws IOException, XMLStreamException {
+        XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+        List<SortedEntityReader> readers = new ArrayList<>();
+
+        try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(output))) {
+            for (File input : inputs) {
+                readers.add(new SortedEntityReader(input, readers.size(), inputFactory));
+            }
+
+            XMLEventFactory eventFactory = XMLEventFactory.newInstance();
+            XMLEventWriter writer = XMLOutputFactory.newInstance().createXMLEventWriter(outputStream, "UTF-8");
+
+            writer.add(eventFactory.createStartDocument("UTF-8", "1.0"));
+            writer.add(eventFactory.createCharacters("\n"));
+            writer.add(eventFactory.createStartElement("", "", "osm"));
+            writer.add(eventFactory.createAttribute("version", "0.6"));
+            writer.add(eventFactory.createAttribute("generator", "GTFSOSMImport"));
+
+            writeMergedBounds(readers, writer, eventFactory);
+
+            PriorityQueue<SortedEntityReader> queue = new PriorityQueue<>();
+            for (SortedEntityReader reader : readers) {
+                if (reader.hasEntity())
+                    queue.add(reader);
+            }
+
+            List<SortedEntityReader> sameEntityReaders = new ArrayList<>();
+
+            while (!queue.isEmpty()) {
+                //the readers are ordered by entity and then by file, so the first one is kept if no other file has a higher version
+                SortedEntityReader selectedReader = queue.poll();
+                sameEntityReaders.add(selectedReader);
+
+                while (!queue.isEmpty() && queue.peek().hasSameEntity(selectedReader)) {
+                    SortedEntityReader reader = queue.poll();
+                    sameEntityReaders.add(reader);
+
+                    if (reader.getVersion() > selectedReader.getVersion())
+                        selectedReader = reader;
+                }
+
+                writer.add(eventFactory.createCharacters("\n  "));
+
+                for (SortedEntityReader reader : sameEntityReaders) {
+                    if (reader == selectedReader)
+                        reader.copyEntity(writer);
+                    else
+                        reader.skipEntity();
+
+                    if (reader.nextEntity())
+                        queue.add(reader);
+                }
+
+                sameEntityReaders.clear();
+            }
+
+            writer.add(eventFactory.createCharacters("\n"));
+            writer.add(eventFactory.createEndElement("", "", "osm"));
+            writer.add(eventFactory.createCharacters("\n"));
+            writer.add(eventFactory.createEndDocument());
+            writer.close();
+        } finally {
+            for (SortedEntityReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    private static void writeMergedBounds(List<SortedEntityReader> readers, XMLEventWriter writer, XMLEventFactory eventFactory) throws XMLStreamException {
+        if (readers.isEmpty())
+            return;
+
+        double minLat = Double.MAX_VALUE;
+        double minLon = Double.MAX_VALUE;
+        double maxLat = -Double.MAX_VALUE;
+        double maxLon = -Double.MAX_VALUE;
+
+        for (SortedEntityReader reader : readers) {
+            StartElement bounds = reader.getBounds();
+
+            //like osmosis, the bounds are written only if they're known for all the files
+            if (bounds == null)
+                return;
+
+            minLat = Math.min(minLat, Double.parseDouble(bounds.getAttributeByName(new QName("minlat")).getValue()));
+            minLon = Math.min(minLon, Double.parseDouble(bounds.getAttributeByName(new QName("minlon")).getValue()));
+            maxLat = Math.max(maxLat, Double.parseDouble(bounds.getAttributeByName(new QName("maxlat")).getValue()));
+            maxLon = Math.max(maxLon, Double.parseDouble(bounds.getAttributeByName(new QName("maxlon")).getValue()));
+        }
+
+        writer.add(eventFactory.createCharacters("\n  "));
+        writer.add(eventFactory.createStartElement("", "", "bounds"));
+        writer.add(eventFactory.createAttribute("minlat", String.valueOf(minLat)));
+        writer.add(eventFactory.createAttribute("minlon", String.valueOf(minLon)));
+        writer.add(eventFactory.createAttribute("maxlat", String.valueOf(maxLat)));
+        writer.add(eventFactory.createAttribute("maxlon", String.valueOf(maxLon)));
+
+        Attribute origin = readers.get(0).getBounds().getAttributeByName(new QName("origin"));
+        if (origin != null)
+            writer.add(eventFactory.createAttribute("origin", origin.getValue()));
+
+        writer.add(eventFactory.createEndElement("", "", "bounds"));
+    }
+
+    /**
+     * Copies the OSM file to the output file, skipping the elements (and all their children) for which the filter returns true
+     */
+    private static void copyWithoutElements(File input, File output, Predicate<StartElement> skipElement) throws IOException, XMLStreamException {
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(input));
+             OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(output))) {
+
+            XMLEventReader reader = XMLInputFactory.newInstance().createXMLEventReader(inputStream);
+            XMLEventWriter writer = XMLOutputFactory.newInstance().createXMLEventWriter(outputStream, "UTF-8");
+
+            //the depth inside the element we're skipping, 0 if we're not skipping any element
+            int skippedDepth = 0;
+
+            //the indentation before an element is written only if the element isn't skipped, to avoid leaving empty lines
+            XMLEvent pendingWhitespace = null;
+
+            while (reader.hasNext()) {
+                XMLEvent event = reader.nextEvent();
+
+                if (skippedDepth > 0) {
+                    if (event.isStartElement())
+                        skippedDepth++;
+                    else if (event.isEndElement())
+                        skippedDepth--;
+
+                    continue;
+                }
+
+                if (event.isCharacters() && event.asCharacters().isWhiteSpace()) {
+                    if (pendingWhitespace != null)
+                        writer.add(pendingWhitespace);
+
+                    pendingWhitespace = event;
+                    continue;
+                }
+
+                if (event.isStartElement() && skipElement.test(event.asStartElement())) {
+                    skippedDepth = 1;
+                    pendingWhitespace = null;
+                    continue;
+                }
+
+                if (pendingWhitespace != null) {
+                    writer.add(pendingWhitespace);
+                    pendingWhitespace = null;
+                }
+
+                writer.add(event);
+            }
+
+            if (pendingWhitespace != null)
+                writer.add(pendingWhitespace);
+
+            writer.close();
+            reader.close();
+        }
+    }
+
+    private static boolean isElementWithId(StartElement element, String elementName, Set<String> ids) {
+        if (!element.getName().getLocalPart().equals(elementName))
+            return false;
+
+        Attribute id = element.getAttributeByName(ID_ATTRIBUTE);
+        return id != null && ids.contains(id.getValue());
+    }
+
+    private static long getId(StartElement element) {
+        return Long.parseLong(element.getAttributeByName(ID_ATTRIBUTE).getValue());
+    }
+
+    private static int getEntityType(String elementName) {
+        return switch (elementName) {
+            case "node" -> TYPE_NODE;
+            case "way" -> TYPE_WAY;
+            case "relation" -> TYPE_RELATION;
+            default -> -1;
+        };
+    }
+
+    /***
+     * Reads the entities of a sorted OSM file one at a time, the reader is positioned on the start element of the current entity
+     */
+    private static class SortedEntityReader implements Comparable<SortedEntityReader> {
+        private final File file;
+        private final int fileIndex;
+        private final InputStream inputStream;
+        private final XMLEventReader reader;
+
+        private StartElement bounds;
+
+        private StartElement currentEntity;
+        private int currentType;
+        private long currentId;
+        private int currentVersion;
+
+        private SortedEntityReader(File file, int fileIndex, XMLInputFactory inputFactory) throws IOException, XMLStreamException {
+            this.file = file;
+            this.fileIndex = fileIndex;
+            this.inputStream = new BufferedInputStream(new FileInputStream(file));
+            this.reader = inputFactory.createXMLEventReader(inputStream);
+
+            nextEntity();
+        }
+
+        private StartElement getBounds() {
+            return bounds;
+        }
+
+        private boolean hasEntity() {
+            return currentEntity != null;
+        }
+
+        private int getVersion() {
+            return currentVersion;
+        }
+
+        private boolean hasSameEntity(SortedEntityReader other) {
+            return currentType == other.currentType && currentId == other.currentId;
+        }
+
+        /**
+         * Moves to the next entity of the file, skipping the other elements (like the bounds, or the note and meta elements of overpass)
+         *
+         * @return false if the end of the file has been reached
+         */
+        private boolean nextEntity() throws IOException, XMLStreamException {
+            int previousType = currentType;
+            long previousId = currentId;
+            boolean hadEntity = currentEntity != null;
+
+            currentEntity = null;
+
+            //the depth inside the root osm element
+            int depth = 0;
+
+            while (reader.hasNext()) {
+                XMLEvent event = reader.nextEvent();
+
+                if (event.isStartElement()) {
+                    StartElement element = event.asStartElement();
+                    String name = element.getName().getLocalPart();
+
+                    if (name.equals("osm")) {
+                        continue;
+                    }
+
+                    int type = getEntityType(name);
+
+                    if (depth == 0 && type != -1) {
+                        currentEntity = element;
+                        currentType = type;
+                        currentId = getId(element);
+
+                        Attribute version = element.getAttributeByName(VERSION_ATTRIBUTE);
+                        currentVersion = version != null ? Integer.parseInt(version.getValue()) : 0;
+
+                        if (hadEntity && (currentType < previousType || (currentType == previousType && currentId <= previousId))) {
+                            throw new IOException("The file " + file.getName() + " is not sorted by entity type and id: " + name + " " + currentId + " found after " + previousId);
+                        }
+
+                        return true;
+                    }
+
+                    if (depth == 0 && (name.equals("bounds") || name.equals("bound")) && bounds == null) {
+                        bounds = element;
+                    }
+
+                    depth++;
+                } else if (event.isEndElement() && depth > 0) {
+                    depth--;
+                }
+            }
+
+            return false;
+        }
+
+        private void copyEntity(XMLEventWriter writer) throws XMLStreamException {
+            writer.add(currentEntity);
+
+            int depth = 1;
+
+            while (depth > 0) {
+                XMLEvent event = reader.nextEvent();
+
+                if (event.isStartElement())
+                    depth++;
+                else if (event.isEndElement())
+                    depth--;
+
+                writer.add(event);
+            }
+        }
+
+        private void skipEntity() throws XMLStreamException {
+            int depth = 1;
+
+            while (depth > 0) {
+                XMLEvent event = reader.nextEvent();
+
+                if (event.isStartElement())
+                    depth++;
+                else if (event.isEndElement())
+                    depth--;
+            }
+        }
+
+        private void close() throws IOException {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                throw new IOException(e);
+            } finally {
+                inputStream.close();
+            }
+        }
+
+        @Override
+        public int compareTo(SortedEntityReader other) {
+            if (currentType != other.currentType)
+                return Integer.compare(currentType, other.currentType);
+            if (currentId != other.currentId)
+                return Long.compare(currentId, other.currentId);
+
+            return Integer.compare(fileIndex, other.fileIndex);
+        }
+    }
+}
@@ -13,10 +13,9 @@
  **/
 package it.osm.gtfs.utils;
 
+import it.osm.gtfs.models.OSMXMLNode;
 import it.osm.gtfs.output.IElementCreator;
 import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
@@ -26,54 +25,38 @@ import java.time.format.DateTimeFormatter;
  */
 public class OSMXMLUtils {
 
-    public static void addTagAndValue(Element node, String key, String value) {
+    public static void addTagAndValue(OSMXMLNode node, String key, String value) {
         addOSMModifyActionAttribute(node);
 
-        Element e = node.getOwnerDocument().createElement("tag");
-        e.setAttribute("k", key);
-        e.setAttribute("v", value);
-        node.appendChild(e);
+        node.addTag(key, value);
     }
 
-    public static void addOrReplaceTagValue(Element node, String key, String value) {
-        Element tag = getTagElement(node, key);
+    public static void addOrReplaceTagValue(OSMXMLNode node, String key, String value) {
+        int tag = node.indexOfTag(key);
 
-        if (tag == null) {
+        if (tag == -1) {
             addTagAndValue(node, key, value);
         } else {
 
-            tag.setAttribute("v", value);
+            node.setTagValue(tag, value);
         }
 
         addOSMModifyActionAttribute(node);
     }
 
-    public static void addTagIfNotExisting(Element node, String key, String value) {
-        if (getTagElement(node, key) == null) {
+    public static void addTagIfNotExisting(OSMXMLNode node, String key, String value) {
+        if (node.indexOfTag(key) == -1) {
             addTagAndValue(node, key, value);
 
             addOSMModifyActionAttribute(node);
         }
     }
 
-    private static Element getTagElement(Element node, String key) {
-        NodeList childs = node.getChildNodes();
-        for (int t = 0; t < childs.getLength(); t++) {
-            Node attNode = childs.item(t);
-            if (attNode.getAttributes() != null) {
-                if (attNode.getAttributes().getNamedItem("k").getNodeValue().equalsIgnoreCase(key)) { //check if the key equals without case check
-                    return (Element) attNode;
-                }
-            }
-        }
-        return null;
-    }
+    public static String getTagValue(OSMXMLNode node, String key) {
+        int tag = node.indexOfTag(key);
 
-    public static String getTagValue(Element node, String key) {
-        Element attNode = getTagElement(node, key);
-
-        if (attNode != null) {
-            return attNode.getNodeValue();
+        if (tag != -1) {
+            return node.getTagValue(tag);
         }
 
         return null;
@@ -86,42 +69,44 @@ public class OSMXMLUtils {
         return tag;
     }
 
-    public static void addOSMModifyActionAttribute(Element node) {
+    public static void addOSMModifyActionAttribute(OSMXMLNode node) {
         node.setAttribute("action", "modify");
     }
 
-    public static void addOSMDeleteActionAttribute(Element node) {
+    public static void addOSMDeleteActionAttribute(OSMXMLNode node) {
         //node.setAttribute("action", "delete");
     }
 
     //TODO: probably we should move this method to the StopUtils class
-    public static void markDisused(Element node) {
-        var tagElementHighway = getTagElement(node, "highway");
-        var tagElementRailway = getTagElement(node, "railway");
-        var tagElementPublicTransport = getTagElement(node, "public_transport");
+    public static void markDisused(OSMXMLNode node) {
+        var tagHighway = node.indexOfTag("highway");
+        var tagRailway = node.indexOfTag("railway");
+        var tagPublicTransport = node.indexOfTag("public_transport");
 
-        if (tagElementHighway != null || tagElementRailway != null || tagElementPublicTransport != null) {
+        if (tagHighway != -1 || tagRailway != -1 || tagPublicTransport != -1) {
             addOSMModifyActionAttribute(node);
 
             if (GTFSImportSettings.getInstance().useRevisedKey()) {
                 removeOldRevisedTag(node); //we remove old Turin-specific revised tags
                 addOrReplaceTagValue(node, GTFSImportSettings.REVISED_KEY, "no");
+
+                //the old revised tag could have been before the tags we found
+                tagHighway = node.indexOfTag("highway");
+                tagRailway = node.indexOfTag("railway");
+                tagPublicTransport = node.indexOfTag("public_transport");
             }
         }
 
-        if (tagElementHighway != null) {
-            //node.removeChild(tagElementHighway);
-            tagElementHighway.setAttribute("k", "disused:highway");
+        if (tagHighway != -1) {
+            node.setTagKey(tagHighway, "disused:highway");
         }
 
-        if (tagElementRailway != null) {
-            //node.removeChild(tagElementRailway);
-            tagElementRailway.setAttribute("k", "disused:railway");
+        if (tagRailway != -1) {
+            node.setTagKey(tagRailway, "disused:railway");
         }
 
-        if (tagElementPublicTransport != null) {
-            //node.removeChild(tagElementPublicTransport);
-            tagElementPublicTransport.setAttribute("k", "disused:public_transport");
+        if (tagPublicTransport != -1) {
+            node.setTagKey(tagPublicTransport, "disused:public_transport");
         }
 
         LocalDateTime current = LocalDateTime.now();
@@ -135,29 +120,23 @@ public class OSMXMLUtils {
         addOrReplaceTagValue(node, "note:disused", disusedNote);
     }
 
-    public static void unmarkDisused(Element node) {
-        NodeList childNodes = node.getChildNodes();
-
-        for (int t = 0; t < childNodes.getLength(); t++) {
-            Node attNode = childNodes.item(t);
-            if (attNode.getAttributes() != null) {
-
-                String attNodeKeyValue = attNode.getAttributes().getNamedItem("k").getNodeValue();
+    public static void unmarkDisused(OSMXMLNode node) {
+        for (int t = 0; t < node.getTagsCount(); t++) {
+            String tagKey = node.getTagKey(t);
 
-                if (attNodeKeyValue.startsWith("disused:")) {
-                    attNode.getAttributes().getNamedItem("k").setNodeValue(attNodeKeyValue.replace("disused:", ""));
-                }
+            if (tagKey.startsWith("disused:")) {
+                node.setTagKey(t, tagKey.replace("disused:", ""));
             }
         }
 
         addOSMModifyActionAttribute(node);
     }
 
-    public static void removeOldRevisedTag(Element node) {
-        var oldtag1 = getTagElement(node, "GTT:Revised");
+    public static void removeOldRevisedTag(OSMXMLNode node) {
+        var oldtag1 = node.indexOfTag("GTT:Revised");
 
-        if (oldtag1 != null)
-            node.removeChild(oldtag1);
+        if (oldtag1 != -1)
+            node.removeTag(oldtag1);
 
     }
 }
@@ -0,0 +1,118 @@
+/**
+ * Licensed under the GNU General Public License version 3
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.gnu.org/licenses/gpl-3.0.html
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package it.osm.gtfs.utils;
+
+import org.apache.commons.httpclient.util.URIUtil;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/***
+ * Downloads the results of Overpass queries in background, with at most maxConcurrentRequests requests running at the same time
+ * (the public Overpass servers give a limited number of request slots to every client) and at least requestInterval milliseconds between the start of two requests.
+ * Every response is written directly to its file.
+ */
+public class OverpassDownloadScheduler implements Closeable {
+    private final String overpassApiServer;
+    private final long requestInterval;
+    private final ExecutorService executor;
+
+    //the time when the next request is allowed to start
+    private long nextRequestStart = 0;
+
+    public OverpassDownloadScheduler(String overpassApiServer, int maxConcurrentRequests, long requestInterval) {
+        this.overpassApiServer = overpassApiServer;
+        this.requestInterval = requestInterval;
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(maxConcurrentRequests, runnable -> {
+            Thread thread = new Thread(runnable, "overpass-download-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Creates a scheduler with the Overpass server and the limits of the properties file
+     */
+    public static OverpassDownloadScheduler fromSettings() {
+        GTFSImportSettings settings = GTFSImportSettings.getInstance();
+        return new OverpassDownloadScheduler(settings.getOverpassApiServer(), settings.getOverpassMaxConcurrentRequests(), settings.getOverpassRequestInterval());
+    }
+
+    /**
+     * Schedules the download of the result of the query to the destination file
+     *
+     * @param query the Overpass query, it gets encoded and appended to the server url
+     */
+    public Download download(String query, File dest) throws IOException {
+        String url = overpassApiServer + URIUtil.encodeQuery(query);
+
+        return new Download(executor.submit(() -> {
+            waitForRequestSlot();
+            DownloadUtils.download(url, dest, false);
+            return dest;
+        }));
+    }
+
+    private void waitForRequestSlot() throws InterruptedException {
+        long requestStart;
+
+        synchronized (this) {
+            requestStart = Math.max(System.currentTimeMillis(), nextRequestStart);
+            nextRequestStart = requestStart + requestInterval;
+        }
+
+        long waitTime = requestStart - System.currentTimeMillis();
+        if (waitTime > 0)
+            Thread.sleep(waitTime);
+    }
+
+    /**
+     * Stops the downloads that are still running or waiting
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /***
+     * A scheduled download, get() waits for the download to be completed
+     */
+    public static class Download {
+        private final Future<File> future;
+
+        private Download(Future<File> future) {
+            this.future = future;
+        }
+
+        /**
+         * @return the downloaded file
+         */
+        public File get() throws IOException, InterruptedException {
+            try {
+                return future.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException)
+                    throw (IOException) e.getCause();
+                if (e.getCause() instanceof InterruptedException)
+                    throw (InterruptedException) e.getCause();
+                throw new IllegalStateException("Failed to download the Overpass data", e.getCause());
+            }
+        }
+    }
+}
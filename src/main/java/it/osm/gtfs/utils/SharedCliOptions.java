@@ -2,6 +2,9 @@ package it.osm.gtfs.utils;
 
 import picocli.CommandLine;
 
+import java.time.LocalDate;
+import java.util.List;
+
 @CommandLine.Command()
 public class SharedCliOptions {
     //variables in the case of this tool should be static as multiple commands that use a shared variable are called consequently sometimes, and creating a new instance of this class everytime loses the value of these variables
@@ -11,4 +14,16 @@ public class SharedCliOptions {
 
     @CommandLine.Option(names = {"-o", "--onlybus"}, description = "Do not consider subway/metro/train stops, but only bus/tram stops")
     public static boolean onlyBusStops = false;
+
+    @CommandLine.Option(names = {"-p", "--parallel"}, description = "Parse the GTFS stop_times.txt file in parallel using all the available CPU cores, when the snapshot of the feed is created or if the feed has no snapshot")
+    public static boolean parallelParsing = false;
+
+    @CommandLine.Option(names = {"-r", "--routes"}, split = ",", description = "Read only the GTFS routes with these route_id or route_short_name values (comma separated), the trips, stop times and shapes of the other routes are skipped while parsing")
+    public static List<String> selectedRoutes = null;
+
+    @CommandLine.Option(names = {"-df", "--datefrom"}, description = "Read only the GTFS trips whose service runs in at least one day from this date (yyyy-MM-dd), according to calendar.txt and calendar_dates.txt")
+    public static LocalDate activeFromDate = null;
+
+    @CommandLine.Option(names = {"-dt", "--dateto"}, description = "Read only the GTFS trips whose service runs in at least one day until this date (yyyy-MM-dd), according to calendar.txt and calendar_dates.txt")
+    public static LocalDate activeToDate = null;
 }
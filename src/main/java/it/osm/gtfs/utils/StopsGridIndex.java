@@ -0,0 +1,145 @@
+/**
+ * Licensed under the GNU General Public License version 3
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.gnu.org/licenses/gpl-3.0.html
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package it.osm.gtfs.utils;
+
+import it.osm.gtfs.models.Stop;
+import org.jxmapviewer.viewer.GeoPosition;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/***
+ * Grid index of the positions of a list of stops, to find the stops near a position without computing the distance to every stop.
+ * The stops are bucketed in square cells (in degrees) of about the given size, and a search returns all the stops of the cells
+ * that overlap the bounding box of the searched circle: the result can contain stops farther than the radius, so the callers still
+ * check the exact distance, but it never misses a stop within the radius.
+ */
+public class StopsGridIndex<T extends Stop> {
+    private final List<T> stops;
+    private final double cellSize;
+    private final int minLatCell, minLonCell, latCells, lonCells;
+
+    //(cell << 32 | index of the stop in the list), sorted, so the stops of a row of cells are contiguous
+    private final long[] entries;
+
+    /**
+     * @param cellSizeMeters the size of the cells, usually the radius of the searches
+     */
+    public StopsGridIndex(List<T> stops, double cellSizeMeters) {
+        this.stops = stops;
+
+        double minLat = Double.MAX_VALUE, maxLat = -Double.MAX_VALUE, minLon = Double.MAX_VALUE, maxLon = -Double.MAX_VALUE;
+        for (T stop : stops) {
+            minLat = Math.min(minLat, stop.getGeoPosition().getLatitude());
+            maxLat = Math.max(maxLat, stop.getGeoPosition().getLatitude());
+            minLon = Math.min(minLon, stop.getGeoPosition().getLongitude());
+            maxLon = Math.max(maxLon, stop.getGeoPosition().getLongitude());
+        }
+
+        if (stops.isEmpty()) {
+            minLat = maxLat = minLon = maxLon = 0;
+        }
+
+        //the cells are numbered from the bounding box of the stops, and they're made larger if they wouldn't fit in an int
+        double size = cellSizeMeters / DistanceUtils.MIN_METERS_PER_DEGREE;
+        while ((long) (Math.floor(maxLat / size) - Math.floor(minLat / size) + 1) * (long) (Math.floor(maxLon / size) - Math.floor(minLon / size) + 1) > Integer.MAX_VALUE) {
+            size *= 2;
+        }
+
+        this.cellSize = size;
+        this.minLatCell = (int) Math.floor(minLat / size);
+        this.minLonCell = (int) Math.floor(minLon / size);
+        this.latCells = (int) Math.floor(maxLat / size) - minLatCell + 1;
+        this.lonCells = (int) Math.floor(maxLon / size) - minLonCell + 1;
+
+        entries = new long[stops.size()];
+        for (int i = 0; i < entries.length; i++) {
+            GeoPosition geoPosition = stops.get(i).getGeoPosition();
+            long cell = (long) (latCell(geoPosition.getLatitude()) - minLatCell) * lonCells + (lonCell(geoPosition.getLongitude()) - minLonCell);
+            entries[i] = cell << 32 | i;
+        }
+        Arrays.sort(entries);
+    }
+
+    /**
+     * @return the indexes in the list of the stops that may be within the radius from the position, in ascending order
+     */
+    public int[] getCandidateIndexes(GeoPosition center, double radiusMeters) {
+        double deltaLat = radiusMeters / DistanceUtils.MIN_METERS_PER_DEGREE;
+        double maxAbsLat = Math.min(Math.abs(center.getLatitude()) + deltaLat, 90);
+        double deltaLon = radiusMeters / (DistanceUtils.MIN_METERS_PER_DEGREE * Math.cos(Math.toRadians(maxAbsLat)));
+
+        int fromLatCell = Math.max(latCell(center.getLatitude() - deltaLat) - minLatCell, 0);
+        int toLatCell = Math.min(latCell(center.getLatitude() + deltaLat) - minLatCell, latCells - 1);
+
+        int fromLonCell, toLonCell;
+        if (center.getLongitude() - deltaLon < -180 || center.getLongitude() + deltaLon > 180 || Double.isNaN(deltaLon)) {
+            //the circle crosses the antimeridian or contains a pole, all the longitudes are searched
+            fromLonCell = 0;
+            toLonCell = lonCells - 1;
+        } else {
+            fromLonCell = Math.max(lonCell(center.getLongitude() - deltaLon) - minLonCell, 0);
+            toLonCell = Math.min(lonCell(center.getLongitude() + deltaLon) - minLonCell, lonCells - 1);
+        }
+
+        int[] result = new int[16];
+        int count = 0;
+
+        for (int row = fromLatCell; row <= toLatCell && fromLonCell <= toLonCell; row++) {
+            long fromCell = (long) row * lonCells + fromLonCell;
+            long toCell = (long) row * lonCells + toLonCell;
+
+            int position = Arrays.binarySearch(entries, fromCell << 32);
+            if (position < 0)
+                position = -position - 1;
+
+            while (position < entries.length && (entries[position] >>> 32) <= toCell) {
+                if (count == result.length)
+                    result = Arrays.copyOf(result, count * 2);
+
+                result[count++] = (int) entries[position++];
+            }
+        }
+
+        result = Arrays.copyOf(result, count);
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * @return the stops that may be within the radius from the position, in the order of the list
+     */
+    public List<T> getCandidates(GeoPosition center, double radiusMeters) {
+        int[] indexes = getCandidateIndexes(center, radiusMeters);
+
+        List<T> result = new ArrayList<>(indexes.length);
+        for (int index : indexes) {
+            result.add(stops.get(index));
+        }
+        return result;
+    }
+
+    public List<T> getStops() {
+        return stops;
+    }
+
+    private int latCell(double latitude) {
+        return (int) Math.floor(latitude / cellSize);
+    }
+
+    private int lonCell(double longitude) {
+        return (int) Math.floor(longitude / cellSize);
+    }
+}
@@ -3,7 +3,7 @@ package it.osm.gtfs.utils;
 import it.osm.gtfs.enums.OSMStopType;
 import it.osm.gtfs.enums.WheelchairAccess;
 import it.osm.gtfs.models.OSMStop;
-import org.w3c.dom.Element;
+import it.osm.gtfs.models.OSMXMLNode;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -21,7 +21,25 @@ public class StopsUtils {
         List<OSMStop> result = new ArrayList<>();
 
         for (OSMStop currentLoopStop : osmStopsList) {
-            if (currentLoopStop.getStopType().equals(mainOsmStop.getStopType()) && DistanceUtils.distVincenty(mainOsmStop.getGeoPosition(), currentLoopStop.getGeoPosition()) < radius) {
+            if (currentLoopStop.getStopType().equals(mainOsmStop.getStopType()) && DistanceUtils.isWithinDistance(mainOsmStop.getGeoPosition(), currentLoopStop.getGeoPosition(), radius)) {
+                result.add(currentLoopStop);
+            }
+        }
+
+        //remove the main stop from the list
+        result.remove(mainOsmStop);
+
+        return result;
+    }
+
+    /**
+     * Same as {@link #getNearbyStops(OSMStop, double, List)}, but only the stops of the cells of the index near the main stop are checked
+     */
+    public static List<OSMStop> getNearbyStops(OSMStop mainOsmStop, double radius, StopsGridIndex<OSMStop> osmStopsIndex) {
+        List<OSMStop> result = new ArrayList<>();
+
+        for (OSMStop currentLoopStop : osmStopsIndex.getCandidates(mainOsmStop.getGeoPosition(), radius)) {
+            if (currentLoopStop.getStopType().equals(mainOsmStop.getStopType()) && DistanceUtils.isWithinDistance(mainOsmStop.getGeoPosition(), currentLoopStop.getGeoPosition(), radius)) {
                 result.add(currentLoopStop);
             }
         }
@@ -58,7 +76,7 @@ public class StopsUtils {
 
 
     public static void updateOSMNodeMetadata(OSMStop osmStop) { //TODO: check if other tags of the node are in line with GTFS data
-        Element originalNode = (Element) osmStop.originalXMLNode;
+        OSMXMLNode originalNode = osmStop.originalXMLNode;
 
         OSMXMLUtils.addOrReplaceTagValue(originalNode, "gtfs_id", osmStop.gtfsStopMatchedWith.getGtfsId());
         OSMXMLUtils.addOrReplaceTagValue(originalNode, "ref", osmStop.gtfsStopMatchedWith.getCode());
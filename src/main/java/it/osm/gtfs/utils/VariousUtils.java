@@ -5,14 +5,15 @@ import java.util.Map;
 import java.util.regex.Pattern;
 
 public class VariousUtils {
+    private static final Pattern COMBINING_DIACRITICAL_MARKS = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
+
     public static String removeAccents(String input) {
         if (input == null) {
             return null;
         }
 
         String normalizedString = Normalizer.normalize(input, Normalizer.Form.NFD);
-        Pattern pattern = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
-        return pattern.matcher(normalizedString).replaceAll("");
+        return COMBINING_DIACRITICAL_MARKS.matcher(normalizedString).replaceAll("");
     }
 
     public static <T, E> T getKeysByValue(Map<T, E> map, E value) {
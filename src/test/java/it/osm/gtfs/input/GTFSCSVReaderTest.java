@@ -0,0 +1,151 @@
+/**
+ * Licensed under the GNU General Public License version 3
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.gnu.org/licenses/gpl-3.0.html
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package it.osm.gtfs.input;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GTFSCSVReaderTest {
+
+    private static GTFSCSVReader reader(String data, boolean removeCommasFromValues) throws IOException {
+        return new GTFSCSVReader(new StringReader(data), removeCommasFromValues);
+    }
+
+    @Test
+    void readsHeaderAndRecords() throws IOException {
+        GTFSCSVReader reader = reader("stop_id,stop_name, stop_lat\n1,Duomo,45.46\n2,Cairoli,45.47\n", true);
+
+        assertArrayEquals(new String[]{"stop_id", "stop_name", "stop_lat"}, reader.getHeader());
+        assertEquals(2, reader.getColumnIndex("stop_lat"));
+        assertEquals(-1, reader.getColumnIndex("stop_code"));
+
+        assertTrue(reader.readRecord());
+        assertEquals(3, reader.getFieldCount());
+        assertEquals("1", reader.get(0));
+        assertEquals("Duomo", reader.get(1));
+        assertEquals(45.46, reader.getDouble(2));
+
+        assertTrue(reader.readRecord());
+        assertEquals("Cairoli", reader.get(1));
+
+        assertFalse(reader.readRecord());
+    }
+
+    @Test
+    void readsQuotedValues() throws IOException {
+        GTFSCSVReader reader = reader("id,name,desc\n1,\"Via Roma, 3\",\"say \"\"hi\"\"\"\n2,\"\",last\n", false);
+
+        assertTrue(reader.readRecord());
+        assertEquals("Via Roma, 3", reader.get(1));
+        assertEquals("say \"hi\"", reader.get(2));
+
+        assertTrue(reader.readRecord());
+        assertTrue(reader.isEmpty(1));
+        assertEquals("last", reader.get(2));
+    }
+
+    @Test
+    void removesCommasFromQuotedValues() throws IOException {
+        GTFSCSVReader reader = reader("\"id,x\",name\n1,\"Via Roma, 3\"\n", true);
+
+        //the commas of the header are kept
+        assertEquals("id,x", reader.getHeader()[0]);
+
+        assertTrue(reader.readRecord());
+        assertEquals("Via Roma 3", reader.get(1));
+    }
+
+    @Test
+    void readsNewlinesInsideQuotedValues() throws IOException {
+        GTFSCSVReader reader = reader("id,name\n1,\"first\nsecond\"\n2,third\n", false);
+
+        assertTrue(reader.readRecord());
+        assertEquals("first\nsecond", reader.get(1));
+
+        assertTrue(reader.readRecord());
+        assertEquals("2", reader.get(0));
+        assertFalse(reader.hasUnterminatedQuote());
+    }
+
+    @Test
+    void removesTheBom() throws IOException {
+        GTFSCSVReader reader = reader("\uFEFFstop_id,stop_name\n1,Duomo\n", true);
+
+        assertEquals(0, reader.getColumnIndex("stop_id"));
+        assertTrue(reader.readRecord());
+        assertEquals("1", reader.get(0));
+    }
+
+    @Test
+    void readsCrlfLineEndingsAndSkipsEmptyLines() throws IOException {
+        GTFSCSVReader reader = reader("id,name\r\n1,Duomo\r\n\r\n2,\"Cairoli\"\r\n", true);
+
+        assertArrayEquals(new String[]{"id", "name"}, reader.getHeader());
+
+        assertTrue(reader.readRecord());
+        assertEquals("Duomo", reader.get(1));
+
+        assertTrue(reader.readRecord());
+        assertEquals("2", reader.get(0));
+        assertEquals("Cairoli", reader.get(1));
+
+        assertFalse(reader.readRecord());
+    }
+
+    @Test
+    void readsTheLastRecordWithoutNewline() throws IOException {
+        GTFSCSVReader reader = reader("id,name\n1,Duomo", true);
+
+        assertTrue(reader.readRecord());
+        assertEquals("Duomo", reader.get(1));
+        assertFalse(reader.readRecord());
+    }
+
+    @Test
+    void returnsEmptyValuesForMissingColumns() throws IOException {
+        GTFSCSVReader reader = reader("id,name,code\n1,Duomo\n", true);
+
+        assertTrue(reader.readRecord());
+        assertEquals("", reader.get(2));
+        assertEquals("", reader.get(-1));
+        assertTrue(reader.isEmpty(2));
+        assertTrue(reader.valueEquals(2, ""));
+    }
+
+    @Test
+    void parsesNumbersWithoutStrings() throws IOException {
+        GTFSCSVReader reader = reader("a,b,c,d\n42,-7,+3,x1\n", true);
+
+        assertTrue(reader.readRecord());
+        assertEquals(42, reader.getInt(0));
+        assertEquals(-7, reader.getLong(1));
+        assertEquals(3, reader.getLong(2));
+        assertThrows(NumberFormatException.class, () -> reader.getLong(3));
+        assertTrue(reader.valueEquals(0, "42"));
+        assertFalse(reader.valueEquals(0, "4"));
+        assertEquals("-7", reader.getCharSequence(1).toString());
+    }
+
+    @Test
+    void detectsAnUnterminatedQuote() throws IOException {
+        GTFSCSVReader reader = new GTFSCSVReader(new StringReader("1,\"first\n"), true, new String[]{"id", "name"});
+
+        assertTrue(reader.readRecord());
+        assertTrue(reader.hasUnterminatedQuote());
+    }
+}
@@ -0,0 +1,253 @@
+/**
+ * Licensed under the GNU General Public License version 3
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.gnu.org/licenses/gpl-3.0.html
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package it.osm.gtfs.input;
+
+import it.osm.gtfs.models.*;
+import it.osm.gtfs.utils.GTFSImportSettings;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.jxmapviewer.viewer.GeoPosition;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GTFSFeedSnapshotTest {
+    private static final String PLUGIN_CLASS_NAME = "it.osm.gtfs.plugins.DefaultPlugin";
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeAll
+    static void initSettings() {
+        GTFSImportSettings.init();
+    }
+
+    @Test
+    void snapshotReadsTheSameFeedAsTheTextFiles() throws IOException {
+        File zipFile = writeFeed();
+        Path snapshotsDirectory = tempDir.resolve("snapshots");
+
+        String expected = describeFeed(new ZipGTFSSource(zipFile));
+
+        //the first source creates the snapshot, the second one loads the existing file
+        ZipGTFSSource creatingSource = new ZipGTFSSource(zipFile, snapshotsDirectory, PLUGIN_CLASS_NAME);
+        assertEquals(expected, describeFeed(creatingSource));
+        assertNotNull(creatingSource.getSnapshot());
+
+        try (var snapshots = Files.list(snapshotsDirectory)) {
+            assertEquals(1, snapshots.filter(path -> path.toString().endsWith(GTFSFeedSnapshot.SNAPSHOT_FILE_EXTENSION)).count());
+        }
+
+        ZipGTFSSource loadingSource = new ZipGTFSSource(zipFile, snapshotsDirectory, PLUGIN_CLASS_NAME);
+        assertEquals(expected, describeFeed(loadingSource));
+
+        GTFSFeedSnapshot snapshot = loadingSource.getSnapshot();
+        assertEquals(3, snapshot.getShapesCount());
+        assertNull(snapshot.getShape("missing"));
+        assertEquals(3, snapshot.getShape("S1").getPointsCount());
+    }
+
+    @Test
+    void snapshotIsCreatedOnlyByTheStopTimesAndShapesReaders() throws IOException {
+        File zipFile = writeFeed();
+        Path snapshotsDirectory = tempDir.resolve("snapshots");
+
+        ZipGTFSSource source = new ZipGTFSSource(zipFile, snapshotsDirectory, PLUGIN_CLASS_NAME);
+        GTFSParser.readStops(source);
+        GTFSParser.readRoutes(source);
+        assertNull(source.getExistingSnapshot());
+        assertFalse(Files.exists(snapshotsDirectory));
+
+        GTFSParser.readShapes(source);
+        assertNotNull(source.getExistingSnapshot());
+
+        //a new source of the same feed finds the snapshot without creating it
+        assertNotNull(new ZipGTFSSource(zipFile, snapshotsDirectory, PLUGIN_CLASS_NAME).getExistingSnapshot());
+    }
+
+    @Test
+    void parallelParsingWritesTheSameSnapshot() throws IOException {
+        //stop_times.txt is larger than a chunk of the parallel reading, so it's split
+        ZipGTFSSource source = new ZipGTFSSource(writeFeed(20000));
+
+        Path sequentialSnapshot = tempDir.resolve("sequential" + GTFSFeedSnapshot.SNAPSHOT_FILE_EXTENSION);
+        Path parallelSnapshot = tempDir.resolve("parallel" + GTFSFeedSnapshot.SNAPSHOT_FILE_EXTENSION);
+        GTFSFeedSnapshot.write(source, sequentialSnapshot, 1);
+        GTFSFeedSnapshot.write(source, parallelSnapshot, 4);
+
+        assertEquals(-1, Files.mismatch(sequentialSnapshot, parallelSnapshot));
+    }
+
+    @Test
+    void invalidSnapshotIsCreatedAgain() throws IOException {
+        File zipFile = writeFeed();
+        Path snapshotsDirectory = tempDir.resolve("snapshots");
+
+        new ZipGTFSSource(zipFile, snapshotsDirectory, PLUGIN_CLASS_NAME).getSnapshot();
+
+        try (var snapshots = Files.list(snapshotsDirectory)) {
+            for (Path snapshot : snapshots.toList()) {
+                Files.writeString(snapshot, "not a snapshot");
+            }
+        }
+
+        ZipGTFSSource source = new ZipGTFSSource(zipFile, snapshotsDirectory, PLUGIN_CLASS_NAME);
+        assertNotNull(source.getSnapshot());
+        assertEquals(describeFeed(new ZipGTFSSource(zipFile)), describeFeed(source));
+    }
+
+    @Test
+    void textFilesAreParsedIfTheSnapshotCantBeCreated() throws IOException {
+        File zipFile = writeFeed();
+
+        //the snapshots directory can't be created where a file already exists
+        Path snapshotsDirectory = Files.writeString(tempDir.resolve("snapshots"), "");
+
+        ZipGTFSSource source = new ZipGTFSSource(zipFile, snapshotsDirectory, PLUGIN_CLASS_NAME);
+        assertNull(source.getSnapshot());
+        assertEquals(describeFeed(new ZipGTFSSource(zipFile)), describeFeed(source));
+    }
+
+    //all the values read by the parser, in a stable order
+    private static String describeFeed(GTFSSource source) throws IOException {
+        StringBuilder builder = new StringBuilder();
+
+        List<GTFSStop> stops = GTFSParser.readStops(source);
+        Map<String, OSMStop> osmStops = new HashMap<>();
+        for (GTFSStop stop : stops) {
+            builder.append(stop).append('\n');
+
+            //the stop 4 is missing in OSM, so its trip is invalid
+            if (!stop.getGtfsId().equals("4"))
+                osmStops.put(stop.getGtfsId(), new OSMStop(stop.getGtfsId(), stop.getCode(), stop.getGeoPosition(), stop.getName(), null, null, null));
+        }
+
+        Map<String, Route> routes = GTFSParser.readRoutes(source);
+        for (Route route : new TreeMap<>(routes).values()) {
+            builder.append(String.join("|", route.getId(), route.getAgencyId(), route.getShortName(), route.getLongName(),
+                    String.valueOf(route.getRouteType()), route.getRouteColor())).append('\n');
+        }
+
+        ReadStopTimesResult stopTimes = GTFSParser.readStopTimes(source, osmStops);
+        builder.append(new TreeSet<>(stopTimes.getMissingStops())).append('\n');
+
+        for (Trip trip : GTFSParser.readTrips(source, routes, stopTimes.getTripIdStopListMap())) {
+            builder.append(String.join("|", trip.getTripId(), trip.getRoute().getId(), trip.getShapeId(), trip.getServiceId(),
+                    trip.getTripHeadsign(), String.valueOf(trip.getWheelchairAccess())));
+
+            TripStopsList stopsList = trip.getStopsList();
+            if (stopsList != null) {
+                builder.append('|').append(stopsList.isValid()).append('|').append(stopsList.getStopSequenceArrivalTimeMap());
+                for (Map.Entry<Long, OSMStop> stop : stopsList.getStopSequenceOSMStopMap().entrySet()) {
+                    builder.append('|').append(stop.getKey()).append('=').append(stop.getValue().getGtfsId());
+                }
+            }
+            builder.append('\n');
+        }
+
+        GTFSIdMap<Shape> shapes = GTFSParser.readShapes(source);
+        List<String> shapeIds = new ArrayList<>();
+        for (Shape shape : shapes.values()) {
+            shapeIds.add(shape.getId());
+        }
+        Collections.sort(shapeIds);
+
+        try (IndexedShapeReader shapeReader = new IndexedShapeReader(source)) {
+            for (String shapeId : shapeIds) {
+                builder.append(shapes.get(shapeId).getGPXasSegment(shapeId)).append('\n');
+                builder.append(shapeReader.get(shapeId).getGPXasSegment(shapeId)).append('\n');
+            }
+            builder.append(shapeReader.size()).append('\n');
+        }
+
+        return builder.toString();
+    }
+
+    private File writeFeed() throws IOException {
+        return writeFeed(0);
+    }
+
+    /**
+     * @param generatedTrips the number of trips of 30 stops added to stop_times.txt, which aren't in trips.txt
+     */
+    private File writeFeed(int generatedTrips) throws IOException {
+        StringBuilder generatedStopTimes = new StringBuilder();
+        for (int trip = 0; trip < generatedTrips; trip++) {
+            for (int stop = 1; stop <= 30; stop++) {
+                generatedStopTimes.append("G").append(trip).append(",08:").append(10 + stop).append(":00,08:").append(10 + stop).append(":00,")
+                        .append(stop % 4 + 1).append(',').append(stop).append('\n');
+            }
+        }
+
+        Map<String, String> files = new LinkedHashMap<>();
+        files.put(GTFSImportSettings.GTFS_STOP_FILE_NAME, """
+                stop_id,stop_code,stop_name,stop_lat,stop_lon,wheelchair_boarding
+                1,C1,"Via Roma, 1",45.0001,7.0001,1
+                2,,Piazza Castello,45.0002,7.0002,2
+                3,C3,"Corso ""Francia"" 3",45.0003,7.0003,
+                4,C4,Stazione,45.0004,7.0004,0
+                """);
+        files.put(GTFSImportSettings.GTFS_ROUTES_FILE_NAME, """
+                route_id,agency_id,route_short_name,route_long_name,route_type,route_color
+                R1,A,1,Linea 1,3,FF0000
+                R2,A,2,Linea 2,0,
+                """);
+        files.put(GTFSImportSettings.GTFS_TRIPS_FILE_NAME, """
+                route_id,service_id,trip_id,trip_headsign,shape_id,wheelchair_accessible
+                R1,WK,T1,Piazza Castello,S1,1
+                R1,WK,T2,Via Roma,S2,
+                R2,SUN,T3,Stazione,S3,2
+                """);
+        files.put(GTFSImportSettings.GTFS_STOP_TIMES_FILE_NAME, """
+                trip_id,arrival_time,departure_time,stop_id,stop_sequence
+                T1,08:00:00,08:00:00,1,1
+                T1,08:05:00,08:05:00,2,2
+                T1,08:10:00,08:10:00,3,3
+                T2,09:00:00,09:00:00,3,1
+                T2,09:05:00,09:05:00,1,5
+                T3,10:00:00,10:00:00,2,1
+                T3,10:05:00,10:05:00,4,2
+                """ + generatedStopTimes);
+        files.put(GTFSImportSettings.GTFS_SHAPES_FILE_NAME, """
+                shape_id,shape_pt_lat,shape_pt_lon,shape_pt_sequence
+                S1,45.0001,7.0001,1
+                S1,45.0003,7.0003,3
+                S1,45.0002,7.0002,2
+                S2,45.0003,7.0003,1
+                S2,45.0001,7.0001,2
+                S3,45.0002,7.0002,1
+                S3,45.0004,7.0004,2
+                """);
+
+        File zipFile = tempDir.resolve("gtfs.zip").toFile();
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(zipFile.toPath()))) {
+            for (Map.Entry<String, String> file : files.entrySet()) {
+                zip.putNextEntry(new ZipEntry(file.getKey()));
+                zip.write(file.getValue().getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+        }
+        return zipFile;
+    }
+}
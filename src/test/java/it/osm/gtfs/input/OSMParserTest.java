@@ -0,0 +1,174 @@
+/**
+ * Licensed under the GNU General Public License version 3
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.gnu.org/licenses/gpl-3.0.html
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package it.osm.gtfs.input;
+
+import it.osm.gtfs.enums.RouteType;
+import it.osm.gtfs.models.OSMStop;
+import it.osm.gtfs.models.ReadOSMRelationsResult;
+import it.osm.gtfs.models.Relation;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.jxmapviewer.viewer.GeoPosition;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OSMParserTest {
+    @TempDir
+    Path tempDir;
+
+    private final Map<String, OSMStop> stops = new HashMap<>();
+
+    @Test
+    void resolvesTheWaysAndNodesThatComeAfterTheRelation() throws Exception {
+        addStop("100");
+        addStop("101");
+
+        //the relation comes before its ways, and the way before its nodes
+        File file = osmFile("""
+                <relation id="1" version="3">
+                  <member type="node" ref="100" role="platform"/>
+                  <member type="way" ref="20" role=""/>
+                  <member type="way" ref="21" role=""/>
+                  <member type="node" ref="101" role="stop"/>
+                  <tag k="type" v="route"/>
+                  <tag k="route" v="bus"/>
+                  <tag k="name" v="Bus 1"/>
+                  <tag k="ref" v="1"/>
+                </relation>
+                <way id="20" version="1"><nd ref="1"/><nd ref="2"/></way>
+                <way id="21" version="1"><nd ref="2"/><nd ref="3"/></way>
+                <node id="1" version="1" lat="45.1" lon="9.1"/>
+                <node id="2" version="1" lat="45.2" lon="9.2"/>
+                <node id="3" version="1" lat="-45.3" lon="-9.3"/>
+                """);
+
+        ReadOSMRelationsResult result = OSMParser.readOSMRelations(file, stops, true);
+
+        assertEquals(1, result.getFinalValidRelations().size());
+        assertTrue(result.getFailedRelations().isEmpty());
+
+        Relation relation = result.getFinalValidRelations().get(0);
+        assertEquals("1", relation.getId());
+        assertEquals(3, relation.getVersion());
+        assertEquals("Bus 1", relation.getName());
+        assertEquals("1", relation.getRef());
+        assertEquals(RouteType.BUS, relation.getRouteType());
+
+        assertEquals(2, relation.getStops().size());
+        assertSame(stops.get("100"), relation.getStops().get(1L));
+        assertSame(stops.get("101"), relation.getStops().get(2L));
+
+        List<Relation.OSMWay> ways = relation.getWayMembers();
+        assertEquals(2, ways.size());
+        assertEquals(20, ways.get(0).getId());
+        assertEquals(21, ways.get(1).getId());
+
+        assertEquals(2, ways.get(1).getNodesCount());
+        assertEquals(3, ways.get(1).getNodeId(1));
+        assertEquals(new GeoPosition(45.2, 9.2), ways.get(1).getNodeGeoPosition(0));
+        assertEquals(new GeoPosition(-45.3, -9.3), ways.get(1).getNodeGeoPosition(1));
+
+        Relation.OSMNode node = ways.get(0).getNode(0);
+        assertEquals(1, node.getId());
+        assertEquals(new GeoPosition(45.1, 9.1), node.getGeoPosition());
+    }
+
+    @Test
+    void waysMissingFromTheFileAreNullMembers() throws Exception {
+        File file = osmFile("""
+                <node id="1" version="1" lat="45.1" lon="9.1"/>
+                <node id="2" version="1" lat="45.2" lon="9.2"/>
+                <way id="20" version="1"><nd ref="1"/><nd ref="2"/></way>
+                <relation id="1" version="1">
+                  <member type="way" ref="19" role=""/>
+                  <member type="way" ref="20" role=""/>
+                  <member type="way" ref="22" role=""/>
+                  <tag k="type" v="route"/>
+                  <tag k="route" v="bus"/>
+                </relation>
+                """);
+
+        Relation relation = OSMParser.readOSMRelations(file, stops, true).getFinalValidRelations().get(0);
+
+        List<Relation.OSMWay> ways = relation.getWayMembers();
+        assertEquals(3, ways.size());
+        assertNull(ways.get(0));
+        assertEquals(20, ways.get(1).getId());
+        assertNull(ways.get(2));
+    }
+
+    @Test
+    void nodesMissingFromTheFileHaveNoPosition() throws Exception {
+        File file = osmFile("""
+                <node id="1" version="1" lat="45.1" lon="9.1"/>
+                <way id="20" version="1"><nd ref="1"/><nd ref="2"/></way>
+                <relation id="1" version="1">
+                  <member type="way" ref="20" role=""/>
+                  <tag k="type" v="route"/>
+                  <tag k="route" v="bus"/>
+                </relation>
+                """);
+
+        Relation.OSMWay way = OSMParser.readOSMRelations(file, stops, true).getFinalValidRelations().get(0).getWayMembers().get(0);
+
+        assertEquals(2, way.getNodesCount());
+        assertNotNull(way.getNode(0));
+        assertEquals(2, way.getNodeId(1));
+        assertNull(way.getNodeGeoPosition(1));
+        assertNull(way.getNode(1));
+    }
+
+    @Test
+    void relationsWithMissingStopsFail() throws Exception {
+        addStop("100");
+
+        File file = osmFile("""
+                <relation id="1" version="1">
+                  <member type="node" ref="100" role="platform"/>
+                  <member type="node" ref="999" role="stop"/>
+                  <tag k="type" v="route"/>
+                  <tag k="route" v="bus"/>
+                </relation>
+                <relation id="2" version="1">
+                  <member type="node" ref="100" role="platform"/>
+                  <tag k="type" v="route_master"/>
+                </relation>
+                """);
+
+        ReadOSMRelationsResult result = OSMParser.readOSMRelations(file, stops, true);
+
+        assertTrue(result.getFinalValidRelations().isEmpty());
+        assertEquals(1, result.getFailedRelations().size());
+        assertEquals("1", result.getFailedRelations().get(0).getId());
+        assertEquals(List.of("999"), result.getMissingNodes());
+    }
+
+    private void addStop(String osmId) {
+        OSMStop stop = new OSMStop(null, null, new GeoPosition(45, 9), "Stop " + osmId, null, null, null);
+        stops.put(osmId, stop);
+    }
+
+    private File osmFile(String entities) throws Exception {
+        Path path = tempDir.resolve("relations.osm");
+        Files.writeString(path, "<?xml version='1.0' encoding='UTF-8'?>\n<osm version=\"0.6\" generator=\"test\">\n" + entities + "</osm>\n");
+        return path.toFile();
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * Licensed under the GNU General Public License version 3
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.gnu.org/licenses/gpl-3.0.html
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package it.osm.gtfs.models;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.BitSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GTFSServiceCalendarTest {
+    private static final boolean[] WORKDAYS = {true, true, true, true, true, false, false};
+
+    private final GTFSIdDictionary dictionary = new GTFSIdDictionary();
+    private final GTFSServiceCalendar calendar = new GTFSServiceCalendar(dictionary);
+
+    @Test
+    void weeklyServiceRunsOnItsWeekdaysBetweenTheDates() {
+        int workdays = dictionary.getOrAdd("WK");
+        calendar.addWeeklyService(workdays, WORKDAYS, LocalDate.of(2026, 1, 1), LocalDate.of(2026, 12, 31));
+
+        //2026-01-05 is a monday, 2026-01-04 a sunday
+        assertTrue(calendar.isActive(workdays, LocalDate.of(2026, 1, 5)));
+        assertFalse(calendar.isActive(workdays, LocalDate.of(2026, 1, 4)));
+        assertFalse(calendar.isActive(workdays, LocalDate.of(2025, 12, 31)));
+        assertFalse(calendar.isActive(workdays, LocalDate.of(2027, 1, 1)));
+
+        assertTrue(calendar.isActiveBetween(workdays, LocalDate.of(2026, 1, 3), LocalDate.of(2026, 1, 5)));
+        assertFalse(calendar.isActiveBetween(workdays, LocalDate.of(2026, 1, 3), LocalDate.of(2026, 1, 4)));
+        assertTrue(calendar.isActiveBetween(workdays, LocalDate.of(2025, 1, 1), LocalDate.of(2027, 1, 1)));
+    }
+
+    @Test
+    void removedDatesOverrideTheWeeklyService() {
+        int workdays = dictionary.getOrAdd("WK");
+        calendar.addWeeklyService(workdays, WORKDAYS, LocalDate.of(2026, 1, 1), LocalDate.of(2026, 12, 31));
+        calendar.addException(workdays, LocalDate.of(2026, 1, 6), false);
+
+        assertFalse(calendar.isActive(workdays, LocalDate.of(2026, 1, 6)));
+        assertTrue(calendar.isActive(workdays, LocalDate.of(2026, 1, 7)));
+
+        //a removed date outside the service doesn't change anything
+        calendar.addException(workdays, LocalDate.of(2025, 6, 2), false);
+        assertFalse(calendar.isActive(workdays, LocalDate.of(2025, 6, 2)));
+        assertTrue(calendar.isActive(workdays, LocalDate.of(2026, 1, 5)));
+    }
+
+    @Test
+    void addedDatesExtendTheWeeklyService() {
+        int workdays = dictionary.getOrAdd("WK");
+        calendar.addWeeklyService(workdays, WORKDAYS, LocalDate.of(2026, 1, 1), LocalDate.of(2026, 12, 31));
+
+        //a sunday, a day before the first day of the service and a day after the last one
+        calendar.addException(workdays, LocalDate.of(2026, 1, 4), true);
+        calendar.addException(workdays, LocalDate.of(2025, 12, 20), true);
+        calendar.addException(workdays, LocalDate.of(2027, 1, 2), true);
+
+        assertTrue(calendar.isActive(workdays, LocalDate.of(2026, 1, 4)));
+        assertTrue(calendar.isActive(workdays, LocalDate.of(2025, 12, 20)));
+        assertTrue(calendar.isActive(workdays, LocalDate.of(2027, 1, 2)));
+        assertFalse(calendar.isActive(workdays, LocalDate.of(2025, 12, 21)));
+
+        //the days of the weekly service are kept after the bits are moved for the earlier day
+        assertTrue(calendar.isActive(workdays, LocalDate.of(2026, 1, 5)));
+        assertFalse(calendar.isActive(workdays, LocalDate.of(2026, 1, 3)));
+    }
+
+    @Test
+    void serviceOnlyInTheCalendarDates() {
+        int holiday = dictionary.getOrAdd("HOLIDAY");
+        calendar.addException(holiday, LocalDate.of(2026, 8, 15), true);
+
+        assertTrue(calendar.isActive(holiday, LocalDate.of(2026, 8, 15)));
+        assertFalse(calendar.isActive(holiday, LocalDate.of(2026, 8, 16)));
+        assertTrue(calendar.isActiveBetween(holiday, LocalDate.of(2026, 8, 1), LocalDate.of(2026, 8, 31)));
+
+        calendar.addException(holiday, LocalDate.of(2026, 8, 15), false);
+        assertFalse(calendar.isActive(holiday, LocalDate.of(2026, 8, 15)));
+    }
+
+    @Test
+    void unknownServicesAreNotActive() {
+        assertTrue(calendar.isEmpty());
+
+        int unknown = dictionary.getOrAdd("UNKNOWN");
+        calendar.addException(unknown, LocalDate.of(2026, 1, 5), false);
+
+        assertTrue(calendar.isEmpty());
+        assertFalse(calendar.isActive(unknown, LocalDate.of(2026, 1, 5)));
+        assertFalse(calendar.isActive(GTFSIdDictionary.NO_ID, LocalDate.of(2026, 1, 5)));
+    }
+
+    @Test
+    void servicesActiveBetweenTwoDates() {
+        int workdays = dictionary.getOrAdd("WK");
+        int sundays = dictionary.getOrAdd("SUN");
+        int other = dictionary.getOrAdd("NOT_A_SERVICE");
+        calendar.addWeeklyService(workdays, WORKDAYS, LocalDate.of(2026, 1, 1), LocalDate.of(2026, 12, 31));
+        calendar.addWeeklyService(sundays, new boolean[]{false, false, false, false, false, false, true}, LocalDate.of(2026, 1, 1), LocalDate.of(2026, 12, 31));
+
+        BitSet sunday = calendar.getServicesActiveBetween(LocalDate.of(2026, 1, 4), LocalDate.of(2026, 1, 4));
+        assertFalse(sunday.get(workdays));
+        assertTrue(sunday.get(sundays));
+        assertFalse(sunday.get(other));
+
+        BitSet week = calendar.getServicesActiveBetween(LocalDate.of(2026, 1, 4), LocalDate.of(2026, 1, 10));
+        assertTrue(week.get(workdays));
+        assertTrue(week.get(sundays));
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Licensed under the GNU General Public License version 3
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.gnu.org/licenses/gpl-3.0.html
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package it.osm.gtfs.models;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShapeTest {
+
+    @Test
+    void sortsThePointsBySequence() {
+        Shape shape = new Shape("S1");
+        shape.pushPoint(3, 45.3, 9.3);
+        shape.pushPoint(1, 45.1, 9.1);
+        shape.pushPoint(2, 45.2, 9.2);
+
+        assertEquals(3, shape.getPointsCount());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i + 1, shape.getSeq(i));
+            assertEquals(45.1 + i * 0.1, shape.getLat(i), 1e-9);
+            assertEquals(9.1 + i * 0.1, shape.getLon(i), 1e-9);
+        }
+    }
+
+    @Test
+    void theLastPointWithTheSameSequenceWins() {
+        Shape shape = new Shape("S1");
+        shape.pushPoint(2, 45.2, 9.2);
+        shape.pushPoint(1, 45.1, 9.1);
+        shape.pushPoint(2, 46.2, 10.2);
+        shape.pushPoint(3, 45.3, 9.3);
+        shape.pushPoint(2, 47.2, 11.2);
+
+        assertEquals(3, shape.getPointsCount());
+        assertEquals(2, shape.getSeq(1));
+        assertEquals(47.2, shape.getLat(1));
+        assertEquals(11.2, shape.getLon(1));
+    }
+
+    @Test
+    void removesTheDuplicatedSequencesOfAnOrderedShape() {
+        //the points are in order, but a repeated sequence still needs the sort to keep only the last point
+        Shape shape = new Shape("S1");
+        shape.pushPoint(1, 45.1, 9.1);
+        shape.pushPoint(1, 46.1, 10.1);
+        shape.pushPoint(2, 45.2, 9.2);
+
+        assertEquals(2, shape.getPointsCount());
+        assertEquals(46.1, shape.getLat(0));
+        assertEquals(45.2, shape.getLat(1));
+    }
+
+    @Test
+    void sortsNegativeAndLargeSequences() {
+        Shape shape = new Shape("S1");
+        shape.pushPoint(Integer.MAX_VALUE, 3, 3);
+        shape.pushPoint(0, 2, 2);
+        shape.pushPoint(-5, 1, 1);
+
+        assertEquals(3, shape.getPointsCount());
+        assertEquals(-5, shape.getSeq(0));
+        assertEquals(0, shape.getSeq(1));
+        assertEquals(Integer.MAX_VALUE, shape.getSeq(2));
+        assertEquals(1, shape.getLat(0));
+        assertEquals(3, shape.getLat(2));
+    }
+
+    @Test
+    void growsAndSortsManyPoints() {
+        Shape shape = new Shape("S1");
+        for (int i = 999; i >= 0; i--) {
+            shape.pushPoint(i * 10, i, -i);
+        }
+
+        assertEquals(1000, shape.getPointsCount());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i * 10, shape.getSeq(i));
+            assertEquals(i, shape.getLat(i));
+            assertEquals(-i, shape.getLon(i));
+        }
+    }
+
+    @Test
+    void emptyShape() {
+        Shape shape = new Shape("S1");
+
+        assertEquals("S1", shape.getId());
+        assertEquals(0, shape.getPointsCount());
+        assertFalse(shape.getGPXasSegment("d").contains("<trkpt"));
+    }
+
+    @Test
+    void gpxHasThePointsInSequenceOrder() {
+        Shape shape = new Shape("S1");
+        shape.pushPoint(2, 45.2, 9.2);
+        shape.pushPoint(1, 45.1, 9.1);
+
+        String gpx = shape.getGPXasSegment("d");
+        assertTrue(gpx.indexOf("lat=\"45.1\"") < gpx.indexOf("lat=\"45.2\""));
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * Licensed under the GNU General Public License version 3
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.gnu.org/licenses/gpl-3.0.html
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package it.osm.gtfs.output;
+
+import it.osm.gtfs.models.BoundingBox;
+import it.osm.gtfs.models.GTFSStop;
+import it.osm.gtfs.models.OSMXMLNode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.jxmapviewer.viewer.GeoPosition;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OSMBusImportGeneratorTest {
+    private static final String SPECIAL_VALUE = "Piazza \"Dante\" & l'<Arco>";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void writesNodesThatCanBeParsedBack() throws Exception {
+        File outputFile = tempDir.resolve("stops.osm").toFile();
+
+        OSMBusImportGenerator generator = new OSMBusImportGenerator(boundingBox(), outputFile);
+
+        OSMXMLNode node = new OSMXMLNode();
+        node.setAttribute("id", "-1");
+        node.setAttribute("lat", "45.1");
+        node.setAttribute("lon", "9.2");
+        node.addTag("name", SPECIAL_VALUE);
+        node.addTag("highway", "bus_stop");
+        generator.appendNode(node);
+
+        Element element = generator.createElement("node");
+        element.setAttribute("id", "-2");
+        element.setAttribute("lat", "45.3");
+        element.setAttribute("lon", "9.4");
+        Element tag = generator.createElement("tag");
+        tag.setAttribute("k", "name");
+        tag.setAttribute("v", SPECIAL_VALUE);
+        element.appendChild(tag);
+        generator.appendNode(element);
+
+        generator.end();
+        assertFalse(outputFile.exists());
+        generator.save();
+
+        assertTrue(outputFile.exists());
+        assertFalse(partialFile(outputFile).exists());
+
+        Document document = read(outputFile);
+        Element bounds = (Element) document.getElementsByTagName("bounds").item(0);
+        assertEquals("GTFSOSMImport", bounds.getAttribute("origin"));
+
+        NodeList nodes = document.getElementsByTagName("node");
+        assertEquals(2, nodes.getLength());
+
+        Element first = (Element) nodes.item(0);
+        assertEquals("-1", first.getAttribute("id"));
+        assertEquals("45.1", first.getAttribute("lat"));
+        assertEquals("9.2", first.getAttribute("lon"));
+        assertEquals(SPECIAL_VALUE, tagValue(first, "name"));
+        assertEquals("bus_stop", tagValue(first, "highway"));
+
+        Element second = (Element) nodes.item(1);
+        assertEquals("-2", second.getAttribute("id"));
+        assertEquals(SPECIAL_VALUE, tagValue(second, "name"));
+    }
+
+    @Test
+    void saveReplacesTheOutputFile() throws Exception {
+        File outputFile = tempDir.resolve("stops.osm").toFile();
+        Files.writeString(outputFile.toPath(), "previous content");
+
+        OSMBusImportGenerator generator = new OSMBusImportGenerator(boundingBox(), outputFile);
+        generator.end();
+        generator.save();
+
+        Document document = read(outputFile);
+        assertEquals("osm", document.getDocumentElement().getTagName());
+        assertEquals(0, document.getElementsByTagName("node").getLength());
+    }
+
+    @Test
+    void discardLeavesNoOutputFile() throws Exception {
+        File outputFile = tempDir.resolve("stops.osm").toFile();
+
+        OSMBusImportGenerator generator = new OSMBusImportGenerator(boundingBox(), outputFile);
+        OSMXMLNode node = new OSMXMLNode();
+        node.setAttribute("id", "-1");
+        generator.appendNode(node);
+        generator.discard();
+
+        assertFalse(outputFile.exists());
+        assertFalse(partialFile(outputFile).exists());
+    }
+
+    @Test
+    void discardLeavesThePreviousOutputFile() throws Exception {
+        File outputFile = tempDir.resolve("stops.osm").toFile();
+        Files.writeString(outputFile.toPath(), "previous content");
+
+        OSMBusImportGenerator generator = new OSMBusImportGenerator(boundingBox(), outputFile);
+        generator.end();
+        generator.discard();
+
+        assertEquals("previous content", Files.readString(outputFile.toPath()));
+        assertFalse(partialFile(outputFile).exists());
+    }
+
+    @Test
+    void rejectsTheNodesAfterTheEnd() throws Exception {
+        File outputFile = tempDir.resolve("stops.osm").toFile();
+
+        OSMBusImportGenerator generator = new OSMBusImportGenerator(boundingBox(), outputFile);
+        generator.end();
+
+        assertThrows(IllegalStateException.class, () -> generator.appendNode(new OSMXMLNode()));
+        generator.discard();
+    }
+
+    private static BoundingBox boundingBox() {
+        return new BoundingBox(List.of(new GTFSStop("1", "1", new GeoPosition(45.0, 9.0), "Stop", null, null, null)));
+    }
+
+    private static File partialFile(File outputFile) {
+        return new File(outputFile.getPath() + ".part");
+    }
+
+    private static Document read(File file) throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file);
+    }
+
+    private static String tagValue(Element element, String key) {
+        NodeList tags = element.getElementsByTagName("tag");
+        for (int i = 0; i < tags.getLength(); i++) {
+            Element tag = (Element) tags.item(i);
+            if (tag.getAttribute("k").equals(key))
+                return tag.getAttribute("v");
+        }
+        return null;
+    }
+}
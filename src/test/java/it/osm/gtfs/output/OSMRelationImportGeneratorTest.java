@@ -0,0 +1,134 @@
+/**
+ * Licensed under the GNU General Public License version 3
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.gnu.org/licenses/gpl-3.0.html
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package it.osm.gtfs.output;
+
+import it.osm.gtfs.enums.RouteType;
+import it.osm.gtfs.enums.WheelchairAccess;
+import it.osm.gtfs.models.*;
+import it.osm.gtfs.utils.GTFSImportSettings;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.jxmapviewer.viewer.GeoPosition;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OSMRelationImportGeneratorTest {
+    private static final String SPECIAL_HEADSIGN = "Piazza \"Dante\" & l'<Arco>";
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeAll
+    static void initSettings() {
+        GTFSImportSettings.init();
+    }
+
+    @Test
+    void writesRelationsThatCanBeParsedBack() throws Exception {
+        Route route = new Route("R&1", "A<1>", "Long name", "12", RouteType.BUS, "FF0000");
+
+        TripStopsList stopsList = new TripStopsList("T1");
+        stopsList.addStop(2L, osmStop("102", "To \"stop\" & <co>"), "08:05:00");
+        stopsList.addStop(1L, osmStop("101", "From l'stop"), "08:00:00");
+        Trip trip = new Trip("T1", route, "S\"1\"", "SRV", SPECIAL_HEADSIGN, stopsList, WheelchairAccess.YES);
+
+        File file = tempDir.resolve("relations.osm").toFile();
+        try (OSMRelationImportGenerator generator = new OSMRelationImportGenerator(new FileOutputStream(file), boundingBox())) {
+            generator.writeSingleTripRelation(List.of(10, 11), trip, route, new GTFSFeedInfo(null, null, null, null, "2024&01"), 1);
+            generator.writeMasterRouteTripsRelation(route, List.of(1), 2);
+        }
+
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file);
+        assertEquals(1, document.getElementsByTagName("bounds").getLength());
+
+        NodeList relations = document.getElementsByTagName("relation");
+        assertEquals(2, relations.getLength());
+
+        Element relation = (Element) relations.item(0);
+        assertEquals("-1", relation.getAttribute("id"));
+        assertEquals(List.of("node 101 stop", "node 102 stop", "way 10 ", "way 11 "), members(relation));
+        assertEquals("route", tagValue(relation, "type"));
+        assertEquals("bus", tagValue(relation, "route"));
+        assertEquals("Bus 12: " + SPECIAL_HEADSIGN, tagValue(relation, "name"));
+        assertEquals("From l'stop", tagValue(relation, "from"));
+        assertEquals("To \"stop\" & <co>", tagValue(relation, "to"));
+        assertEquals("#FF0000", tagValue(relation, "colour"));
+        assertEquals("R&1", tagValue(relation, "gtfs:route_id"));
+        assertEquals("S\"1\"", tagValue(relation, "gtfs:shape_id"));
+        assertEquals("A<1>", tagValue(relation, "gtfs:agency_id"));
+        assertEquals("2024&01", tagValue(relation, "gtfs:release_date"));
+        assertEquals("no", tagValue(relation, GTFSImportSettings.REVISED_KEY));
+        assertEquals("Test network", tagValue(relation, "network"));
+        assertEquals("Test operator", tagValue(relation, "operator"));
+
+        Element routeMaster = (Element) relations.item(1);
+        assertEquals("-2", routeMaster.getAttribute("id"));
+        assertEquals(List.of("relation -1 "), members(routeMaster));
+        assertEquals("route_master", tagValue(routeMaster, "type"));
+        assertEquals("Bus 12", tagValue(routeMaster, "name"));
+        assertEquals("R&1", tagValue(routeMaster, "gtfs:route_id"));
+    }
+
+    @Test
+    void writesAnEmptyFileWithoutRelations() throws Exception {
+        File file = tempDir.resolve("relations.osm").toFile();
+        new OSMRelationImportGenerator(new FileOutputStream(file), boundingBox()).close();
+
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file);
+        assertEquals("osm", document.getDocumentElement().getTagName());
+        assertEquals(0, document.getElementsByTagName("relation").getLength());
+    }
+
+    private static OSMStop osmStop(String osmId, String name) {
+        OSMStop stop = new OSMStop(null, null, new GeoPosition(45.0, 9.0), name, null, null, null);
+        stop.originalXMLNode = new OSMXMLNode();
+        stop.originalXMLNode.setAttribute("id", osmId);
+        return stop;
+    }
+
+    private static BoundingBox boundingBox() {
+        return new BoundingBox(List.of(new GTFSStop("1", "1", new GeoPosition(45.0, 9.0), "Stop", null, null, null)));
+    }
+
+    private static List<String> members(Element relation) {
+        List<String> members = new ArrayList<>();
+        NodeList nodes = relation.getElementsByTagName("member");
+        for (int i = 0; i < nodes.getLength(); i++) {
+            Element member = (Element) nodes.item(i);
+            members.add(member.getAttribute("type") + " " + member.getAttribute("ref") + " " + member.getAttribute("role"));
+        }
+        return members;
+    }
+
+    private static String tagValue(Element element, String key) {
+        NodeList tags = element.getElementsByTagName("tag");
+        for (int i = 0; i < tags.getLength(); i++) {
+            Element tag = (Element) tags.item(i);
+            if (tag.getAttribute("k").equals(key))
+                return tag.getAttribute("v");
+        }
+        return null;
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * Licensed under the GNU General Public License version 3
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.gnu.org/licenses/gpl-3.0.html
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package it.osm.gtfs.utils;
+
+import org.junit.jupiter.api.Test;
+import org.jxmapviewer.viewer.GeoPosition;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DistanceUtilsTest {
+    private static final double[] THRESHOLDS = {30, 50, 100, 200, 2000, 20000};
+
+    @Test
+    void isWithinDistanceAgreesWithVincenty() {
+        Random random = new Random(42);
+
+        for (int i = 0; i < 200000; i++) {
+            double threshold = THRESHOLDS[i % THRESHOLDS.length];
+            double latitude1 = random.nextDouble() * 170 - 85;
+            double longitude1 = random.nextDouble() * 360 - 180;
+
+            //the second point is at up to three times the threshold in both directions, so most pairs are near the threshold
+            double maxOffset = threshold * 3 / DistanceUtils.MIN_METERS_PER_DEGREE;
+            double latitude2 = Math.max(-89.9, Math.min(89.9, latitude1 + (random.nextDouble() * 2 - 1) * maxOffset));
+            double longitude2 = normalizeLongitude(longitude1 + (random.nextDouble() * 2 - 1) * maxOffset / Math.cos(Math.toRadians(latitude1)));
+
+            assertAgreesWithVincenty(latitude1, longitude1, latitude2, longitude2, threshold);
+        }
+    }
+
+    @Test
+    void isWithinDistanceAgreesWithVincentyAtTheThreshold() {
+        Random random = new Random(7);
+        double[] factors = {0.98, 0.995, 0.999, 1, 1.001, 1.005, 1.02};
+
+        for (int i = 0; i < 20000; i++) {
+            double latitude1 = random.nextDouble() * 160 - 80;
+            double longitude1 = random.nextDouble() * 360 - 180;
+            double latitude2 = latitude1 + (random.nextDouble() * 2 - 1) * 0.02;
+            double longitude2 = normalizeLongitude(longitude1 + (random.nextDouble() * 2 - 1) * 0.02);
+
+            double distance = DistanceUtils.distVincenty(latitude1, longitude1, latitude2, longitude2);
+            for (double factor : factors) {
+                assertAgreesWithVincenty(latitude1, longitude1, latitude2, longitude2, distance * factor);
+            }
+        }
+    }
+
+    @Test
+    void isWithinDistanceAcrossTheAntimeridianAndNearThePoles() {
+        assertAgreesWithVincenty(10, 179.9995, 10, -179.9995, 200);
+        assertAgreesWithVincenty(10, 179.9995, 10, -179.9995, 100);
+        assertTrue(DistanceUtils.isWithinDistance(10, 179.9995, 10, -179.9995, 200));
+
+        assertAgreesWithVincenty(89.999, 0, 89.999, 90, 200);
+        assertAgreesWithVincenty(89.999, 0, 89.999, 180, 200);
+        assertAgreesWithVincenty(-85.5, 20, -85.5005, 20.01, 100);
+    }
+
+    @Test
+    void isWithinDistanceOfGeoPositions() {
+        GeoPosition duomo = new GeoPosition(45.4642, 9.1900);
+        GeoPosition nearby = new GeoPosition(45.4650, 9.1910);
+
+        double distance = DistanceUtils.distVincenty(duomo, nearby);
+        assertTrue(distance > 100 && distance < 150);
+
+        assertTrue(DistanceUtils.isWithinDistance(duomo, nearby, 200));
+        assertFalse(DistanceUtils.isWithinDistance(duomo, nearby, 100));
+        assertFalse(DistanceUtils.isWithinDistance(duomo, duomo, 0));
+    }
+
+    @Test
+    void equirectangularIsNearVincentyForShortDistances() {
+        Random random = new Random(3);
+
+        for (int i = 0; i < 10000; i++) {
+            double latitude1 = random.nextDouble() * 160 - 80;
+            double longitude1 = random.nextDouble() * 360 - 180;
+            double latitude2 = latitude1 + (random.nextDouble() * 2 - 1) * 0.05;
+            double longitude2 = normalizeLongitude(longitude1 + (random.nextDouble() * 2 - 1) * 0.05);
+
+            double vincenty = DistanceUtils.distVincenty(latitude1, longitude1, latitude2, longitude2);
+            double equirectangular = DistanceUtils.distEquirectangular(latitude1, longitude1, latitude2, longitude2);
+
+            assertEquals(vincenty, equirectangular, vincenty * 0.006 + 1e-6);
+        }
+    }
+
+    private static void assertAgreesWithVincenty(double latitude1, double longitude1, double latitude2, double longitude2, double threshold) {
+        boolean expected = DistanceUtils.distVincenty(latitude1, longitude1, latitude2, longitude2) < threshold;
+
+        assertEquals(expected, DistanceUtils.isWithinDistance(latitude1, longitude1, latitude2, longitude2, threshold),
+                () -> latitude1 + "," + longitude1 + " - " + latitude2 + "," + longitude2 + " threshold " + threshold);
+    }
+
+    private static double normalizeLongitude(double longitude) {
+        if (longitude > 180)
+            return longitude - 360;
+        if (longitude < -180)
+            return longitude + 360;
+        return longitude;
+    }
+}
@@ -0,0 +1,206 @@
+/**
+ * Licensed under the GNU General Public License version 3
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.gnu.org/licenses/gpl-3.0.html
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package it.osm.gtfs.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OSMFileUtilsTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void mergesSortedFilesByTypeAndId() throws Exception {
+        File first = osmFile("first.osm", """
+                <node id="1" version="1" lat="45.0" lon="9.0"/>
+                <node id="5" version="1" lat="45.0" lon="9.0"/>
+                <way id="10" version="1"><nd ref="1"/><nd ref="5"/></way>
+                """);
+        File second = osmFile("second.osm", """
+                <node id="3" version="1" lat="45.0" lon="9.0"/>
+                <relation id="20" version="1"><member type="way" ref="10" role=""/></relation>
+                """);
+
+        File output = tempDir.resolve("merged.osm").toFile();
+        OSMFileUtils.mergeSortedFiles(List.of(first, second), output);
+
+        assertEquals(List.of("node 1", "node 3", "node 5", "way 10", "relation 20"), entities(output));
+
+        //the children of the entities are copied
+        Element way = (Element) read(output).getElementsByTagName("way").item(0);
+        assertEquals(2, way.getElementsByTagName("nd").getLength());
+    }
+
+    @Test
+    void keepsTheHighestVersionOrTheFirstFile() throws Exception {
+        File first = osmFile("first.osm", """
+                <node id="1" version="1" lat="45.0" lon="9.0"><tag k="file" v="first"/></node>
+                <node id="2" version="3" lat="45.0" lon="9.0"><tag k="file" v="first"/></node>
+                <node id="3" version="2" lat="45.0" lon="9.0"><tag k="file" v="first"/></node>
+                """);
+        File second = osmFile("second.osm", """
+                <node id="1" version="2" lat="45.0" lon="9.0"><tag k="file" v="second"/></node>
+                <node id="2" version="1" lat="45.0" lon="9.0"><tag k="file" v="second"/></node>
+                <node id="3" version="2" lat="45.0" lon="9.0"><tag k="file" v="second"/></node>
+                """);
+
+        File output = tempDir.resolve("merged.osm").toFile();
+        OSMFileUtils.mergeSortedFiles(List.of(first, second), output);
+
+        assertEquals(List.of("node 1", "node 2", "node 3"), entities(output));
+        assertEquals(List.of("second", "first", "first"), fileTags(output));
+
+        //with the files in the other order the same version is taken from the new first file
+        OSMFileUtils.mergeSortedFiles(List.of(second, first), output);
+        assertEquals(List.of("second", "first", "second"), fileTags(output));
+    }
+
+    @Test
+    void writesTheUnionOfTheBounds() throws Exception {
+        File first = osmFile("first.osm", """
+                <bounds minlat="45.0" minlon="9.0" maxlat="45.5" maxlon="9.5" origin="test"/>
+                <node id="1" version="1" lat="45.1" lon="9.1"/>
+                """);
+        File second = osmFile("second.osm", """
+                <bounds minlat="44.5" minlon="9.2" maxlat="45.2" maxlon="10.0"/>
+                <node id="2" version="1" lat="45.1" lon="9.1"/>
+                """);
+
+        File output = tempDir.resolve("merged.osm").toFile();
+        OSMFileUtils.mergeSortedFiles(List.of(first, second), output);
+
+        NodeList boundsList = read(output).getElementsByTagName("bounds");
+        assertEquals(1, boundsList.getLength());
+
+        Element bounds = (Element) boundsList.item(0);
+        assertEquals(44.5, Double.parseDouble(bounds.getAttribute("minlat")));
+        assertEquals(9.0, Double.parseDouble(bounds.getAttribute("minlon")));
+        assertEquals(45.5, Double.parseDouble(bounds.getAttribute("maxlat")));
+        assertEquals(10.0, Double.parseDouble(bounds.getAttribute("maxlon")));
+        assertEquals("test", bounds.getAttribute("origin"));
+    }
+
+    @Test
+    void writesNoBoundsIfAFileHasNone() throws Exception {
+        File first = osmFile("first.osm", """
+                <bounds minlat="45.0" minlon="9.0" maxlat="45.5" maxlon="9.5"/>
+                <node id="1" version="1" lat="45.1" lon="9.1"/>
+                """);
+        File second = osmFile("second.osm", """
+                <node id="2" version="1" lat="45.1" lon="9.1"/>
+                """);
+
+        File output = tempDir.resolve("merged.osm").toFile();
+        OSMFileUtils.mergeSortedFiles(List.of(first, second), output);
+
+        assertEquals(0, read(output).getElementsByTagName("bounds").getLength());
+        assertEquals(List.of("node 1", "node 2"), entities(output));
+    }
+
+    @Test
+    void rejectsUnsortedFiles() throws Exception {
+        File sorted = osmFile("sorted.osm", """
+                <node id="1" version="1" lat="45.0" lon="9.0"/>
+                """);
+        File unsorted = osmFile("unsorted.osm", """
+                <way id="10" version="1"><nd ref="1"/></way>
+                <node id="2" version="1" lat="45.0" lon="9.0"/>
+                """);
+
+        File output = tempDir.resolve("merged.osm").toFile();
+        assertThrows(IOException.class, () -> OSMFileUtils.mergeSortedFiles(List.of(sorted, unsorted), output));
+    }
+
+    @Test
+    void removesTheWaysAndNodesNotUsedByTheRelations() throws Exception {
+        File input = osmFile("relations.osm", """
+                <node id="1" version="1" lat="45.0" lon="9.0"/>
+                <node id="2" version="1" lat="45.0" lon="9.0"/>
+                <node id="3" version="1" lat="45.0" lon="9.0"/>
+                <node id="4" version="1" lat="45.0" lon="9.0"/>
+                <node id="5" version="1" lat="45.0" lon="9.0"><tag k="highway" v="bus_stop"/></node>
+                <way id="10" version="1"><nd ref="1"/><nd ref="2"/></way>
+                <way id="11" version="1"><nd ref="3"/><nd ref="4"/></way>
+                <relation id="20" version="1">
+                  <member type="node" ref="5" role="platform"/>
+                  <member type="way" ref="10" role=""/>
+                  <tag k="type" v="route"/>
+                </relation>
+                """);
+
+        File output = tempDir.resolve("filtered.osm").toFile();
+        OSMFileUtils.removeUnusedWaysAndNodes(input, output);
+
+        assertEquals(List.of("node 1", "node 2", "node 5", "way 10", "relation 20"), entities(output));
+
+        //the kept entities are copied with their children
+        Document document = read(output);
+        Element stop = (Element) document.getElementsByTagName("node").item(2);
+        assertEquals("bus_stop", ((Element) stop.getElementsByTagName("tag").item(0)).getAttribute("v"));
+        assertEquals(2, ((Element) document.getElementsByTagName("relation").item(0)).getElementsByTagName("member").getLength());
+    }
+
+    private File osmFile(String name, String entities) throws IOException {
+        Path path = tempDir.resolve(name);
+        Files.writeString(path, "<?xml version='1.0' encoding='UTF-8'?>\n<osm version=\"0.6\" generator=\"test\">\n" + entities + "</osm>\n");
+        return path.toFile();
+    }
+
+    private static Document read(File file) throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file);
+    }
+
+    //the type and id of the entities of the file, in the order of the file
+    private static List<String> entities(File file) throws Exception {
+        List<String> result = new ArrayList<>();
+        for (Element element : children(read(file).getDocumentElement())) {
+            if (!element.getTagName().equals("bounds"))
+                result.add(element.getTagName() + " " + element.getAttribute("id"));
+        }
+        return result;
+    }
+
+    //the value of the "file" tag of every entity
+    private static List<String> fileTags(File file) throws Exception {
+        List<String> result = new ArrayList<>();
+        for (Element element : children(read(file).getDocumentElement())) {
+            Element tag = (Element) element.getElementsByTagName("tag").item(0);
+            result.add(tag.getAttribute("v"));
+        }
+        return result;
+    }
+
+    private static List<Element> children(Element parent) {
+        List<Element> result = new ArrayList<>();
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof Element element)
+                result.add(element);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * Licensed under the GNU General Public License version 3
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.gnu.org/licenses/gpl-3.0.html
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package it.osm.gtfs.utils;
+
+import it.osm.gtfs.models.GTFSStop;
+import org.junit.jupiter.api.Test;
+import org.jxmapviewer.viewer.GeoPosition;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StopsGridIndexTest {
+
+    @Test
+    void neverMissesAStopWithinTheRadius() {
+        //a city, a region at high latitude and an area across the antimeridian
+        assertFindsAllStops(randomStops(600, 45.4, 9.1, 0.1, 1), 50, new double[]{30, 50, 120, 500});
+        assertFindsAllStops(randomStops(600, 78.2, 15.6, 0.05, 2), 50, new double[]{30, 50, 120, 500});
+        assertFindsAllStops(randomStops(600, -16.5, 179.95, 0.1, 3), 200, new double[]{50, 200, 2000});
+    }
+
+    @Test
+    void findsThePairsAcrossTheCellBorders() {
+        double cellSizeMeters = 100;
+        double cellDegrees = cellSizeMeters / DistanceUtils.MIN_METERS_PER_DEGREE;
+
+        //the stops are a few metres away on the two sides of the borders of the cells, in latitude and in longitude
+        List<GTFSStop> stops = new ArrayList<>();
+        for (double latitude : new double[]{0, 45, 60, 80, 89.9}) {
+            double border = Math.floor(latitude / cellDegrees) * cellDegrees;
+            double epsilon = 1e-6;
+
+            stops.add(stop(border - epsilon, 10));
+            stops.add(stop(border + epsilon, 10));
+
+            double lonBorder = Math.floor(10.0003 / cellDegrees) * cellDegrees;
+            stops.add(stop(latitude, lonBorder - epsilon));
+            stops.add(stop(latitude, lonBorder + epsilon));
+            stops.add(stop(border - epsilon, lonBorder - epsilon));
+            stops.add(stop(border + epsilon, lonBorder + epsilon));
+        }
+
+        assertFindsAllStops(stops, cellSizeMeters, new double[]{1, 10, 100, 1000});
+    }
+
+    @Test
+    void findsTheStopsNearThePole() {
+        List<GTFSStop> stops = new ArrayList<>();
+        for (int i = 0; i < 36; i++) {
+            stops.add(stop(89.999, i * 10 - 180));
+        }
+
+        //the stops are about 220 m apart across the pole, and about 20 m from the neighbours
+        assertFindsAllStops(stops, 50, new double[]{30, 50, 250});
+        assertEquals(36, new StopsGridIndex<>(stops, 50).getCandidateIndexes(new GeoPosition(90, 0), 150).length);
+    }
+
+    @Test
+    void returnsTheIndexesInAscendingOrder() {
+        List<GTFSStop> stops = randomStops(500, 45.4, 9.1, 0.01, 4);
+        StopsGridIndex<GTFSStop> index = new StopsGridIndex<>(stops, 50);
+
+        int[] candidates = index.getCandidateIndexes(new GeoPosition(45.4, 9.1), 300);
+        assertTrue(candidates.length > 1);
+        for (int i = 1; i < candidates.length; i++) {
+            assertTrue(candidates[i - 1] < candidates[i]);
+        }
+
+        List<GTFSStop> candidateStops = index.getCandidates(new GeoPosition(45.4, 9.1), 300);
+        assertEquals(candidates.length, candidateStops.size());
+        assertSame(stops.get(candidates[0]), candidateStops.get(0));
+    }
+
+    @Test
+    void emptyIndex() {
+        StopsGridIndex<GTFSStop> index = new StopsGridIndex<>(new ArrayList<>(), 50);
+
+        assertEquals(0, index.getCandidateIndexes(new GeoPosition(45, 9), 100).length);
+        assertTrue(index.getStops().isEmpty());
+    }
+
+    private static void assertFindsAllStops(List<GTFSStop> stops, double cellSizeMeters, double[] radiuses) {
+        StopsGridIndex<GTFSStop> index = new StopsGridIndex<>(stops, cellSizeMeters);
+
+        for (double radius : radiuses) {
+            for (GTFSStop center : stops) {
+                int[] candidates = index.getCandidateIndexes(center.getGeoPosition(), radius);
+
+                for (int i = 0; i < stops.size(); i++) {
+                    if (DistanceUtils.distVincenty(center.getGeoPosition(), stops.get(i).getGeoPosition()) < radius) {
+                        final int stopIndex = i;
+                        assertTrue(contains(candidates, i), () -> "stop " + stops.get(stopIndex).getGeoPosition() + " missing within " + radius + " m from " + center.getGeoPosition());
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean contains(int[] values, int value) {
+        for (int v : values) {
+            if (v == value)
+                return true;
+        }
+        return false;
+    }
+
+    private static List<GTFSStop> randomStops(int count, double latitude, double longitude, double spread, long seed) {
+        Random random = new Random(seed);
+        List<GTFSStop> stops = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            double stopLongitude = longitude + (random.nextDouble() * 2 - 1) * spread;
+            if (stopLongitude > 180)
+                stopLongitude -= 360;
+
+            stops.add(stop(latitude + (random.nextDouble() * 2 - 1) * spread, stopLongitude));
+        }
+        return stops;
+    }
+
+    private static GTFSStop stop(double latitude, double longitude) {
+        return new GTFSStop("id", "code", new GeoPosition(latitude, longitude), "name", null, null, null);
+    }
+}